@@ -0,0 +1,81 @@
+package broker;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The policies a Broker can balance the requests to a provider group with. Each call gives a new instance, e.g.
+ * broker.setProviderGroups(BalancingPolicies::roundRobin).
+ */
+public class BalancingPolicies {
+
+    private BalancingPolicies() {
+    }
+
+    /**
+     * Each provider in turn
+     */
+    public static BalancingPolicy roundRobin() {
+        AtomicLong next = new AtomicLong();
+        return providers -> (int) Math.floorMod(next.getAndIncrement(), (long) providers.size());
+    }
+
+    /**
+     * The provider with the fewest requests waiting for it, relative to its capacity. The scan starts from a
+     * different provider each time, so that the ties are spread.
+     */
+    public static BalancingPolicy leastOutstanding() {
+        AtomicLong next = new AtomicLong();
+        return providers -> {
+            int size = providers.size();
+            int start = (int) Math.floorMod(next.getAndIncrement(), (long) size);
+            int best = start;
+            for (int k = 1; k < size; k++) {
+                int i = (start + k) % size;
+                if (lessLoaded(providers.get(i), providers.get(best))) best = i;
+            }
+            return best;
+        };
+    }
+
+    /**
+     * The less loaded of two providers taken at random : almost as good as leastOutstanding, without looking at every
+     * provider, and the providers that just answered are not all chosen at once.
+     */
+    public static BalancingPolicy powerOfTwoChoices() {
+        return providers -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int size = providers.size();
+            int a = random.nextInt(size);
+            int b = random.nextInt(size - 1);
+            if (b >= a) b++; //two different providers
+            return lessLoaded(providers.get(b), providers.get(a)) ? b : a;
+        };
+    }
+
+    /**
+     * Round robin where a provider gets as many turns as its capacity, e.g. with capacities 1 and 3 the second
+     * provider serves three requests out of four.
+     */
+    public static BalancingPolicy weighted() {
+        AtomicLong next = new AtomicLong();
+        return providers -> {
+            long total = 0;
+            for (BalancingPolicy.Provider p : providers) total += p.getCapacity();
+            long turn = Math.floorMod(next.getAndIncrement(), total);
+            for (int i = 0; i < providers.size(); i++) {
+                turn -= providers.get(i).getCapacity();
+                if (turn < 0) return i;
+            }
+            return providers.size() - 1; //the capacities changed meanwhile
+        };
+    }
+
+    /**
+     * a / capacity(a) < b / capacity(b), without dividing
+     */
+    private static boolean lessLoaded(BalancingPolicy.Provider a, BalancingPolicy.Provider b) {
+        return (long) a.getOutstandingRequests() * b.getCapacity() < (long) b.getOutstandingRequests() * a.getCapacity();
+    }
+}
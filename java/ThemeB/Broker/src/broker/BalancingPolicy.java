@@ -0,0 +1,32 @@
+package broker;
+
+import java.util.List;
+
+/**
+ * Chooses which provider of a group serves a request, see Broker.setProviderGroups and BalancingPolicies.
+ * A group has its own instance : a policy can keep state, but it is called by many threads at once.
+ */
+public interface BalancingPolicy {
+
+    /**
+     * What a policy knows about a provider of the group
+     */
+    interface Provider {
+
+        /**
+         * @return how many requests forwarded to the provider wait for its response
+         */
+        int getOutstandingRequests();
+
+        /**
+         * @return the capacity the provider declared in its ServiceMetadata, at least 1
+         */
+        int getCapacity();
+    }
+
+    /**
+     * @param providers : the providers of the group, at least two
+     * @return the index of the chosen provider in providers
+     */
+    int choose(List<? extends Provider> providers);
+}
@@ -1,9 +1,18 @@
 package broker;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
 
 import com.google.gson.*;
 import connectioninterfaces.IConnection;
@@ -20,12 +29,25 @@ import service.ServiceMetadata;
 
 public class Broker extends Thread {
 
+    private static final long FORWARD_TIMEOUT = 1000; //how long a provider has to answer
+    private static final long BATCH_TIMEOUT = 1000; //how long the providers have to answer the requests of a batch
+
     private IConnectionManager connectionManager;
 
     private Map<String, IServiceMethod> brokerServices = new HashMap<>();
 
-    private Map<String, JsonRpcManager> servers = new HashMap<>();
-    private List<ServiceMetadata> services = new LinkedList<>();
+    private Map<String, ProviderGroup> servers = new ConcurrentHashMap<>();
+    private final ServiceRegistry registry = new ServiceRegistry();
+    private final AtomicLong providerIds = new AtomicLong();
+    private Supplier<BalancingPolicy> balancing = null; //null : every provider has a method name of its own
+
+    private int compressionThreshold = JsonRpcManager.NO_COMPRESSION;
+    private int maxInFlight = ProviderChannel.DEFAULT_MAX_IN_FLIGHT;
+    private int maxPendingChanges = Subscriber.DEFAULT_MAX_PENDING;
+
+    private final Executor executor;
+    private final AtomicInteger queued = new AtomicInteger(), active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong(), rejected = new AtomicLong();
 
     /**
      * Generate a method name to identify unequivocally a Service.
@@ -64,29 +86,91 @@ public class Broker extends Thread {
         if (name.isEmpty()) throw new RuntimeException("failed to register a service: title not found");
 
 
-        name = generateMethodName(name);
+        ServiceMetadata serviceMetadata = ServiceMetadata.fromJson(request.getParams().getAsJsonObject());
+        String provider = newProviderId();
+        ProviderChannel server;
+        if (balancing == null) {
+            //the name is taken atomically : two providers of the same method registering at once get different names
+            String hint = name;
+            while (true) {
+                name = generateMethodName(hint);
+                server = new ProviderChannel(name, provider, manager, maxInFlight, serviceMetadata.getCapacity());
+                ProviderGroup group = new ProviderGroup(null);
+                group.add(server);
+                if (servers.putIfAbsent(name, group) == null) break;
+                server.close(); //another provider took the name meanwhile
+            }
+        } else {
+            ProviderChannel member = new ProviderChannel(name, provider, manager, maxInFlight, serviceMetadata.getCapacity());
+            servers.compute(name, (method, group) -> {
+                if (group == null) group = new ProviderGroup(balancing.get());
+                group.add(member);
+                return group;
+            });
+            server = member;
+        }
+        register(name, server, serviceMetadata);
+        server.listen();
 
         Logger.log("registerService: generated name = " + name);
 
-        ServiceMetadata serviceMetadata = ServiceMetadata.fromJson(request.getParams().getAsJsonObject());
-        serviceMetadata.setMethodName(name);
-        servers.put(name, manager);
-        services.add(serviceMetadata);
-
         Logger.log("registerService: service registered");
 
         JsonObject result = new JsonObject();
         result.addProperty("serviceRegistered", true);
         result.addProperty("method", name);
+        result.addProperty("provider", provider);
 
         return new JsonRpcResponse(result, request.getID());
     }
 
     /**
-     * @return a list with all the stored services
+     * The ids start with the epoch of the registry : a broker that restarted never gives again the id of a provider
+     * of the previous one, so a node can tell its services are not registered anymore.
+     */
+    private String newProviderId() {
+        return Long.toString(registry.getEpoch(), 36) + "-" + providerIds.incrementAndGet();
+    }
+
+    /**
+     * Adds the service of an installed provider to the registry. It runs inside the update of servers for method,
+     * as the removal in DeleterService : a delete of the provider comes either before the service is added, and the
+     * service is not added, or after it is in the registry too.
      */
-    private List<ServiceMetadata> getServicesList() {
-        return services;
+    private void register(String method, ProviderChannel server, ServiceMetadata service) {
+        service.setMethodName(method);
+        servers.computeIfPresent(method, (m, group) -> {
+            if (group.contains(server)) registry.add(server.getId(), service);
+            return group;
+        });
+    }
+
+    /**
+     * This "service" is hard-coded as registerService : the connection is kept to push the changes of the registry
+     * to the node, see Subscriber. The params are an object with any of "search", the SearchStrategy the services
+     * must satisfy, and "epoch" and "version", those of the services the node already has when there is no search.
+     * The response is sent here, so that it comes before the first notification.
+     *
+     * @return null once the node is subscribed, an error response otherwise
+     */
+    private JsonRpcResponse subscribeServices(JsonRpcRequest request, JsonRpcManager manager) {
+        SearchStrategy search = null;
+        long epoch = -1, version = -1;
+        try {
+            JsonObject params = request.getParams() != null ? request.getParams().getAsJsonObject() : new JsonObject();
+            if (params.has("search")) {
+                search = SearchStrategy.fromJson(params.get("search").toString());
+                if (search == null) return JsonRpcResponse.error(JsonRpcCustomError.wrongSearchStrategy(), request.getID());
+            }
+            if (params.has("epoch")) epoch = params.get("epoch").getAsLong();
+            if (params.has("version")) version = params.get("version").getAsLong();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Logger.error("subscribeServices: Wrong JSON-RPC Request received, a JSON-RPC Error is returned to requester");
+            return JsonRpcResponse.error(JsonRpcCustomError.wrongParametersReceived(), request.getID());
+        }
+        new Subscriber(registry, manager, search, maxPendingChanges).start(epoch, version, request.getID());
+        Logger.log("subscribeServices: node subscribed");
+        return null;
     }
 
     /**
@@ -94,7 +178,7 @@ public class Broker extends Thread {
      * @return a list with all the stored services that satisfy the filter specified by searchStrategy
      */
     private List<ServiceMetadata> getServicesList(SearchStrategy searchStrategy) {
-        return searchStrategy.filterList(services);
+        return searchStrategy.search(registry);
     }
 
     /**
@@ -117,6 +201,11 @@ public class Broker extends Thread {
             return new Pair<>(true, registerService(request, manager));
         }
 
+        if (request.getMethod().equals("subscribeServices")) {
+            Logger.log("subscribeServices request");
+            return new Pair<>(true, subscribeServices(request, manager));
+        }
+
         return new Pair<>(false, null);//the request has to be forwarded
     }
 
@@ -145,19 +234,9 @@ public class Broker extends Thread {
             JsonRpcResponse response = handleRequest(request, manager);
             if (response != null) manager.send(response);
             if(request.getMethod().equals("registerService"))return;
+            if (request.getMethod().equals("subscribeServices") && response == null) return; //it carries the changes
         } else if (r instanceof JsonRpcBatchRequest) {
-            JsonRpcBatchRequest requestBatch = (JsonRpcBatchRequest) r;
-            JsonRpcBatchResponse responseBatch = new JsonRpcBatchResponse();
-
-            for (JsonRpcRequest request : requestBatch.get()) {
-                if (request.isValid()) {
-                    JsonRpcResponse response = handleRequest(request, manager);
-                    if (response != null) responseBatch.add(response);
-                } else {
-                    responseBatch.add(JsonRpcResponse.error(JsonRpcDefaultError.invalidRequest(),null));
-                }
-            }
-            manager.send(responseBatch);
+            manager.send(handleBatch((JsonRpcBatchRequest) r, manager));
 
         } else {
             //error
@@ -165,7 +244,7 @@ public class Broker extends Thread {
         }
 
         //the request is handled : we can now free the connection
-        manager.getConnection().close();
+        manager.close();
     }
 
     /**
@@ -184,36 +263,72 @@ public class Broker extends Thread {
         Logger.log("handleRequest: method=\"" + request.getMethod() + "\"\trequest=" + request.toString());
 
         //check if the method requested is registered
-        JsonRpcManager server = servers.get(request.getMethod());
+        ProviderChannel server = route(request.getMethod());
 
         if (server != null) {
-            server.send(request);
-
-            if (request.isNotification()) return null; // if its a notification the broker simply forward it
-
-            JsonRpcMessage res;
-            try {
-                res = server.listenResponse(1000);
-            } catch (ParseException e) {
-                Logger.error("ParseException : received an invalid json-rpc message " +
-                        "( listening for a response from \"" + request.getMethod() + "\" server)");
-                res = JsonRpcResponse.error(JsonRpcDefaultError.internalError(),request.getID());
-            } catch (TimeoutException e) {
-                Logger.error("TimeoutException :" +
-                        " the \"" + request.getMethod() + "\" server did not respond in time( within 1 second ).");
-                res = JsonRpcResponse.error(JsonRpcCustomError.connectionTimeout(),request.getID());
-            }
-            if (!(res instanceof JsonRpcResponse)) {
-                Logger.error("\"" + request.getMethod() + "\" server " +
-                        "responded with a batch response to a non-batch request");
-                res = JsonRpcResponse.error(JsonRpcDefaultError.internalError(),request.getID());
-            }
-            return (JsonRpcResponse) res;
+            // if its a notification the broker simply forward it, otherwise it waits for the response with its id
+            return server.forward(request, FORWARD_TIMEOUT).join();
         } else {
             return JsonRpcResponse.error(JsonRpcDefaultError.methodNotFound(),request.getID());
         }
     }
 
+    /**
+     * @return the provider of method that serves the next request, null if the method is not registered
+     */
+    private ProviderChannel route(String method) {
+        ProviderGroup group = servers.get(method);
+        return group != null ? group.choose() : null;
+    }
+
+    /**
+     * The requests of the batch are forwarded all at once, and those to the same service go to its provider in a
+     * single sub-batch : the batch takes about one round trip to the slowest provider, instead of one round trip
+     * per request. The requests to the broker itself are handled in the meantime.
+     *
+     * @return the responses in the order of the requests, error responses for those not answered before the deadline
+     */
+    private JsonRpcBatchResponse handleBatch(JsonRpcBatchRequest batch, JsonRpcManager manager) {
+        List<JsonRpcRequest> requests = batch.get();
+        JsonRpcResponse[] responses = new JsonRpcResponse[requests.size()];
+        Map<ProviderChannel, List<Integer>> groups = new LinkedHashMap<>();
+        List<Integer> local = new ArrayList<>(); //broker services, notifications and unknown methods
+
+        for (int i = 0; i < requests.size(); i++) {
+            JsonRpcRequest request = requests.get(i);
+            if (!request.isValid()) {
+                responses[i] = JsonRpcResponse.error(JsonRpcDefaultError.invalidRequest(), null);
+                continue;
+            }
+            ProviderChannel server = request.isNotification() || brokerServices.containsKey(request.getMethod()) ?
+                    null : route(request.getMethod());
+            if (server != null) groups.computeIfAbsent(server, s -> new ArrayList<>()).add(i);
+            else local.add(i);
+        }
+
+        long deadline = System.currentTimeMillis() + BATCH_TIMEOUT;
+        List<CompletableFuture<Void>> gathered = new ArrayList<>(groups.size());
+        for (Map.Entry<ProviderChannel, List<Integer>> group : groups.entrySet()) {
+            List<Integer> indexes = group.getValue();
+            List<JsonRpcRequest> subBatch = new ArrayList<>(indexes.size());
+            for (int i : indexes) subBatch.add(requests.get(i));
+            Logger.log("handleBatch: " + subBatch.size() + " requests forwarded together");
+            long left = Math.max(deadline - System.currentTimeMillis(), 1);
+            gathered.add(group.getKey().forward(subBatch, left).thenAccept(forwarded -> {
+                for (int k = 0; k < indexes.size(); k++) responses[indexes.get(k)] = forwarded.get(k);
+            }));
+        }
+
+        for (int i : local) responses[i] = handleRequest(requests.get(i), manager); //while the providers work
+
+        //every forward ends by the deadline, the requests not answered get a timeout error
+        CompletableFuture.allOf(gathered.toArray(new CompletableFuture<?>[0])).join();
+
+        JsonRpcBatchResponse responseBatch = new JsonRpcBatchResponse();
+        for (JsonRpcResponse response : responses)
+            if (response != null) responseBatch.add(response);
+        return responseBatch;
+    }
 
     class DeleterService implements IServiceMethod {
         Broker broker;
@@ -226,15 +341,21 @@ public class Broker extends Thread {
         public JsonRpcResponse run(JsonRpcRequest request) {
             JsonRpcResponse response = null;
             try {
-                String name = request.getParams().getAsJsonObject().get("method").getAsString();
-                for (ServiceMetadata s : services) {
-                    if (s.getMethodName().equals(name)) {
-                        services.remove(s);
-                        servers.remove(name);
-                        response = null;
-                        break;
+                JsonObject params = request.getParams().getAsJsonObject();
+                String name = params.get("method").getAsString();
+                //the id registerService gave to a provider : only that provider of the method is deleted
+                String provider = params.has("provider") ? params.get("provider").getAsString() : null;
+                List<ProviderChannel> deleted = new ArrayList<>();
+                servers.computeIfPresent(name, (method, group) -> {
+                    for (ProviderChannel server : group.members()) {
+                        if (provider != null && !provider.equals(server.getId())) continue;
+                        group.remove(server);
+                        registry.remove(server.getId()); //with the group, see register
+                        deleted.add(server);
                     }
-                }
+                    return group.isEmpty() ? null : group;
+                });
+                for (ProviderChannel server : deleted) server.close();
             } catch (IllegalArgumentException e) {
                 response = JsonRpcResponse.error(JsonRpcCustomError.wrongParametersReceived(), request.getID());
                 Logger.error("DeleterService:" +
@@ -257,36 +378,162 @@ public class Broker extends Thread {
         public JsonRpcResponse run(JsonRpcRequest request) {
             try {
                 JsonObject j = request.getParams()!=null ? request.getParams().getAsJsonObject() : null;
-                List<ServiceMetadata> list;
 
-                if (j == null) list = getServicesList();
+                if (j != null && !j.has("type")) { //a page, see ServiceQuery
+                    JsonObject page = ServiceQuery.fromJson(j).run(registry);
+                    Logger.log("generated page of " + page.getAsJsonArray("services").size() + " services, id:" + request.getID());
+                    return new JsonRpcResponse(page, request.getID());
+                }
+                JsonArray result;
+                if (j == null) result = registry.getAllJson(); //made again only after a change
                 else {
                     SearchStrategy searchStrategy = SearchStrategy.fromJson(j.toString());
                     if (searchStrategy == null) {
                         return JsonRpcResponse.error(JsonRpcCustomError.wrongSearchStrategy(), request.getID());
                     }
-                    list = getServicesList(searchStrategy);
-                }
-
-                JsonArray result = new JsonArray();
-                for (ServiceMetadata s : list) {
-                    result.add(s.toJson());
+                    result = new JsonArray();
+                    for (ServiceMetadata s : getServicesList(searchStrategy)) {
+                        result.add(registry.getJson(s)); //made once, when the service registered
+                    }
                 }
 
-                Logger.log("generated list (result):" + result.toString());
+                if (Logger.isEnabled()) Logger.log("generated list (result):" + result.toString());
                 Logger.log("id:" + request.getID());
                 return new JsonRpcResponse(result, request.getID());
-            } catch (IllegalArgumentException e) {
+            } catch (IllegalArgumentException | IllegalStateException e) {
                 Logger.error("ListProviderService: Wrong JSON-RPC Request received, a JSON-RPC Error is returned to requester");
                 return JsonRpcResponse.error(JsonRpcCustomError.wrongParametersReceived(), request.getID());
             }
         }
     }
 
+    /**
+     * The services registered or deleted since a version of the registry, see ServiceRegistry.getChangesSince :
+     * the params are {"epoch" : e, "version" : v} as given by the previous call, none the first time.
+     */
+    class ListChangesService implements IServiceMethod {
+
+        @Override
+        public JsonRpcResponse run(JsonRpcRequest request) {
+            try {
+                JsonObject j = request.getParams() != null ? request.getParams().getAsJsonObject() : new JsonObject();
+                long epoch = j.has("epoch") ? j.get("epoch").getAsLong() : -1;
+                long version = j.has("version") ? j.get("version").getAsLong() : -1;
+                return new JsonRpcResponse(registry.getChangesSince(epoch, version), request.getID());
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                Logger.error("ListChangesService: Wrong JSON-RPC Request received, a JSON-RPC Error is returned to requester");
+                return JsonRpcResponse.error(JsonRpcCustomError.wrongParametersReceived(), request.getID());
+            }
+        }
+    }
+
+    class MetricsService implements IServiceMethod {
+
+        @Override
+        public JsonRpcResponse run(JsonRpcRequest request) {
+            JsonObject result = new JsonObject();
+            result.addProperty("queued", getQueuedRequests());
+            result.addProperty("active", getActiveWorkers());
+            result.addProperty("completed", getCompletedRequests());
+            result.addProperty("rejected", getRejectedRequests());
+            return new JsonRpcResponse(result, request.getID());
+        }
+    }
+
+    /**
+     * The requests are handled by BrokerExecutors.bounded()
+     */
     public Broker(IConnectionManager connectionManager) {
+        this(connectionManager, BrokerExecutors.bounded());
+    }
+
+    /**
+     * @param executor : handles the requests, e.g. one of BrokerExecutors. A request it rejects is answered with a
+     *                 "server busy" error.
+     */
+    public Broker(IConnectionManager connectionManager, Executor executor) {
         this.connectionManager = connectionManager;
+        this.executor = executor;
         brokerServices.put("getServicesList", new ListProviderService(this));
+        brokerServices.put("getServicesListSince", new ListChangesService());
         brokerServices.put("deleteService", new DeleterService(this));
+        brokerServices.put("getBrokerMetrics", new MetricsService());
+    }
+
+    /**
+     * The requests to a service are forwarded on the connection its provider registered it with, without waiting
+     * for the response of the previous one : up to maxInFlight of them can wait for the provider at the same time.
+     * It applies to the services registered from now on.
+     *
+     * @param maxInFlight : 1 to forward the requests to a service one at a time
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * The changes of the registry wait to be pushed to a subscribed node in a buffer where the last change of a
+     * provider replaces the previous one : when more than maxPending providers changed, the node is too slow and it
+     * is sent what changed from the registry instead. It applies to the nodes subscribed from now on.
+     *
+     * @param maxPending : how many providers with a change not sent yet a subscribed node can have
+     */
+    public void setMaxPendingChanges(int maxPending) {
+        this.maxPendingChanges = maxPending;
+    }
+
+    /**
+     * The providers that register the same method join a group behind the plain method name, and the requests to
+     * the method are balanced among them : a busy service is scaled by starting more nodes that provide it.
+     * Without it every provider gets a method name of its own : sum, sum@1, sum@2, ...
+     * It applies to the services registered from now on, so it is set before the broker starts.
+     *
+     * @param policies : gives the policy of each group, e.g. BalancingPolicies::roundRobin, null to disable the groups
+     */
+    public void setProviderGroups(Supplier<BalancingPolicy> policies) {
+        this.balancing = policies;
+    }
+
+    /**
+     * @return how many requests wait for a worker of the executor
+     */
+    public int getQueuedRequests() {
+        return queued.get();
+    }
+
+    /**
+     * @return how many requests are being handled
+     */
+    public int getActiveWorkers() {
+        return active.get();
+    }
+
+    public long getCompletedRequests() {
+        return completed.get();
+    }
+
+    /**
+     * @return how many requests the executor rejected, answered with a "server busy" error
+     */
+    public long getRejectedRequests() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the services registered in this broker
+     */
+    public ServiceRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * The responses (e.g. a big getServicesList) and the forwarded requests at least threshold bytes long are sent
+     * compressed. The nodes must run a version of the library that understands compressed messages.
+     *
+     * @param threshold : the minimum size in bytes of a message to compress, JsonRpcManager.NO_COMPRESSION to disable it
+     */
+    public void setCompressionThreshold(int threshold) {
+        this.compressionThreshold = threshold;
     }
 
     @Override
@@ -296,21 +543,51 @@ public class Broker extends Thread {
             Logger.log("Broker waiting for incoming connection...");
 
             IConnection c = connectionManager.acceptConnection();
+            if (c == null) continue; //interrupted while waiting
 
-            JsonRpcManager j = new JsonRpcManager(c);
+            JsonRpcManager j = new JsonRpcManager(c, true); //the broker routes by method and id only
+            j.setCompression(compressionThreshold, Deflater.BEST_SPEED);
 
             Logger.log("Broker handling the request");
 
-            Thread t1 = new Thread(() -> {
-                try {
-                    handleConnection(j);
-                    Logger.log("Broker handled the request");
-                } catch (Exception e) {
-                    // handle: log or throw in a wrapped RuntimeException
-                    throw new RuntimeException("InterruptedException caught in lambda", e);
-                }
-            });
-            t1.start();
+            queued.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    queued.decrementAndGet();
+                    active.incrementAndGet();
+                    try {
+                        handleConnection(j);
+                        Logger.log("Broker handled the request");
+                    } catch (RuntimeException e) {
+                        Logger.error("Broker: cannot handle a request (" + e + ")");
+                    } finally {
+                        active.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                queued.decrementAndGet();
+                rejected.incrementAndGet();
+                refuse(j);
+            }
         }
     }
+
+    /**
+     * Answers the requests of a connection the executor rejected with a "server busy" error.
+     * The request is awaited asynchronously : the accept thread goes on at once, even when the node is slow.
+     */
+    private void refuse(JsonRpcManager manager) {
+        Logger.error("Broker: too many requests, one is refused");
+        manager.listenRequestAsync(1000).whenComplete((r, e) -> {
+            if (r instanceof JsonRpcRequest) {
+                JsonRpcRequest request = (JsonRpcRequest) r;
+                if (!request.isNotification())
+                    manager.send(JsonRpcResponse.error(JsonRpcCustomError.serverBusy(), request.getID()));
+            } else {
+                manager.send(JsonRpcResponse.error(JsonRpcCustomError.serverBusy(), null));
+            }
+            manager.close();
+        });
+    }
 }
@@ -0,0 +1,77 @@
+package broker;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executors a Broker can handle its requests with
+ */
+public class BrokerExecutors {
+
+    public static final int DEFAULT_THREADS = 64;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private BrokerExecutors() {
+    }
+
+    /**
+     * DEFAULT_THREADS workers and DEFAULT_QUEUE_CAPACITY waiting requests. When both are full the request is rejected,
+     * and the broker answers it with a "server busy" error : the thread accepting the requests never handles one.
+     */
+    public static ExecutorService bounded() {
+        return bounded(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @param threads       : the maximum number of workers, started when needed and stopped after a minute idle
+     * @param queueCapacity : how many requests can wait for a worker
+     * @param rejection     : what to do with a request when every worker is busy and the queue is full.
+     *                      With ThreadPoolExecutor.AbortPolicy the broker answers it with a "server busy" error.
+     *                      With ThreadPoolExecutor.CallerRunsPolicy the thread of the broker handles it itself, so it
+     *                      stops accepting new requests meanwhile.
+     */
+    public static ExecutorService bounded(int threads, int queueCapacity, RejectedExecutionHandler rejection) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(queueCapacity), workers(), rejection);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * A virtual thread for every request, with java 21 or later : a request waiting for a node does not hold a
+     * platform thread
+     *
+     * @return null if the jvm has no virtual threads
+     */
+    public static ExecutorService virtualThreads() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return virtual threads if the jvm has them, otherwise bounded()
+     */
+    public static ExecutorService best() {
+        ExecutorService virtual = virtualThreads();
+        return virtual != null ? virtual : bounded();
+    }
+
+    private static ThreadFactory workers() {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "broker-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
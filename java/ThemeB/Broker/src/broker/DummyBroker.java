@@ -2,13 +2,29 @@ package broker;
 
 
 import connectioninterfaces.IConnectionManager;
+import tcpimplementation.TcpConnectionManager;
+import tcpimplementation.UnixSocketConnectionManager;
 import zeromqimplementation.ZeroMQConnectionManager;
 
 public class DummyBroker {
 
+    public static final String UNIX_SOCKET = "unix://" + System.getProperty("java.io.tmpdir") + "/jsonrpc-broker.sock";
+
     public static void main(String[] args) {
 
-        IConnectionManager connectionManager = new ZeroMQConnectionManager(6789);
+        // java broker.DummyBroker [tcp|unix] : ZeroMQ unless "tcp" or "unix" is given
+        IConnectionManager connectionManager;
+        String transport = args.length > 0 ? args[0] : "zeromq";
+        switch (transport) {
+            case "tcp":
+                connectionManager = new TcpConnectionManager(6789);
+                break;
+            case "unix":
+                connectionManager = new UnixSocketConnectionManager(UNIX_SOCKET);
+                break;
+            default:
+                connectionManager = new ZeroMQConnectionManager(6789);
+        }
         Broker broker=new Broker(connectionManager);
         System.out.println("Broker is on ...");
         broker.start();
@@ -0,0 +1,241 @@
+package broker;
+
+import jsonrpclibrary.ID;
+import jsonrpclibrary.JsonRpcBatchRequest;
+import jsonrpclibrary.JsonRpcBatchResponse;
+import jsonrpclibrary.JsonRpcDefaultError;
+import jsonrpclibrary.JsonRpcManager;
+import jsonrpclibrary.JsonRpcMessage;
+import jsonrpclibrary.JsonRpcMessageListener;
+import jsonrpclibrary.JsonRpcRequest;
+import jsonrpclibrary.JsonRpcResponse;
+import jsonrpclibrary.ParseException;
+import logger.Logger;
+import service.JsonRpcCustomError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The connection of a service provider, shared by every request forwarded to it.
+ * Each request is sent under an id of the broker and waits in a table until the response with that id arrives, so
+ * up to maxInFlight requests can wait at the same time, the responses can come in any order, and each goes back to
+ * the request it answers with the id of that request.
+ */
+class ProviderChannel implements JsonRpcMessageListener, BalancingPolicy.Provider {
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "broker-timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String method;
+    private final String id;
+    private final int capacity;
+    private final JsonRpcManager manager;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile boolean closed = false;
+
+    private static class Pending {
+        final JsonRpcRequest request;
+        final CompletableFuture<JsonRpcResponse> response = new CompletableFuture<>();
+
+        Pending(JsonRpcRequest request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * @param method      : the method of the service, for the logs
+     * @param id          : identifies the provider among those of the method
+     * @param manager     : the connection the provider registered its service with
+     * @param maxInFlight : how many requests can wait for a response of the provider at the same time
+     * @param capacity    : the capacity declared by the provider, for the balancing policy
+     */
+    ProviderChannel(String method, String id, JsonRpcManager manager, int maxInFlight, int capacity) {
+        this.method = method;
+        this.id = id;
+        this.capacity = Math.max(capacity, 1);
+        this.manager = manager;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Starts receiving the responses of the provider. It is called once the channel is installed : a channel that
+     * lost the registration is closed without having listened.
+     */
+    synchronized void listen() {
+        if (!closed) manager.listen(this);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    @Override
+    public int getOutstandingRequests() {
+        return pending.size();
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sends request to the provider. The calling thread waits only while maxInFlight requests are already waiting.
+     *
+     * @param milliseconds : how long the provider has to answer
+     * @return the response with the id of request, an error response if the provider did not answer in time, or
+     * null for a notification
+     */
+    CompletableFuture<JsonRpcResponse> forward(JsonRpcRequest request, long milliseconds) {
+        if (request.isNotification()) {
+            manager.send(request);
+            return CompletableFuture.completedFuture(null);
+        }
+        return forward(Collections.singletonList(request), milliseconds).thenApply(responses -> responses.get(0));
+    }
+
+    /**
+     * Sends requests to the provider in a single batch : the provider answers all of them in one round trip.
+     * The batch takes as many places as it has requests, up to maxInFlight.
+     *
+     * @param requests     : requests with an id, no notification
+     * @param milliseconds : how long the provider has to answer
+     * @return the responses in the order of requests, error responses for the requests not answered in time
+     */
+    CompletableFuture<List<JsonRpcResponse>> forward(List<JsonRpcRequest> requests, long milliseconds) {
+        int permits = Math.min(requests.size(), maxInFlight);
+        try {
+            if (!inFlight.tryAcquire(permits, milliseconds, TimeUnit.MILLISECONDS))
+                return CompletableFuture.completedFuture(timedOut(requests));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(timedOut(requests));
+        }
+
+        long[] ids = new long[requests.size()];
+        List<CompletableFuture<JsonRpcResponse>> responses = new ArrayList<>(requests.size());
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = nextId.incrementAndGet();
+            Pending p = new Pending(requests.get(i));
+            pending.put(ids[i], p);
+            responses.add(p.response);
+        }
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            for (long id : ids) expire(id);
+        }, milliseconds, TimeUnit.MILLISECONDS);
+        CompletableFuture<List<JsonRpcResponse>> all = CompletableFuture
+                .allOf(responses.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> {
+                    List<JsonRpcResponse> list = new ArrayList<>(ids.length);
+                    for (CompletableFuture<JsonRpcResponse> response : responses) list.add(response.join());
+                    return list;
+                });
+        all.whenComplete((r, e) -> {
+            timeout.cancel(false);
+            inFlight.release(permits);
+        });
+
+        if (closed) {
+            for (long id : ids) fail(id);
+        } else if (ids.length == 1) {
+            manager.send(requests.get(0).withID(new ID(ids[0])));
+        } else {
+            JsonRpcBatchRequest batch = new JsonRpcBatchRequest();
+            for (int i = 0; i < ids.length; i++) batch.add(requests.get(i).withID(new ID(ids[i])));
+            manager.send(batch);
+        }
+        return all;
+    }
+
+    private List<JsonRpcResponse> timedOut(List<JsonRpcRequest> requests) {
+        List<JsonRpcResponse> responses = new ArrayList<>(requests.size());
+        for (JsonRpcRequest request : requests) responses.add(timedOut(request));
+        return responses;
+    }
+
+    private JsonRpcResponse timedOut(JsonRpcRequest request) {
+        Logger.error("TimeoutException : the \"" + method + "\" server did not respond in time.");
+        return JsonRpcResponse.error(JsonRpcCustomError.connectionTimeout(), request.getID());
+    }
+
+    private void expire(long id) {
+        Pending p = pending.remove(id);
+        if (p != null) p.response.complete(timedOut(p.request));
+    }
+
+    private void fail(long id) {
+        Pending p = pending.remove(id);
+        if (p != null)
+            p.response.complete(JsonRpcResponse.error(JsonRpcDefaultError.internalError(), p.request.getID()));
+    }
+
+    /**
+     * A batch sent by forward(List, long) is answered with a batch of responses, each matched by its id
+     */
+    @Override
+    public void onMessage(JsonRpcMessage msg) {
+        if (msg instanceof JsonRpcResponse) {
+            answer((JsonRpcResponse) msg);
+        } else if (msg instanceof JsonRpcBatchResponse) {
+            for (JsonRpcResponse response : ((JsonRpcBatchResponse) msg).get()) answer(response);
+        } else {
+            Logger.error("\"" + method + "\" server sent something else than a response to a forwarded request");
+        }
+    }
+
+    private void answer(JsonRpcResponse response) {
+        ID id = response.getID();
+        Pending p = id != null && id.isNumber() ? pending.remove(id.getAsLong()) : null;
+        if (p == null) {
+            Logger.error("\"" + method + "\" server answered a request that is not waiting (id " + id + ")");
+            return;
+        }
+        p.response.complete(response.withID(p.request.getID()));
+    }
+
+    @Override
+    public void onParseError(ParseException e) {
+        Logger.error("ParseException : received an invalid json-rpc message from the \"" + method + "\" server");
+    }
+
+    /**
+     * The provider is gone : the requests still waiting are answered with an error
+     */
+    @Override
+    public void onError(Throwable e) {
+        close();
+    }
+
+    /**
+     * Stops forwarding : the requests still waiting are answered with an error
+     */
+    synchronized void close() {
+        closed = true;
+        manager.stopListening();
+        for (Long id : pending.keySet()) fail(id);
+    }
+}
@@ -0,0 +1,57 @@
+package broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The providers of a method. Without provider groups every provider has a method of its own, so its group has
+ * only itself.
+ */
+class ProviderGroup {
+
+    private final BalancingPolicy policy;
+    private final List<ProviderChannel> members = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param policy : chooses among the providers, null if the group never has more than one
+     */
+    ProviderGroup(BalancingPolicy policy) {
+        this.policy = policy;
+    }
+
+    void add(ProviderChannel provider) {
+        members.add(provider);
+    }
+
+    void remove(ProviderChannel provider) {
+        members.remove(provider);
+    }
+
+    /**
+     * @return the providers in the order they joined the group
+     */
+    List<ProviderChannel> members() {
+        return new ArrayList<>(members);
+    }
+
+    boolean contains(ProviderChannel provider) {
+        return members.contains(provider);
+    }
+
+    boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * @return the provider to forward the next request to, null if none is left. The providers whose connection
+     * is closed leave the group.
+     */
+    ProviderChannel choose() {
+        List<ProviderChannel> providers = members(); //a snapshot, the group can change meanwhile
+        if (providers.removeIf(ProviderChannel::isClosed)) members.removeIf(ProviderChannel::isClosed);
+        if (providers.isEmpty()) return null;
+        if (providers.size() == 1 || policy == null) return providers.get(0);
+        return providers.get(policy.choose(providers));
+    }
+}
@@ -0,0 +1,139 @@
+package broker;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import searchstrategy.AndSearchStrategy;
+import searchstrategy.SearchStrategy;
+import searchstrategy.ServicePage;
+import service.ServiceMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A page of a getServicesList request, the params of which are an object with any of:
+ * <ul>
+ * <li>"search" : a SearchStrategy, every service if none</li>
+ * <li>"limit" : at most how many services the page has, DEFAULT_LIMIT if none, never more than MAX_LIMIT</li>
+ * <li>"cursor" : where the page starts, as given with the previous page</li>
+ * <li>"fields" : the fields of the services to send, e.g. ["method", "owner"], all of them if none</li>
+ * <li>"orderBy" and "descending" : the first limit services by that field, e.g. "activationDate" : there is only
+ * one page then</li>
+ * </ul>
+ * The result is {"services" : [...], "cursor" : "..."}, without cursor on the last page. A page is found from the
+ * slots of the registry, so a service registering or leaving between two pages may be seen or not.
+ */
+class ServiceQuery {
+
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 10000;
+
+    private static final List<String> FIELDS = Arrays.asList(
+            "method", "owner", "applicationField", "keywords", "description", "activationDate", "capacity");
+
+    private final SearchStrategy search;
+    private final int limit;
+    private final int first;
+    private final List<String> fields;
+    private final Comparator<ServiceMetadata> order;
+
+    /**
+     * @throws IllegalArgumentException if params is ill-formed
+     */
+    static ServiceQuery fromJson(JsonObject params) {
+        try {
+            return new ServiceQuery(params);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) { //e.g. a string where an array should be
+            throw new IllegalArgumentException("ServiceQuery : ill-formed params", e);
+        }
+    }
+
+    private ServiceQuery(JsonObject params) {
+        search = params.has("search") ? SearchStrategy.fromJson(params.get("search").toString()) : null;
+        if (params.has("search") && search == null) throw new IllegalArgumentException("ServiceQuery : unknown search");
+        limit = params.has("limit") ? Math.min(params.get("limit").getAsInt(), MAX_LIMIT) : DEFAULT_LIMIT;
+        if (limit <= 0) throw new IllegalArgumentException("ServiceQuery : limit must be positive");
+        first = params.has("cursor") ? decode(params.get("cursor").getAsString()) : 0;
+
+        if (params.has("fields")) {
+            fields = new ArrayList<>();
+            for (JsonElement field : params.get("fields").getAsJsonArray()) {
+                if (!FIELDS.contains(field.getAsString()))
+                    throw new IllegalArgumentException("ServiceQuery : unknown field " + field.getAsString());
+                fields.add(field.getAsString());
+            }
+        } else fields = null;
+
+        if (params.has("orderBy")) {
+            if (params.has("cursor")) throw new IllegalArgumentException("ServiceQuery : no cursor with orderBy");
+            Comparator<ServiceMetadata> order = comparator(params.get("orderBy").getAsString());
+            boolean descending = params.has("descending") && params.get("descending").getAsBoolean();
+            this.order = descending ? order.reversed() : order;
+        } else order = null;
+    }
+
+    private static Comparator<ServiceMetadata> comparator(String field) {
+        switch (field) {
+            case "method":
+                return by(ServiceMetadata::getMethodName);
+            case "owner":
+                return by(ServiceMetadata::getOwner);
+            case "applicationField":
+                return by(ServiceMetadata::getApplicationField);
+            case "activationDate":
+                return by(ServiceMetadata::getActivationDate);
+            case "capacity":
+                return Comparator.comparingInt(ServiceMetadata::getCapacity);
+        }
+        throw new IllegalArgumentException("ServiceQuery : cannot order by " + field);
+    }
+
+    private static Comparator<ServiceMetadata> by(Function<ServiceMetadata, String> field) {
+        return Comparator.comparing(field, Comparator.nullsFirst(Comparator.naturalOrder()));
+    }
+
+    JsonObject run(ServiceRegistry registry) {
+        SearchStrategy search = this.search != null ? this.search : new AndSearchStrategy(); //of nothing : all
+        List<ServiceMetadata> services;
+        int next = -1;
+        if (order != null) services = search.top(registry, limit, order);
+        else {
+            ServicePage page = search.search(registry, first, limit);
+            services = page.getServices();
+            next = page.getNext();
+        }
+
+        JsonArray array = new JsonArray();
+        for (ServiceMetadata s : services) array.add(project(registry.getJson(s)));
+        JsonObject result = new JsonObject();
+        result.add("services", array);
+        if (next >= 0) result.addProperty("cursor", encode(next));
+        return result;
+    }
+
+    private JsonObject project(JsonObject service) {
+        if (fields == null) return service;
+        JsonObject projected = new JsonObject();
+        for (String field : fields)
+            if (service.has(field)) projected.add(field, service.get(field));
+        return projected;
+    }
+
+    private static String encode(int slot) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(("s" + slot).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int decode(String cursor) {
+        String s = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        if (!s.startsWith("s")) throw new IllegalArgumentException("ServiceQuery : ill-formed cursor");
+        return Integer.parseInt(s.substring(1)); //a NumberFormatException is an IllegalArgumentException
+    }
+}
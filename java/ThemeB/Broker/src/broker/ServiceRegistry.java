@@ -0,0 +1,537 @@
+package broker;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import searchstrategy.KeywordIndex;
+import searchstrategy.RangeIndex;
+import searchstrategy.SearchStrategy;
+import searchstrategy.ServiceIndex;
+import searchstrategy.SlotBitmap;
+import searchstrategy.TrigramIndex;
+import service.ServiceMetadata;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The services registered in a Broker, one for each provider.
+ * <p>
+ * A service is stored in a numbered slot, and found through indexes by method and owner, each a concurrent map
+ * from a value to the services having it, and by keyword, application field and activation date, bitmaps of the
+ * slots of the services having them. The reads take no lock and can run while services register and leave :
+ * a service registering or leaving meanwhile may be seen or not. The indexes are updated key by key, only the
+ * allocation of a slot takes a short lock, and the add and the remove of the same provider do not overlap.
+ * The slot of a service that left is given to the next service that registers.
+ * <p>
+ * The methods and the owners are also in trigram indexes, by slot, so that a TitleSearchStrategy or an
+ * OwnerSearchStrategy looks only at the few services that may match.
+ * <p>
+ * Each service added or removed makes the version grow, and the last MAX_CHANGES changes are kept so that a node
+ * can get only what changed since the version it has, see getChangesSince. The json of the services is made once
+ * and the array of all of them only after a change. The changes can also be pushed as they happen to a
+ * ChangeListener, e.g. a Subscriber.
+ */
+public class ServiceRegistry implements ServiceIndex {
+
+    private static final int INITIAL_SLOTS = 64;
+
+    // how many changes are kept for getChangesSince : a node further behind gets every service
+    public static final int MAX_CHANGES = 10000;
+
+    private static class Entry {
+        final int slot;
+        final String provider;
+        final ServiceMetadata service;
+        private volatile JsonObject json;
+
+        Entry(int slot, String provider, ServiceMetadata service) {
+            this.slot = slot;
+            this.provider = provider;
+            this.service = service;
+        }
+
+        /**
+         * @return the service as json, made once : the service does not change once registered
+         */
+        JsonObject json() {
+            JsonObject j = json;
+            if (j == null) json = j = service.toJson();
+            return j;
+        }
+    }
+
+    /**
+     * A service registered (entry) or deleted (entry null) by a provider
+     */
+    private static class Change {
+        final long version;
+        final String provider;
+        final Entry entry;
+
+        Change(long version, String provider, Entry entry) {
+            this.version = version;
+            this.provider = provider;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Told of every change as it is recorded, in the order of the versions. It is called while the changes are
+     * locked, so it must not block.
+     */
+    interface ChangeListener {
+        /**
+         * @param service : the service registered or deleted
+         * @param change  : as getChangesSince gives it, {"provider" : p, "service" : {...}} for a service registered
+         *                and {"provider" : p} for a service deleted : it must not be modified
+         */
+        void changed(long version, String provider, ServiceMetadata service, JsonObject change);
+    }
+
+    /**
+     * The json of every service at a version
+     */
+    private static class Listing {
+        final long version;
+        final JsonArray services = new JsonArray(); //as getServicesList gives them
+        final JsonArray entries = new JsonArray(); //with their providers, as getChangesSince gives them
+
+        Listing(long version) {
+            this.version = version;
+        }
+    }
+
+    private final Map<String, Entry> byProvider = new ConcurrentHashMap<>();
+    private final Index byMethod = new Index(), byOwner = new Index();
+    private final KeywordIndex byKeyword = new KeywordIndex(), byApplicationField = new KeywordIndex();
+    private final RangeIndex byActivationDate = new RangeIndex();
+    private final TrigramIndex methodTrigrams = new TrigramIndex(), ownerTrigrams = new TrigramIndex();
+
+    // written only while holding slotLock, read without it
+    private volatile AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(INITIAL_SLOTS);
+    private int used = 0; //the slots after this one have never been given
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private final Object slotLock = new Object();
+
+    // a registry made again, e.g. by a broker that restarted, has another epoch : its versions start again
+    private final long epoch = new Random().nextLong() & Long.MAX_VALUE;
+    private volatile long version = 0; //written only while holding changes
+    private final Deque<Change> changes = new ArrayDeque<>();
+    private volatile Listing listing = null;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * A value to services index, e.g. a method name to the services with that method
+     */
+    private static class Index {
+        private final Map<String, Set<Entry>> entries = new ConcurrentHashMap<>();
+
+        void add(String key, Entry entry) {
+            if (key == null) return;
+            entries.compute(key, (k, s) -> {
+                if (s == null) s = ConcurrentHashMap.newKeySet();
+                s.add(entry);
+                return s;
+            });
+        }
+
+        void remove(String key, Entry entry) {
+            if (key == null) return;
+            entries.computeIfPresent(key, (k, s) -> {
+                s.remove(entry);
+                return s.isEmpty() ? null : s;
+            });
+        }
+
+        /**
+         * @return the entry of service, null if it is not there anymore
+         */
+        Entry find(String key, ServiceMetadata service) {
+            Set<Entry> s = key != null ? entries.get(key) : null;
+            if (s != null)
+                for (Entry entry : s)
+                    if (entry.service == service) return entry;
+            return null;
+        }
+
+        List<ServiceMetadata> get(String key) {
+            Set<Entry> s = key != null ? entries.get(key) : null;
+            if (s == null) return new ArrayList<>();
+            List<ServiceMetadata> found = new ArrayList<>(s.size());
+            for (Entry entry : s) found.add(entry.service);
+            return found;
+        }
+    }
+
+    /**
+     * @param provider : the id of the provider of the service, see Broker.registerService
+     * @param service  : its fields must not change once it is registered
+     * @throws IllegalArgumentException if the provider has already registered a service
+     */
+    public void add(String provider, ServiceMetadata service) {
+        Entry entry;
+        synchronized (slotLock) {
+            int slot;
+            if (!freeSlots.isEmpty()) slot = freeSlots.pop();
+            else {
+                slot = used++;
+                if (slot == slots.length()) slots = grow(slots);
+            }
+            entry = new Entry(slot, provider, service);
+        }
+        //a remove of the provider finds the entry in byProvider and waits for it to be indexed and recorded
+        synchronized (entry) {
+            synchronized (slotLock) {
+                if (byProvider.containsKey(provider)) {
+                    freeSlots.push(entry.slot);
+                    throw new IllegalArgumentException("ServiceRegistry : provider " + provider + " already registered");
+                }
+                slots.set(entry.slot, entry);
+                byProvider.put(provider, entry);
+            }
+            byMethod.add(service.getMethodName(), entry);
+            byOwner.add(service.getOwner(), entry);
+            byApplicationField.add(entry.slot, applicationField(service));
+            byKeyword.add(entry.slot, keywords(service));
+            byActivationDate.add(entry.slot, service.getActivationDate());
+            methodTrigrams.add(entry.slot, service.getMethodName());
+            ownerTrigrams.add(entry.slot, service.getOwner());
+            record(entry, true);
+        }
+    }
+
+    private static AtomicReferenceArray<Entry> grow(AtomicReferenceArray<Entry> slots) {
+        AtomicReferenceArray<Entry> bigger = new AtomicReferenceArray<>(slots.length() * 2);
+        for (int i = 0; i < slots.length(); i++) bigger.set(i, slots.get(i));
+        return bigger;
+    }
+
+    /**
+     * @return the service of provider, null if it has none
+     */
+    public ServiceMetadata remove(String provider) {
+        Entry entry = byProvider.remove(provider); //only one thread gets it
+        if (entry == null) return null;
+        ServiceMetadata service = entry.service;
+        synchronized (entry) { //once the add is over
+            byMethod.remove(service.getMethodName(), entry);
+            byOwner.remove(service.getOwner(), entry);
+            byApplicationField.remove(entry.slot, applicationField(service));
+            byKeyword.remove(entry.slot, keywords(service));
+            byActivationDate.remove(entry.slot, service.getActivationDate());
+            methodTrigrams.remove(entry.slot, service.getMethodName());
+            ownerTrigrams.remove(entry.slot, service.getOwner());
+            synchronized (slotLock) { //the slot is given again once it is out of the indexes
+                slots.set(entry.slot, null);
+                freeSlots.push(entry.slot);
+            }
+            record(entry, false);
+        }
+        return service;
+    }
+
+    /**
+     * The change is recorded once the slots and the indexes show it : whoever reads a version then reads the
+     * services sees at least the changes up to that version
+     */
+    private void record(Entry entry, boolean registered) {
+        synchronized (changes) {
+            changes.addLast(new Change(version + 1, entry.provider, registered ? entry : null));
+            if (changes.size() > MAX_CHANGES) changes.removeFirst();
+            version++;
+            if (listeners.isEmpty()) return;
+            JsonObject change = change(entry.provider, registered ? entry : null);
+            for (ChangeListener listener : listeners) listener.changed(version, entry.provider, entry.service, change);
+        }
+    }
+
+    /**
+     * @param listener : told of the changes recorded from now on
+     */
+    void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return a number that changes when a registry is made again, with the versions starting again
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the number of changes since the registry was made : it grows each time a service is added or removed
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * The array is made again only if a service was added or removed since the last call, and must not be
+     * modified
+     *
+     * @return every service as json, in the order of their slots
+     */
+    public JsonArray getAllJson() {
+        return listing().services;
+    }
+
+    private Listing listing() {
+        long version = this.version; //read before the slots
+        Listing listing = this.listing;
+        if (listing != null && listing.version == version) return listing;
+        listing = new Listing(version);
+        AtomicReferenceArray<Entry> slots = this.slots;
+        for (int i = 0; i < slots.length(); i++) {
+            Entry entry = slots.get(i);
+            if (entry == null) continue;
+            listing.services.add(entry.json());
+            listing.entries.add(change(entry.provider, entry));
+        }
+        this.listing = listing;
+        return listing;
+    }
+
+    private static JsonObject change(String provider, Entry entry) {
+        JsonObject change = new JsonObject();
+        change.addProperty("provider", provider);
+        if (entry != null) change.add("service", entry.json());
+        return change;
+    }
+
+    /**
+     * The changes since version, or every service if they are not all kept anymore or epoch is not the one of this
+     * registry : {"epoch" : e, "version" : v} and either
+     * <ul>
+     * <li>"changes" : [{"provider" : p, "service" : {...}}, {"provider" : q}, ...] the last change of each provider,
+     * the services registered and the providers (without service) that deleted theirs, in the order they
+     * happened</li>
+     * <li>"services" : [{"provider" : p, "service" : {...}}, ...] every service</li>
+     * </ul>
+     * A change after v may be given too : applied in order, the changes lead to the services at v or later.
+     *
+     * @param epoch   : the one given with version
+     * @param version : -1 for every service
+     */
+    public JsonObject getChangesSince(long epoch, long version) {
+        JsonObject result = new JsonObject();
+        result.addProperty("epoch", this.epoch);
+        Map<String, Change> last = new LinkedHashMap<>();
+        long current;
+        synchronized (changes) {
+            current = this.version;
+            boolean kept = epoch == this.epoch && version >= 0 && version <= current
+                    && (changes.isEmpty() || changes.peekFirst().version <= version + 1);
+            if (kept) {
+                for (Iterator<Change> i = changes.descendingIterator(); i.hasNext(); ) {
+                    Change change = i.next();
+                    if (change.version <= version) break;
+                    last.putIfAbsent(change.provider, change);
+                }
+            }
+            else current = -1;
+        }
+        if (current < 0) {
+            Listing listing = listing();
+            result.addProperty("version", listing.version);
+            result.add("services", listing.entries);
+            return result;
+        }
+        List<Change> inOrder = new ArrayList<>(last.values());
+        inOrder.sort(Comparator.comparingLong(c -> c.version));
+        JsonArray array = new JsonArray();
+        for (Change change : inOrder) array.add(change(change.provider, change.entry));
+        result.addProperty("version", current);
+        result.add("changes", array);
+        return result;
+    }
+
+    /**
+     * A slot may have been given to another service meanwhile : only the services still registered are given
+     *
+     * @return the services found by search with their providers, as getChangesSince gives them :
+     * [{"provider" : p, "service" : {...}}, ...]
+     */
+    JsonArray getEntriesJson(SearchStrategy search) {
+        JsonArray array = new JsonArray();
+        for (ServiceMetadata service : search.search(this)) {
+            Entry entry = byMethod.find(service.getMethodName(), service);
+            if (entry != null) array.add(change(entry.provider, entry));
+        }
+        return array;
+    }
+
+    /**
+     * @param service : one of the services of this registry, e.g. found by a search
+     * @return service as json, made once for all the lists it is sent in : it must not be modified
+     */
+    public JsonObject getJson(ServiceMetadata service) {
+        Entry entry = byMethod.find(service.getMethodName(), service);
+        return entry != null ? entry.json() : service.toJson(); //it left meanwhile
+    }
+
+    private static List<String> keywords(ServiceMetadata service) {
+        return service.getKeywords() != null ? service.getKeywords() : Collections.emptyList();
+    }
+
+    private static List<String> applicationField(ServiceMetadata service) {
+        String field = service.getApplicationField();
+        return field != null ? Collections.singletonList(field) : Collections.emptyList();
+    }
+
+    /**
+     * @return the service of provider, null if it has none
+     */
+    public ServiceMetadata get(String provider) {
+        Entry entry = byProvider.get(provider);
+        return entry != null ? entry.service : null;
+    }
+
+    @Override
+    public int size() {
+        return byProvider.size();
+    }
+
+    /**
+     * @return every service, in the order of their slots
+     */
+    @Override
+    public List<ServiceMetadata> getAll() {
+        AtomicReferenceArray<Entry> slots = this.slots;
+        List<ServiceMetadata> all = new ArrayList<>(byProvider.size());
+        for (int i = 0; i < slots.length(); i++) {
+            Entry entry = slots.get(i);
+            if (entry != null) all.add(entry.service);
+        }
+        return all;
+    }
+
+    /**
+     * @return the services of method : one, or with provider groups all those of the group
+     */
+    public List<ServiceMetadata> getByMethod(String method) {
+        return byMethod.get(method);
+    }
+
+    public List<ServiceMetadata> getByOwner(String owner) {
+        return byOwner.get(owner);
+    }
+
+    public List<ServiceMetadata> getByApplicationField(String applicationField) {
+        List<ServiceMetadata> found = getServices(byApplicationField.get(applicationField));
+        found.removeIf(service -> !applicationField.equals(service.getApplicationField())); //a slot given again meanwhile
+        return found;
+    }
+
+    public List<ServiceMetadata> getByKeyword(String keyword) {
+        List<ServiceMetadata> found = getServices(byKeyword.get(keyword));
+        found.removeIf(service -> !keywords(service).contains(keyword)); //a slot given again meanwhile
+        return found;
+    }
+
+    @Override
+    public SlotBitmap getAllSlots() {
+        AtomicReferenceArray<Entry> slots = this.slots;
+        int[] found = new int[slots.length()];
+        int n = 0;
+        for (int i = 0; i < slots.length(); i++)
+            if (slots.get(i) != null) found[n++] = i;
+        return SlotBitmap.of(Arrays.copyOf(found, n));
+    }
+
+    @Override
+    public SlotBitmap getMethodSlots(String text) {
+        int[] found = methodTrigrams.candidates(text);
+        return found != null ? SlotBitmap.of(found) : null;
+    }
+
+    @Override
+    public int estimateMethodSlots(String text) {
+        int estimate = methodTrigrams.estimate(text);
+        return estimate >= 0 ? estimate : size();
+    }
+
+    @Override
+    public SlotBitmap getOwnerSlots(String text) {
+        int[] found = ownerTrigrams.candidates(text);
+        return found != null ? SlotBitmap.of(found) : null;
+    }
+
+    @Override
+    public int estimateOwnerSlots(String text) {
+        int estimate = ownerTrigrams.estimate(text);
+        return estimate >= 0 ? estimate : size();
+    }
+
+    @Override
+    public SlotBitmap getKeywordSlots(String keyword) {
+        return byKeyword.get(keyword);
+    }
+
+    @Override
+    public SlotBitmap getApplicationFieldSlots(String applicationField) {
+        return byApplicationField.get(applicationField);
+    }
+
+    @Override
+    public SlotBitmap getActivationSlots(String from, String to) {
+        return byActivationDate.get(from, to);
+    }
+
+    @Override
+    public int estimateActivationSlots(String from, String to) {
+        return byActivationDate.count(from, to);
+    }
+
+    /**
+     * A slot may have been given to another service meanwhile : the services have to be checked by the caller
+     *
+     * @return the services at slots, in the order of the slots
+     */
+    public List<ServiceMetadata> getServices(SlotBitmap slots) {
+        return atSlots(slots.toArray());
+    }
+
+    @Override
+    public ServiceMetadata getService(int slot) {
+        AtomicReferenceArray<Entry> slots = this.slots;
+        Entry entry = slot >= 0 && slot < slots.length() ? slots.get(slot) : null;
+        return entry != null ? entry.service : null;
+    }
+
+    @Override
+    public int getSlotCount() {
+        return slots.length();
+    }
+
+    /**
+     * @param found : sorted
+     * @return the services at the slots found
+     */
+    private List<ServiceMetadata> atSlots(int[] found) {
+        AtomicReferenceArray<Entry> slots = this.slots;
+        List<ServiceMetadata> services = new ArrayList<>(found.length);
+        for (int slot : found) {
+            Entry entry = slot < slots.length() ? slots.get(slot) : null;
+            if (entry != null) services.add(entry.service);
+        }
+        return services;
+    }
+}
@@ -0,0 +1,220 @@
+package broker;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import jsonrpclibrary.ID;
+import jsonrpclibrary.JsonRpcManager;
+import jsonrpclibrary.JsonRpcMessage;
+import jsonrpclibrary.JsonRpcMessageListener;
+import jsonrpclibrary.JsonRpcRequest;
+import jsonrpclibrary.JsonRpcResponse;
+import logger.Logger;
+import searchstrategy.SearchStrategy;
+import service.ServiceMetadata;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A node subscribed with "subscribeServices" : the services registered and deleted that satisfy its filter are
+ * pushed to it as "servicesChanged" notifications, on the connection it subscribed with. The params of a
+ * notification are those of a getServicesListSince result : {"epoch", "version", "changes" : [...]}, or
+ * "services" instead of "changes" when every service is sent again.
+ * <p>
+ * The registry only puts the changes in a buffer of at most maxPending providers, where the last change of a
+ * provider replaces the previous one, and one notification at a time is sent without blocking. If the node does
+ * not keep up the buffer overflows : its changes are dropped and what changed is sent again from the registry once
+ * the node has read the previous notification, so a slow node never holds up the registry or the other nodes.
+ */
+class Subscriber implements ServiceRegistry.ChangeListener, JsonRpcMessageListener {
+
+    static final int DEFAULT_MAX_PENDING = 1024;
+
+    private static class Pending {
+        final long version;
+        final JsonObject change;
+
+        Pending(long version, JsonObject change) {
+            this.version = version;
+            this.change = change;
+        }
+    }
+
+    private final ServiceRegistry registry;
+    private final JsonRpcManager manager;
+    private final SearchStrategy filter; //null : every service
+    private final int maxPending;
+
+    // guarded by this
+    private final Map<String, Pending> pending = new LinkedHashMap<>(); //by provider, in the order of the versions
+    private long version = -1; //the version of the registry the node has
+    private boolean overflowed = false; //the changes since version are sent from the registry
+    private boolean sending = true; //a notification is being sent, or the response is not sent yet
+    private boolean closed = false;
+
+    /**
+     * @param filter : the services to send, null for all of them
+     */
+    Subscriber(ServiceRegistry registry, JsonRpcManager manager, SearchStrategy filter, int maxPending) {
+        this.registry = registry;
+        this.manager = manager;
+        this.filter = filter;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Answers the subscription with the services the node does not have yet, then pushes the changes. The changes
+     * made while the response is prepared wait in the buffer, and those it already has are dropped.
+     *
+     * @param epoch   : with version, the services the node has : only the changes since are sent, if they are kept
+     *                and there is no filter
+     * @param version : -1 if the node has no service
+     * @param id      : the id of the request to answer
+     */
+    void start(long epoch, long version, ID id) {
+        registry.addListener(this);
+        JsonObject result = snapshot(epoch, version);
+        try {
+            manager.send(new JsonRpcResponse(result, id));
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        synchronized (this) {
+            sent(result.get("version").getAsLong());
+            sending = false;
+        }
+        manager.listen(this);
+        flush();
+    }
+
+    /**
+     * Without filter only the changes since version are given, when the registry still has them
+     */
+    private JsonObject snapshot(long epoch, long version) {
+        if (filter == null) return registry.getChangesSince(epoch, version);
+        JsonObject result = new JsonObject();
+        result.addProperty("epoch", registry.getEpoch());
+        result.addProperty("version", registry.getVersion()); //read before the services
+        result.add("services", registry.getEntriesJson(filter));
+        return result;
+    }
+
+    /**
+     * The node has every change up to version : those still in the buffer are dropped
+     */
+    private void sent(long version) {
+        this.version = Math.max(this.version, version);
+        for (Iterator<Pending> i = pending.values().iterator(); i.hasNext(); )
+            if (i.next().version <= version) i.remove();
+    }
+
+    /**
+     * Called by the registry while its changes are locked : the notification is sent by another thread
+     */
+    @Override
+    public void changed(long version, String provider, ServiceMetadata service, JsonObject change) {
+        if (filter != null && !filter.matches(service)) return;
+        synchronized (this) {
+            if (closed || overflowed) return;
+            pending.remove(provider); //put again at the end, in the order of the versions
+            pending.put(provider, new Pending(version, change));
+            if (pending.size() > maxPending) {
+                Logger.log("Subscriber: a node is too slow, what changed is sent again later");
+                pending.clear();
+                overflowed = true;
+            }
+            if (sending) return;
+        }
+        CompletableFuture.runAsync(this::flush);
+    }
+
+    /**
+     * Sends a notification with the changes in the buffer, if there is none being sent. Another one is sent once
+     * it has been handed to the transport, if there are new changes.
+     */
+    private void flush() {
+        JsonObject params;
+        boolean again;
+        synchronized (this) {
+            if (sending || closed || (pending.isEmpty() && !overflowed)) return;
+            sending = true;
+            again = overflowed;
+            overflowed = false;
+            params = again ? null : changes();
+        }
+        if (again) {
+            params = snapshot(registry.getEpoch(), version); //version is written only while sending
+            synchronized (this) {
+                sent(params.get("version").getAsLong());
+            }
+        }
+
+        CompletableFuture<Void> sent;
+        try {
+            sent = manager.sendAsync(JsonRpcRequest.notification("servicesChanged", params));
+        } catch (RuntimeException e) {
+            Logger.error("Subscriber: cannot notify a node (" + e + ")");
+            close();
+            return;
+        }
+        sent.whenCompleteAsync((v, e) -> {
+            if (e != null) {
+                Logger.error("Subscriber: cannot notify a node (" + e + ")");
+                close();
+                return;
+            }
+            synchronized (this) {
+                sending = false;
+            }
+            flush();
+        });
+    }
+
+    /**
+     * Takes the changes in the buffer, while holding the lock
+     */
+    private JsonObject changes() {
+        JsonArray array = new JsonArray();
+        for (Pending p : pending.values()) {
+            array.add(p.change);
+            version = p.version;
+        }
+        pending.clear();
+        JsonObject params = new JsonObject();
+        params.addProperty("epoch", registry.getEpoch());
+        params.addProperty("version", version);
+        params.add("changes", array);
+        return params;
+    }
+
+    /**
+     * The node sends nothing on this connection : it closes it to unsubscribe
+     */
+    @Override
+    public void onMessage(JsonRpcMessage msg) {
+        Logger.error("Subscriber: a subscribed node sent a message, it is ignored");
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        close();
+    }
+
+    /**
+     * Stops pushing the changes and closes the connection
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            pending.clear();
+        }
+        registry.removeListener(this);
+        manager.stopListening();
+        manager.close();
+        Logger.log("Subscriber: a node unsubscribed");
+    }
+}
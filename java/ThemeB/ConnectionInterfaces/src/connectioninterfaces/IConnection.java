@@ -2,11 +2,105 @@ package connectioninterfaces;
 
 
 import java.lang.String;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 public interface IConnection {
     String read();
     String read(long milliseconds) throws TimeoutException;
+
+    /**
+     * Same as read() but the message is returned as it was received, e.g. a binary encoded message
+     */
+    byte[] readBytes();
+    byte[] readBytes(long milliseconds) throws TimeoutException;
+
+    /**
+     * Same as readBytes() but the message is returned as a read-only buffer, e.g. a slice of a transport buffer.
+     * The buffer is valid until consume() is called.
+     */
+    default ByteBuffer readBuffer() {
+        return ByteBuffer.wrap(readBytes()).asReadOnlyBuffer();
+    }
+
+    default ByteBuffer readBuffer(long milliseconds) throws TimeoutException {
+        return ByteBuffer.wrap(readBytes(milliseconds)).asReadOnlyBuffer();
+    }
+
     void consume();
     void send(String message);
+
+    /**
+     * Sends the characters of message, e.g. a reused StringBuilder, without asking for a String copy when
+     * the implementation can avoid it.
+     */
+    default void send(CharSequence message) {
+        send(message.toString());
+    }
+
+    void send(byte[] message, int offset, int length);
+
+    /**
+     * Sends the remaining bytes of message, as a channel write does : the position of message is moved to its limit.
+     * A heap buffer is sent without copying it.
+     */
+    default void send(ByteBuffer message) {
+        int length = message.remaining();
+        if (message.hasArray()) {
+            send(message.array(), message.arrayOffset() + message.position(), length);
+        } else {
+            byte[] copy = new byte[length];
+            message.duplicate().get(copy);
+            send(copy, 0, length);
+        }
+        message.position(message.limit());
+    }
+
+    /**
+     * Asynchronous readBytes() : the future is completed when a message arrives, without blocking the caller.
+     * As readBytes(), the message stays the current one until consume() is called.
+     * The default implementation waits on a thread of the common pool : implementations should override it.
+     */
+    default CompletableFuture<byte[]> readBytesAsync() {
+        return CompletableFuture.supplyAsync(this::readBytes);
+    }
+
+    /**
+     * Asynchronous send(byte[], int, int). The content of message can be changed as soon as this method returns.
+     *
+     * @return a future completed when the message has been handed to the transport
+     */
+    default CompletableFuture<Void> sendAsync(byte[] message, int offset, int length) {
+        send(message, offset, length);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Sends message by reference, without encoding it, if the transport can carry objects (e.g. a connection
+     * inside the same JVM). The receiver gets the same object : neither side should change it afterwards.
+     *
+     * @return false if the transport only carries bytes : the message has to be encoded and sent with send
+     */
+    default boolean sendObject(Object message) {
+        return false;
+    }
+
+    /**
+     * Same as readBytes(), but a message sent with sendObject is returned as it was sent
+     *
+     * @return the object sent, or the bytes received
+     */
+    default Object readObject() {
+        return readBytes();
+    }
+
+    default Object readObject(long milliseconds) throws TimeoutException {
+        return readBytes(milliseconds);
+    }
+
+    default CompletableFuture<Object> readObjectAsync() {
+        return readBytesAsync().thenApply(message -> message);
+    }
+
     void close();
 }
@@ -0,0 +1,300 @@
+package connectioninterfaces;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * An IConnectionFactory that reuses the connections of another factory.
+ * createConnection leases a connection : calling close() on it gives it back to the pool instead of closing it.
+ * <p>
+ * A connection is closed for real instead of being pooled if it may still receive a message meant for its previous
+ * user : when a read timed out or failed, when a message has not been consumed, or when a read (blocking or
+ * asynchronous) is still waiting. The idle connections older than the idle timeout are evicted, and a health check
+ * can be set to test the connections before they are leased again.
+ */
+public class PooledConnectionFactory implements IConnectionFactory {
+
+    public static final int DEFAULT_POOL_SIZE = 8;
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    private final IConnectionFactory factory;
+    private final int poolSize;
+    private final long idleTimeout;
+    private Predicate<IConnection> healthCheck = connection -> true;
+
+    private final Deque<Idle> idle = new ArrayDeque<>(); //the most recently used first
+
+    private static class Idle {
+        final IConnection connection;
+        final long since;
+
+        Idle(IConnection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+
+    public PooledConnectionFactory(IConnectionFactory factory) {
+        this(factory, DEFAULT_POOL_SIZE, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param factory     : the factory creating the connections
+     * @param poolSize    : how many idle connections are kept at most
+     * @param idleTimeout : after how many milliseconds an idle connection is closed
+     */
+    public PooledConnectionFactory(IConnectionFactory factory, int poolSize, long idleTimeout) {
+        this.factory = factory;
+        this.poolSize = poolSize;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param healthCheck : called on an idle connection before leasing it, if it returns false the connection is closed
+     */
+    public void setHealthCheck(Predicate<IConnection> healthCheck) {
+        this.healthCheck = healthCheck;
+    }
+
+    /**
+     * @return an idle connection if there is a healthy one, otherwise a new connection
+     */
+    @Override
+    public IConnection createConnection() {
+        while (true) {
+            IConnection connection;
+            synchronized (this) {
+                evictIdle();
+                Idle i = idle.pollFirst();
+                if (i == null) break;
+                connection = i.connection;
+            }
+            if (healthCheck.test(connection)) return new Lease(connection);
+            connection.close();
+        }
+        return new Lease(factory.createConnection());
+    }
+
+    /**
+     * @return a new connection of the underlying factory, closed for real when it is closed : e.g. for a connection
+     * that may receive messages as long as it is open
+     */
+    public IConnection createUnpooledConnection() {
+        return factory.createConnection();
+    }
+
+    /**
+     * @return how many idle connections are in the pool
+     */
+    public synchronized int idleConnections() {
+        return idle.size();
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout
+     */
+    public synchronized void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Idle> it = idle.descendingIterator(); it.hasNext(); ) {
+            Idle i = it.next();
+            if (now - i.since < idleTimeout) break; //the others have been used more recently
+            it.remove();
+            i.connection.close();
+        }
+    }
+
+    /**
+     * Closes all the idle connections. The leased ones are closed when they are given back.
+     */
+    public synchronized void close() {
+        for (Idle i : idle) i.connection.close();
+        idle.clear();
+    }
+
+    private void release(IConnection connection, boolean reusable) {
+        if (reusable) {
+            synchronized (this) {
+                evictIdle();
+                if (idle.size() < poolSize) {
+                    idle.addFirst(new Idle(connection, System.currentTimeMillis()));
+                    return;
+                }
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * A leased connection : it keeps track of whether the underlying connection is left in a clean state
+     */
+    private class Lease implements IConnection {
+        private final IConnection connection;
+        private boolean released = false;
+        private volatile boolean clean = true;
+        private volatile boolean unconsumed = false;
+        private volatile CompletableFuture<?> reading = null;
+        private final AtomicInteger blocked = new AtomicInteger(); //threads waiting in a blocking read
+
+        Lease(IConnection connection) {
+            this.connection = connection;
+        }
+
+        private IConnection connection() {
+            if (released) throw new IllegalStateException("the connection has been given back to the pool");
+            return connection;
+        }
+
+        private <T> T received(T message) {
+            unconsumed = true;
+            return message;
+        }
+
+        @Override
+        public String read() {
+            blocked.incrementAndGet();
+            try {
+                return received(connection().read());
+            } catch (RuntimeException e) {
+                clean = false;
+                throw e;
+            } finally {
+                blocked.decrementAndGet();
+            }
+        }
+
+        @Override
+        public String read(long milliseconds) throws TimeoutException {
+            blocked.incrementAndGet();
+            try {
+                return received(connection().read(milliseconds));
+            } catch (TimeoutException | RuntimeException e) {
+                clean = false; //the message may still arrive
+                throw e;
+            } finally {
+                blocked.decrementAndGet();
+            }
+        }
+
+        @Override
+        public byte[] readBytes() {
+            blocked.incrementAndGet();
+            try {
+                return received(connection().readBytes());
+            } catch (RuntimeException e) {
+                clean = false;
+                throw e;
+            } finally {
+                blocked.decrementAndGet();
+            }
+        }
+
+        @Override
+        public byte[] readBytes(long milliseconds) throws TimeoutException {
+            blocked.incrementAndGet();
+            try {
+                return received(connection().readBytes(milliseconds));
+            } catch (TimeoutException | RuntimeException e) {
+                clean = false;
+                throw e;
+            } finally {
+                blocked.decrementAndGet();
+            }
+        }
+
+        @Override
+        public CompletableFuture<byte[]> readBytesAsync() {
+            return watch(connection().readBytesAsync());
+        }
+
+        @Override
+        public Object readObject() {
+            blocked.incrementAndGet();
+            try {
+                return received(connection().readObject());
+            } catch (RuntimeException e) {
+                clean = false;
+                throw e;
+            } finally {
+                blocked.decrementAndGet();
+            }
+        }
+
+        @Override
+        public Object readObject(long milliseconds) throws TimeoutException {
+            blocked.incrementAndGet();
+            try {
+                return received(connection().readObject(milliseconds));
+            } catch (TimeoutException | RuntimeException e) {
+                clean = false;
+                throw e;
+            } finally {
+                blocked.decrementAndGet();
+            }
+        }
+
+        @Override
+        public CompletableFuture<Object> readObjectAsync() {
+            return watch(connection().readObjectAsync());
+        }
+
+        private <T> CompletableFuture<T> watch(CompletableFuture<T> future) {
+            reading = future;
+            return future.whenComplete((message, e) -> {
+                if (e != null) clean = false;
+                else unconsumed = true;
+            });
+        }
+
+        @Override
+        public void consume() {
+            connection().consume();
+            unconsumed = false;
+        }
+
+        @Override
+        public void send(String message) {
+            connection().send(message);
+        }
+
+        @Override
+        public void send(CharSequence message) {
+            connection().send(message);
+        }
+
+        @Override
+        public void send(byte[] message, int offset, int length) {
+            connection().send(message, offset, length);
+        }
+
+        @Override
+        public void send(ByteBuffer message) {
+            connection().send(message);
+        }
+
+        @Override
+        public boolean sendObject(Object message) {
+            return connection().sendObject(message);
+        }
+
+        @Override
+        public CompletableFuture<Void> sendAsync(byte[] message, int offset, int length) {
+            return connection().sendAsync(message, offset, length);
+        }
+
+        /**
+         * Gives the connection back to the pool
+         */
+        @Override
+        public synchronized void close() {
+            if (released) return;
+            released = true;
+            CompletableFuture<?> r = reading;
+            release(connection, clean && !unconsumed && blocked.get() == 0 && (r == null || r.isDone()));
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package inprocessimplementation;
+
+import connectioninterfaces.IConnection;
+import connectioninterfaces.TimeoutException;
+import logger.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * One end of a connection inside the JVM : the messages sent are put straight in the inbox of the other end.
+ * An object sent with sendObject is passed by reference, so two JsonRpcManagers exchange their messages without
+ * encoding them. The inbox is a lock-free queue written by any thread and read by the user of the connection,
+ * which parks while it waits.
+ */
+class InProcessConnection implements IConnection {
+
+    private final Queue<Object> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<CompletableFuture<Object>> pending = new AtomicReference<>();
+    private volatile Thread waiter = null;
+    private volatile boolean closed = false, disconnected = false;
+
+    // used by the reader : the thread that reads, or the one that completes a pending asynchronous read
+    private volatile Object head = null;
+    private byte[] headBytes = null;
+    private String headText = null;
+
+    private final Executor executor;
+    private Consumer<Object> peer; //where the messages sent go
+    private final Consumer<InProcessConnection> closer;
+
+    /**
+     * @param closer : called once by close()
+     */
+    InProcessConnection(Executor executor, Consumer<InProcessConnection> closer) {
+        this.executor = executor;
+        this.closer = closer;
+    }
+
+    void connect(Consumer<Object> peer) {
+        this.peer = peer;
+    }
+
+    /**
+     * Called by the other end : puts message in the inbox. A waiting asynchronous read is completed by the executor.
+     */
+    void deliver(Object message) {
+        inbox.add(message); //if the connection is closed, the manager gives it to the next connection
+        Thread w = waiter;
+        if (w != null) LockSupport.unpark(w);
+        completePending();
+    }
+
+    /**
+     * The thread that takes the pending future is the reader until the future is completed
+     */
+    private void completePending() {
+        while (pending.get() != null && !inbox.isEmpty()) {
+            CompletableFuture<Object> waiting = pending.getAndSet(null);
+            if (waiting == null) return; //taken by another thread
+            if (closed) {
+                executor.execute(() -> waiting.completeExceptionally(new IllegalStateException("InProcessConnection closed")));
+                return;
+            }
+            Object message = inbox.poll();
+            if (message == null) { //taken by a synchronous read meanwhile
+                pending.compareAndSet(null, waiting);
+                continue;
+            }
+            head = message;
+            executor.execute(() -> waiting.complete(message));
+            return;
+        }
+    }
+
+    /**
+     * The other end has been closed : the messages already received can still be read, then the reads fail
+     */
+    void disconnect() {
+        disconnected = true;
+        Thread w = waiter;
+        if (w != null) LockSupport.unpark(w);
+        CompletableFuture<Object> waiting = pending.getAndSet(null);
+        if (waiting != null)
+            executor.execute(() -> waiting.completeExceptionally(new IllegalStateException("InProcessConnection disconnected")));
+    }
+
+    /**
+     * Takes the messages nobody read, once the connection has been closed
+     */
+    List<Object> drain(List<Object> left) {
+        Object message;
+        while ((message = inbox.poll()) != null) left.add(message);
+        return left;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        disconnect(); //wakes up the readers
+        closer.accept(this);
+    }
+
+    /**
+     * @return true if there is a current message, taking it from the inbox if needed
+     */
+    private boolean next() {
+        if (head != null) return true;
+        if (closed) throw new IllegalStateException("InProcessConnection closed");
+        Object message = inbox.poll();
+        if (message != null) {
+            head = message;
+            headBytes = null;
+            headText = null;
+            return true;
+        }
+        if (disconnected) throw new IllegalStateException("InProcessConnection disconnected");
+        return false;
+    }
+
+    @Override
+    public Object readObject() {
+        if (next()) return head;
+        waiter = Thread.currentThread();
+        try {
+            while (!next()) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("InProcessConnection interrupted while waiting");
+                }
+            }
+        } finally {
+            waiter = null;
+        }
+        return head;
+    }
+
+    @Override
+    public Object readObject(long milliseconds) throws TimeoutException {
+        if (next()) return head;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(milliseconds);
+        waiter = Thread.currentThread();
+        try {
+            while (!next()) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) throw new TimeoutException("InProcessConnection received nothing");
+                LockSupport.parkNanos(this, left);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new TimeoutException("InProcessConnection interrupted while waiting");
+                }
+            }
+        } finally {
+            waiter = null;
+        }
+        return head;
+    }
+
+    /**
+     * The future is completed by the executor of the factory or of the manager
+     */
+    @Override
+    public CompletableFuture<Object> readObjectAsync() {
+        while (true) {
+            if (next()) return CompletableFuture.completedFuture(head);
+            CompletableFuture<Object> waiting = pending.get();
+            if (waiting == null) {
+                waiting = new CompletableFuture<>();
+                if (!pending.compareAndSet(null, waiting)) continue; //completed meanwhile
+            }
+            if (disconnected) disconnect(); //it may have been disconnected meanwhile
+            else completePending(); //a message may have arrived meanwhile
+            return waiting;
+        }
+    }
+
+    @Override
+    public String read() {
+        return text(readBytes());
+    }
+
+    @Override
+    public String read(long milliseconds) throws TimeoutException {
+        return text(readBytes(milliseconds));
+    }
+
+    @Override
+    public byte[] readBytes() {
+        return bytes(readObject());
+    }
+
+    @Override
+    public byte[] readBytes(long milliseconds) throws TimeoutException {
+        return bytes(readObject(milliseconds));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> readBytesAsync() {
+        return readObjectAsync().thenApply(this::bytes);
+    }
+
+    /**
+     * An object sent by reference is read as the UTF-8 encoding of its toString(), e.g. the json of a message
+     */
+    private byte[] bytes(Object message) {
+        if (message instanceof byte[]) return (byte[]) message;
+        if (message != head) return message.toString().getBytes(StandardCharsets.UTF_8);
+        if (headBytes == null) headBytes = message.toString().getBytes(StandardCharsets.UTF_8);
+        return headBytes;
+    }
+
+    private String text(byte[] data) {
+        if (data != headBytes && data != head) return new String(data, StandardCharsets.UTF_8);
+        if (headText == null) headText = new String(data, StandardCharsets.UTF_8);
+        return headText;
+    }
+
+    @Override
+    public void consume() {
+        readObject(); //if there is no current message the next one is dropped
+        head = null;
+        headBytes = null;
+        headText = null;
+    }
+
+    @Override
+    public boolean sendObject(Object message) {
+        if (Logger.isEnabled()) Logger.log("Sending : " + message);
+        peer.accept(message);
+        return true;
+    }
+
+    @Override
+    public void send(String message) {
+        if (Logger.isEnabled()) Logger.log("Sending : " + message);
+        peer.accept(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void send(byte[] message, int offset, int length) {
+        peer.accept(Arrays.copyOfRange(message, offset, offset + length));
+    }
+
+    @Override
+    public void send(ByteBuffer message) {
+        byte[] copy = new byte[message.remaining()];
+        message.get(copy);
+        peer.accept(copy);
+    }
+}
@@ -0,0 +1,42 @@
+package inprocessimplementation;
+
+import connectioninterfaces.IConnection;
+import connectioninterfaces.IConnectionFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Opens connections to an InProcessConnectionManager of the same JVM
+ */
+public class InProcessConnectionFactory implements IConnectionFactory {
+
+    private final String name;
+    private final Executor executor;
+
+    public InProcessConnectionFactory(String name) {
+        this(name, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param name     : the name of the InProcessConnectionManager
+     * @param executor : completes the asynchronous reads of the connections
+     */
+    public InProcessConnectionFactory(String name, Executor executor) {
+        this.name = name;
+        this.executor = executor;
+    }
+
+    /**
+     * @throws IllegalStateException if no InProcessConnectionManager has the name of the factory
+     */
+    @Override
+    public IConnection createConnection() {
+        InProcessConnectionManager manager = InProcessConnectionManager.get(name);
+        InProcessConnectionManager.Client[] server = new InProcessConnectionManager.Client[1];
+        InProcessConnection connection = new InProcessConnection(executor, c -> server[0].disconnected());
+        server[0] = manager.connect(connection);
+        connection.connect(server[0]::route);
+        return connection;
+    }
+}
@@ -0,0 +1,110 @@
+package inprocessimplementation;
+
+import connectioninterfaces.IConnection;
+import connectioninterfaces.IConnectionManager;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Accepts the connections that an InProcessConnectionFactory of the same JVM opens to its name : nothing goes
+ * through a socket, and the json-rpc messages are passed by reference.
+ * As with ZeroMQConnectionManager, every request of a client is a new connection given by acceptConnection.
+ */
+public class InProcessConnectionManager implements IConnectionManager {
+
+    private static final Map<String, InProcessConnectionManager> managers = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final Executor executor;
+    private final BlockingQueue<InProcessConnection> connections_queue = new LinkedBlockingQueue<>();
+
+    public InProcessConnectionManager(String name) {
+        this(name, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param name     : the address the factories connect to, unique in the JVM
+     * @param executor : completes the asynchronous reads of the connections
+     */
+    public InProcessConnectionManager(String name, Executor executor) {
+        this.name = name;
+        this.executor = executor;
+        if (managers.putIfAbsent(name, this) != null)
+            throw new IllegalStateException("InProcessConnectionManager: \"" + name + "\" is already used");
+    }
+
+    static InProcessConnectionManager get(String name) {
+        InProcessConnectionManager manager = managers.get(name);
+        if (manager == null)
+            throw new IllegalStateException("InProcessConnectionManager: nobody listens to \"" + name + "\"");
+        return manager;
+    }
+
+    /**
+     * Frees the name : no new client can connect. The connections already open keep working.
+     */
+    public void close() {
+        managers.remove(name, this);
+    }
+
+    /**
+     * @param client : the end of the client
+     * @return where the messages of the client go
+     */
+    Client connect(InProcessConnection client) {
+        return new Client(client);
+    }
+
+    /**
+     * @return the connection of a new request, or null if the calling thread is interrupted while waiting
+     */
+    @Override
+    public IConnection acceptConnection() {
+        try {
+            return connections_queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Routes the messages of a client to its current connection on this side
+     */
+    class Client {
+        private final InProcessConnection client;
+        private InProcessConnection current = null;
+
+        Client(InProcessConnection client) {
+            this.client = client;
+        }
+
+        synchronized void route(Object message) {
+            if (current == null) {
+                current = new InProcessConnection(executor, this::closed);
+                current.connect(client::deliver);
+                connections_queue.add(current);
+            }
+            current.deliver(message);
+        }
+
+        /**
+         * The next message of the client is a new connection, and the messages the closed one did not read are
+         * given to the new one
+         */
+        private synchronized void closed(InProcessConnection connection) {
+            if (current == connection) current = null;
+            for (Object message : connection.drain(new ArrayList<>())) route(message);
+        }
+
+        synchronized void disconnected() {
+            if (current != null) current.disconnect();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package jsonrpclibrary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * CBOR (RFC 7049) : a compact binary representation of the json data model.
+ * Numbers travel in binary form, so they are neither formatted nor parsed as text.
+ */
+class CborCodec implements JsonRpcCodec {
+
+    @Override
+    public String getName() {
+        return "cbor";
+    }
+
+    /**
+     * A json-rpc message is a map or an array (possibly tagged) : json text never starts with such a byte
+     */
+    @Override
+    public boolean accepts(byte[] data) {
+        if (data.length == 0) return false;
+        int major = (data[0] & 0xff) >>> 5;
+        return major == 4 || major == 5 || major == 6;
+    }
+
+    @Override
+    public JsonRpcMessage decode(byte[] data, boolean lazy) {
+        return JsonRpcDecoder.decode(new CborReader(data, 0, data.length));
+    }
+
+    @Override
+    public void write(JsonRpcMessage msg, OutputStream out) throws IOException {
+        CborWriter writer = new CborWriter(out);
+        msg.write(writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,384 @@
+package jsonrpclibrary;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a CBOR (RFC 7049) item through the JsonReader interface, so that the json-rpc decoder can be used as it is.
+ * Only the json data model is supported: byte strings and non json simple values are rejected, tags are ignored
+ * except for bignums (tags 2 and 3), which are read as numbers.
+ */
+class CborReader extends JsonReader {
+
+    private static final Reader UNREADABLE = new StringReader("");
+    private static final int INDEFINITE = -1;
+
+    private final byte[] data;
+    private int pos;
+    private final int limit;
+
+    // one entry for each open array or map
+    private int depth = 0;
+    private long[] left = new long[32];          //items still to read, INDEFINITE if closed by a break
+    private boolean[] map = new boolean[32];
+    private boolean[] nameExpected = new boolean[32];
+
+    private JsonToken peeked = null;
+
+    CborReader(byte[] data, int offset, int length) {
+        super(UNREADABLE);
+        this.data = data;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        if (peeked != null) return peeked;
+
+        if (depth > 0) {
+            if (left[depth] == 0 || (left[depth] == INDEFINITE && pos < limit && (data[pos] & 0xff) == 0xff))
+                return peeked = map[depth] ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+        }
+        if (pos >= limit) {
+            if (depth > 0) throw new MalformedJsonException("CBOR item truncated");
+            return peeked = JsonToken.END_DOCUMENT;
+        }
+
+        int initial = data[pos] & 0xff;
+        while (initial >>> 5 == 6 && !isBignum(initial)) { //the other tags carry no json meaning
+            pos++;
+            readArgument(initial & 0x1f);
+            if (pos >= limit) throw new MalformedJsonException("CBOR item truncated");
+            initial = data[pos] & 0xff;
+        }
+
+        if (depth > 0 && map[depth] && nameExpected[depth]) {
+            if (initial >>> 5 != 3) throw new MalformedJsonException("CBOR map keys must be text strings");
+            return peeked = JsonToken.NAME;
+        }
+
+        switch (initial >>> 5) {
+            case 0:
+            case 1:
+            case 6: //a bignum
+                return peeked = JsonToken.NUMBER;
+            case 3:
+                return peeked = JsonToken.STRING;
+            case 4:
+                return peeked = JsonToken.BEGIN_ARRAY;
+            case 5:
+                return peeked = JsonToken.BEGIN_OBJECT;
+            case 7:
+                switch (initial & 0x1f) {
+                    case 20:
+                    case 21:
+                        return peeked = JsonToken.BOOLEAN;
+                    case 22:
+                    case 23:
+                        return peeked = JsonToken.NULL;
+                    case 25:
+                    case 26:
+                    case 27:
+                        return peeked = JsonToken.NUMBER;
+                }
+        }
+        throw new MalformedJsonException("unsupported CBOR item 0x" + Integer.toHexString(initial));
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_ARRAY && token != JsonToken.END_OBJECT && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        open(false, readArgument(data[pos++] & 0x1f));
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        closeContainer();
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        long pairs = readArgument(data[pos++] & 0x1f);
+        open(true, pairs == INDEFINITE ? INDEFINITE : pairs * 2);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        closeContainer();
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        String name = readText();
+        itemRead();
+        return name;
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.NUMBER) return readNumber().toString();
+        expect(JsonToken.STRING);
+        String str = readText();
+        itemRead();
+        return str;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(JsonToken.BOOLEAN);
+        boolean value = (data[pos++] & 0x1f) == 21;
+        itemRead();
+        return value;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+        pos++;
+        itemRead();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        return readNumber().doubleValue();
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        Number n = readNumber();
+        if (!(n instanceof Long)) throw new NumberFormatException("expected a long but was " + n);
+        return n.longValue();
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        long n = nextLong();
+        if ((int) n != n) throw new NumberFormatException("expected an int but was " + n);
+        return (int) n;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        readElement();
+    }
+
+    @Override
+    public void close() {
+        pos = limit;
+        depth = 0;
+        peeked = JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " at byte " + pos;
+    }
+
+    @Override
+    public String getPath() {
+        return "$";
+    }
+
+    /**
+     * Builds the next value as a json tree. Numbers are kept as Long or Double, without going through their
+     * textual representation.
+     */
+    JsonElement readElement() throws IOException {
+        switch (peek()) {
+            case NUMBER:
+                return new JsonPrimitive(readNumber());
+            case STRING:
+                return new JsonPrimitive(nextString());
+            case NAME:
+                return new JsonPrimitive(nextName());
+            case BOOLEAN:
+                return new JsonPrimitive(nextBoolean());
+            case NULL:
+                nextNull();
+                return JsonNull.INSTANCE;
+            case BEGIN_ARRAY: {
+                JsonArray array = new JsonArray();
+                beginArray();
+                while (hasNext()) array.add(readElement());
+                endArray();
+                return array;
+            }
+            case BEGIN_OBJECT: {
+                JsonObject object = new JsonObject();
+                beginObject();
+                while (hasNext()) object.add(nextName(), readElement());
+                endObject();
+                return object;
+            }
+            default:
+                throw new IllegalStateException("expected a value but was " + peek());
+        }
+    }
+
+    private Number readNumber() throws IOException {
+        expect(JsonToken.NUMBER);
+        int initial = data[pos++] & 0xff;
+        if ((initial & 0x1f) == 31) throw new MalformedJsonException("invalid CBOR number");
+        Number n;
+        switch (initial >>> 5) {
+            case 0:
+                n = unsigned(readArgument(initial & 0x1f));
+                break;
+            case 1: {
+                long arg = readArgument(initial & 0x1f);
+                n = arg >= 0 ? (Number) (-1 - arg) : BigInteger.ONE.negate().subtract(unsignedBig(arg));
+                break;
+            }
+            case 6: {
+                if (pos >= limit || (data[pos] & 0xff) >>> 5 != 2) throw new MalformedJsonException("invalid CBOR bignum");
+                long length = readArgument(data[pos++] & 0x1f);
+                check(length);
+                BigInteger magnitude = new BigInteger(1, Arrays.copyOfRange(data, pos, pos + (int) length));
+                pos += length;
+                n = initial == 0xc2 ? magnitude : BigInteger.ONE.negate().subtract(magnitude);
+                break;
+            }
+            default:
+                switch (initial & 0x1f) {
+                    case 25:
+                        n = (double) halfToFloat((int) readBytes(2));
+                        break;
+                    case 26:
+                        n = (double) Float.intBitsToFloat((int) readBytes(4));
+                        break;
+                    default:
+                        n = Double.longBitsToDouble(readBytes(8));
+                }
+        }
+        itemRead();
+        return n;
+    }
+
+    private static boolean isBignum(int initial) {
+        return initial == 0xc2 || initial == 0xc3;
+    }
+
+    private static Number unsigned(long value) {
+        return value >= 0 ? (Number) value : unsignedBig(value);
+    }
+
+    private static BigInteger unsignedBig(long value) {
+        return BigInteger.valueOf(value & Long.MAX_VALUE).setBit(63);
+    }
+
+    private static float halfToFloat(int half) {
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        float value;
+        if (exponent == 0) value = (float) (mantissa * Math.pow(2, -24));
+        else if (exponent == 31) value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        else value = (float) ((mantissa + 1024) * Math.pow(2, exponent - 25));
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+
+    private String readText() throws IOException {
+        int initial = data[pos++] & 0xff;
+        long length = readArgument(initial & 0x1f);
+        if (length != INDEFINITE) {
+            check(length);
+            String str = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+            pos += length;
+            return str;
+        }
+        StringBuilder str = new StringBuilder(); //indefinite length: a sequence of definite length chunks
+        while (true) {
+            if (pos >= limit) throw new MalformedJsonException("CBOR item truncated");
+            int chunk = data[pos++] & 0xff;
+            if (chunk == 0xff) return str.toString();
+            if (chunk >>> 5 != 3) throw new MalformedJsonException("invalid CBOR text chunk");
+            length = readArgument(chunk & 0x1f);
+            check(length);
+            str.append(new String(data, pos, (int) length, StandardCharsets.UTF_8));
+            pos += length;
+        }
+    }
+
+    /**
+     * @return the argument of the item (a value or a length), INDEFINITE for the indefinite length marker
+     */
+    private long readArgument(int info) throws IOException {
+        if (info < 24) return info;
+        switch (info) {
+            case 24:
+                return readBytes(1);
+            case 25:
+                return readBytes(2);
+            case 26:
+                return readBytes(4);
+            case 27:
+                return readBytes(8);
+            case 31:
+                return INDEFINITE;
+        }
+        throw new MalformedJsonException("invalid CBOR additional information " + info);
+    }
+
+    private long readBytes(int n) throws IOException {
+        check(n);
+        long value = 0;
+        for (int i = 0; i < n; i++) value = (value << 8) | (data[pos++] & 0xff);
+        return value;
+    }
+
+    private void check(long length) throws IOException {
+        if (length < 0 || length > limit - pos) throw new MalformedJsonException("CBOR item truncated");
+    }
+
+    private void expect(JsonToken token) throws IOException {
+        if (peek() != token) throw new IllegalStateException("expected " + token + " but was " + peek());
+        peeked = null;
+    }
+
+    private void open(boolean isMap, long items) {
+        if (++depth == left.length) {
+            left = Arrays.copyOf(left, depth * 2);
+            map = Arrays.copyOf(map, depth * 2);
+            nameExpected = Arrays.copyOf(nameExpected, depth * 2);
+        }
+        left[depth] = items;
+        map[depth] = isMap;
+        nameExpected[depth] = isMap;
+    }
+
+    private void closeContainer() {
+        if (left[depth] == INDEFINITE) pos++; //the break byte
+        depth--;
+        itemRead();
+    }
+
+    private void itemRead() {
+        if (depth == 0) return;
+        if (left[depth] > 0) left[depth]--;
+        if (map[depth]) nameExpected[depth] = !nameExpected[depth];
+    }
+}
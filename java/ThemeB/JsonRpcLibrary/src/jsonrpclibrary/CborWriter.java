@@ -0,0 +1,196 @@
+package jsonrpclibrary;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes CBOR (RFC 7049) through the JsonWriter interface, so that messages can be written with the same code used
+ * for json text. Arrays and maps are written with indefinite length, so nothing has to be buffered.
+ */
+class CborWriter extends JsonWriter {
+
+    private static final Writer UNWRITABLE = new Writer() {
+        @Override
+        public void write(char[] buffer, int offset, int counter) {
+            throw new AssertionError();
+        }
+
+        @Override
+        public void flush() {
+            throw new AssertionError();
+        }
+
+        @Override
+        public void close() {
+            throw new AssertionError();
+        }
+    };
+
+    private static final JsonParser parser = new JsonParser();
+
+    private final OutputStream out;
+
+    CborWriter(OutputStream out) {
+        super(UNWRITABLE);
+        this.out = out;
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        out.write(0x9f);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        out.write(0xff);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        out.write(0xbf);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        out.write(0xff);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        writeText(name);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) return nullValue();
+        writeText(value);
+        return this;
+    }
+
+    /**
+     * Json text (e.g. the params of a lazily decoded request) is converted to CBOR
+     */
+    @Override
+    public JsonWriter jsonValue(String value) throws IOException {
+        if (value == null) return nullValue();
+        JsonRpcMessage.gson.toJson(parser.parse(value), this);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        out.write(0xf6);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        out.write(value ? 0xf5 : 0xf4);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) throws IOException {
+        if (value == null) return nullValue();
+        return value(value.booleanValue());
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        out.write(0xfb);
+        writeBytes(Double.doubleToLongBits(value), 8);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        if (value >= 0) writeHeader(0, value);
+        else writeHeader(1, -1 - value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) return nullValue();
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicInteger || value instanceof AtomicLong)
+            return value(value.longValue());
+        if (value instanceof Double || value instanceof Float) return value(value.doubleValue());
+
+        // BigInteger, BigDecimal or a number parsed from json text (LazilyParsedNumber)
+        String text = value.toString();
+        if (text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+            BigInteger integer = new BigInteger(text);
+            if (integer.bitLength() < 64) return value(integer.longValue());
+            return bignum(integer);
+        }
+        return value(new BigDecimal(text).doubleValue());
+    }
+
+    /**
+     * An integer that does not fit a long is written as a bignum (RFC 7049 2.4.2) : tag 2 with the magnitude of a
+     * positive value, tag 3 with -1 - n for a negative n, as big endian byte strings
+     */
+    private JsonWriter bignum(BigInteger value) throws IOException {
+        boolean negative = value.signum() < 0;
+        byte[] bytes = (negative ? BigInteger.ONE.negate().subtract(value) : value).toByteArray();
+        int sign = bytes[0] == 0 ? 1 : 0; //toByteArray adds a byte for the sign bit
+        out.write(negative ? 0xc3 : 0xc2);
+        writeHeader(2, bytes.length - sign);
+        out.write(bytes, sign, bytes.length - sign);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeText(String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeHeader(3, bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeHeader(int major, long argument) throws IOException {
+        major <<= 5;
+        if (argument < 24) {
+            out.write(major | (int) argument);
+        } else if (argument <= 0xffL) {
+            out.write(major | 24);
+            writeBytes(argument, 1);
+        } else if (argument <= 0xffffL) {
+            out.write(major | 25);
+            writeBytes(argument, 2);
+        } else if (argument <= 0xffffffffL) {
+            out.write(major | 26);
+            writeBytes(argument, 4);
+        } else {
+            out.write(major | 27);
+            writeBytes(argument, 8);
+        }
+    }
+
+    private void writeBytes(long value, int n) throws IOException {
+        for (int i = n - 1; i >= 0; i--) out.write((int) (value >>> (8 * i)));
+    }
+}
@@ -16,6 +16,13 @@ public class Error {
         this.jsonObject.addProperty("data", data.toString());
     }
 
+    /**
+     * @param jsonObject : the "error" member of a received response
+     */
+    Error(JsonObject jsonObject) {
+        this.jsonObject = jsonObject;
+    }
+
     public int getCode() {
         return this.jsonObject.get("code").getAsInt();
     }
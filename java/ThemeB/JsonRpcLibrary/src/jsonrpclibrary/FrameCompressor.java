@@ -0,0 +1,128 @@
+package jsonrpclibrary;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of single messages.
+ * A compressed frame is: MARKER, the uncompressed length (4 bytes, big endian), the zlib stream.
+ * No json text and no CBOR encoded json-rpc message starts with MARKER, so uncompressed frames are sent as they are.
+ * <p>
+ * The Deflater and the Inflater are kept for the whole life of the connection, and every stream is compressed
+ * with a preset dictionary of the json-rpc vocabulary, known by both peers : even messages just above the threshold
+ * get a good ratio.
+ */
+class FrameCompressor {
+
+    static final byte MARKER = 0x00;
+    private static final int HEADER = 5;
+
+    /**
+     * The biggest message a compressed frame can declare, the frame size limit of the tcp transport :
+     * the length comes from the peer, so the buffer grows while the data is inflated, up to this size.
+     */
+    static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+    // the most frequent strings are at the end, where the matches are the cheapest
+    private static final byte[] DICTIONARY = ("\"description\":\"\",\"activationDate\":\"\",\"applicationField\":\"\"," +
+            "\"keywords\":[\"\"],\"owner\":\"\",\"serviceRegistered\":true,\"method\":\"\"}," +
+            "{\"code\":-32600,\"message\":\"\"},\"error\":,\"params\":{\"\":},\"result\":[{\"\":\"\"}," +
+            "{\"jsonrpc\":\"2.0\",\"id\":,\"result\":{\"jsonrpc\":\"2.0\",\"method\":\"")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private byte[] out = new byte[1024];
+    private boolean ended = false;
+
+    /**
+     * @param level : the Deflater compression level
+     */
+    FrameCompressor(int level) {
+        deflater = new Deflater(level);
+    }
+
+    static boolean isCompressed(byte[] frame) {
+        return frame.length > HEADER && frame[0] == MARKER;
+    }
+
+    /**
+     * @return the length of the compressed frame written in output(), or -1 if it would not be smaller than data
+     */
+    synchronized int compress(byte[] data, int offset, int length) {
+        if (ended) return -1;
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+
+        int size = HEADER;
+        while (!deflater.finished()) {
+            if (size >= length) return -1; //compression does not pay off
+            if (size == out.length) out = Arrays.copyOf(out, out.length * 2);
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        if (size >= length) return -1;
+
+        out[0] = MARKER;
+        out[1] = (byte) (length >>> 24);
+        out[2] = (byte) (length >>> 16);
+        out[3] = (byte) (length >>> 8);
+        out[4] = (byte) length;
+        return size;
+    }
+
+    /**
+     * @return the buffer filled by the last compress call
+     */
+    byte[] output() {
+        return out;
+    }
+
+    /**
+     * Drops the output buffer if it grew over max bytes
+     */
+    synchronized void trim(int max) {
+        if (out.length > max) out = new byte[1024];
+    }
+
+    /**
+     * @param frame : a frame for which isCompressed is true
+     * @return the original message, or null if the frame is corrupted or declares more than MAX_LENGTH bytes
+     */
+    synchronized byte[] decompress(byte[] frame) {
+        int length = ((frame[1] & 0xff) << 24) | ((frame[2] & 0xff) << 16) | ((frame[3] & 0xff) << 8) | (frame[4] & 0xff);
+        if (length < 0 || length > MAX_LENGTH || ended) return null;
+        //a short frame declaring a huge length does not get a huge buffer until it really inflates to it
+        byte[] data = new byte[(int) Math.min(length, 1024 + 8L * frame.length)];
+        inflater.reset();
+        inflater.setInput(frame, HEADER, frame.length - HEADER);
+        try {
+            int size = 0;
+            while (size < length) {
+                if (size == data.length) data = Arrays.copyOf(data, (int) Math.min(length, 2L * data.length));
+                int n = inflater.inflate(data, size, data.length - size);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) inflater.setDictionary(DICTIONARY);
+                    else if (inflater.finished() || inflater.needsInput()) return null; //shorter than declared
+                }
+                size += n;
+            }
+        } catch (DataFormatException | IllegalArgumentException e) {
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Frees the native memory of the Deflater and of the Inflater : compress and decompress fail from now on
+     */
+    synchronized void end() {
+        ended = true;
+        deflater.end();
+        inflater.end();
+    }
+}
@@ -1,45 +1,128 @@
 package jsonrpclibrary;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * The id of a json-rpc request: a number, a string or null.
+ * Numbers are kept in a long, so reading and comparing them never boxes.
+ * IDs can be used as keys of hash maps, but then they must not be changed with the set methods.
+ */
 public class ID {
 
-    private Object value;
+    private static final byte NULL = 0, NUMBER = 1, STRING = 2;
+
+    private byte type = NULL;
+    private long number = 0;
+    private String string = null;
 
-    public ID() { this.value = null; }
-    public ID(String value) { this.value = value; }
-    public ID (Integer value) { this.value = value; }
+    public ID() { }
+    public ID(String value) { set(value); }
+    public ID(Integer value) { set(value); }
+    public ID(long value) { set(value); }
     static public ID Null(){return new ID();}
 
-    public void set(String value) { this.value = value; }
-    public void set(Integer value) { this.value = value; }
-    public void setNull() { this.value = null; }
+    public void set(String value) {
+        setNull();
+        if (value == null) return;
+        this.string = value;
+        this.type = STRING;
+    }
+
+    public void set(Integer value) {
+        if (value == null) setNull();
+        else set(value.longValue());
+    }
+
+    public void set(long value) {
+        setNull();
+        this.number = value;
+        this.type = NUMBER;
+    }
 
-    public Object getValue() { return this.value; }
-    public Integer getAsInt(){return (Integer)value; }
-    public String getAsString(){return (String)value; }
+    public void setNull() {
+        this.type = NULL;
+        this.number = 0;
+        this.string = null;
+    }
+
+    /**
+     * @return an Integer (a Long if it does not fit in an int), a String or null
+     */
+    public Object getValue() {
+        if (type == STRING) return string;
+        if (type == NUMBER) return isInt() ? (Object) (int) number : (Object) number;
+        return null;
+    }
 
-    public boolean isInt() { return (this.value instanceof Integer); }
-    public boolean isString() { return (this.value instanceof String); }
-    public boolean isNull() { return (this.value == null); }
+    public Integer getAsInt(){ return isNumber() ? (int) number : null; }
+    public long getAsLong(){ return number; }
+    public String getAsString(){ return string; }
+
+    public boolean isInt() { return type == NUMBER && (int) number == number; }
+    public boolean isNumber() { return type == NUMBER; }
+    public boolean isString() { return type == STRING; }
+    public boolean isNull() { return type == NULL; }
+
+    /**
+     * @param json : the value of the id member of a message
+     * @return the ID, or null if json is not a valid id (e.g. an object or a number with a fractional part)
+     */
+    static ID fromJson(JsonElement json) {
+        if (json == null) return null;
+        if (json.isJsonNull()) return new ID();
+        if (!json.isJsonPrimitive()) return null;
+        JsonPrimitive j = json.getAsJsonPrimitive();
+        if (j.isString()) return new ID(j.getAsString());
+        if (!j.isNumber()) return null;
+
+        Number n = j.getAsNumber();
+        if (n instanceof Long || n instanceof Integer) return new ID(n.longValue());
+        try {
+            return new ID(Long.parseLong(n.toString())); //a number read from json text
+        } catch (NumberFormatException e) {
+            return null; //fractional or too big
+        }
+    }
+
+    /**
+     * Adds the id to a message, as json number or string
+     */
+    void addTo(JsonObject json) {
+        if (type == STRING) json.addProperty("id", string);
+        else if (type == NUMBER) json.addProperty("id", number);
+    }
 
     @Override
     public String toString(){
-        if(isInt())return String.valueOf(value);
-        if(isString())return (String) value;
-        if(isNull())return "null";
-        return "";
+        if(isNumber())return String.valueOf(number);
+        if(isString())return string;
+        return "null";
     }
 
+    /**
+     * @param id : another ID, or the value of an id (an Integer, a Long, a String or null)
+     */
     @Override
     public boolean equals(Object id) {
         if (id == null) return this.isNull();
         if (id == this) return true;
-        if(id instanceof String)return id==value;
-        if(id instanceof Integer)return id==value;
-        
+        if (id instanceof String) return type == STRING && string.equals(id);
+        if (id instanceof Integer || id instanceof Long) return type == NUMBER && number == ((Number) id).longValue();
+
         if (!(id instanceof ID)) return false;
         ID temp = (ID) id;
-        if ((temp.isNull()) && (this.isNull())) return true;
-        return temp.value==this.value;
+        if (temp.type != type) return false;
+        if (type == NUMBER) return temp.number == number;
+        if (type == STRING) return temp.string.equals(string);
+        return true;
     }
 
+    @Override
+    public int hashCode() {
+        if (type == NUMBER) return Long.hashCode(number);
+        if (type == STRING) return string.hashCode();
+        return 0;
+    }
 }
@@ -0,0 +1,44 @@
+package jsonrpclibrary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Json text encoded in UTF-8 : the codec every peer understands.
+ */
+class JsonCodec implements JsonRpcCodec {
+
+    @Override
+    public String getName() {
+        return "json";
+    }
+
+    @Override
+    public boolean accepts(byte[] data) {
+        for (byte b : data) {
+            if (b == '{' || b == '[') return true;
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') return false;
+        }
+        return false;
+    }
+
+    @Override
+    public JsonRpcMessage decode(byte[] data, boolean lazy) {
+        return lazy ? JsonRpcDecoder.decodeLazy(data) : JsonRpcDecoder.decode(data);
+    }
+
+    @Override
+    public void write(JsonRpcMessage msg, OutputStream out) throws IOException {
+        JsonSlice received = msg.received();
+        if (received != null) { //forwarded as it was received, without decoding it
+            received.writeTo(out);
+            return;
+        }
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        msg.write(writer);
+        writer.flush();
+    }
+}
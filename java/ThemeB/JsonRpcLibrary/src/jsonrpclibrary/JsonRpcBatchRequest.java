@@ -1,10 +1,8 @@
 package jsonrpclibrary;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -31,26 +29,31 @@ public class JsonRpcBatchRequest extends JsonRpcMessage {
     }
 
     public String toJson() {
-        String str = "[ ";
-        for (JsonRpcRequest r : batch) {
-            if (r != null) str += r.toJson() + ",";
+        StringBuilder str = new StringBuilder();
+        try {
+            write(str);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //cannot happen writing to a StringBuilder
         }
-        return str.substring(0, str.length() - 1) + "]";
+        return str.toString();
     }
 
-    public static JsonRpcBatchRequest fromJson(String str) {JsonArray array;
-        try {
-            array = (new Gson()).fromJson(str, JsonArray.class);
-        }catch (JsonSyntaxException e){
-            return null;
+    @Override
+    void write(JsonWriter writer) throws IOException {
+        writer.beginArray();
+        for (JsonRpcRequest r : batch) {
+            if (r != null) r.write(writer);
         }
+        writer.endArray();
+    }
+
+    public static JsonRpcBatchRequest fromJson(String str) {
+        JsonRpcMessage msg = JsonRpcDecoder.decode(str);
+        if (msg instanceof JsonRpcBatchRequest) return (JsonRpcBatchRequest) msg;
+        if (!(msg instanceof JsonRpcBatchResponse)) return null;
+        //a batch of responses is still a batch of (invalid) requests
         JsonRpcBatchRequest batch = new JsonRpcBatchRequest();
-        for (JsonElement e : array) {
-            JsonRpcRequest r = JsonRpcRequest.fromJson(e.toString());
-            if (r == null) r = JsonRpcRequest.invalid();
-            batch.add(r);
-        }
-        if (batch.isEmpty()) return null;
+        for (int i = 0; i < ((JsonRpcBatchResponse) msg).get().size(); i++) batch.add(JsonRpcRequest.invalid());
         return batch;
     }
 
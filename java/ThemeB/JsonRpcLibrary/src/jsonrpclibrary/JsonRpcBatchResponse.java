@@ -1,7 +1,8 @@
 package jsonrpclibrary;
 
-import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,29 +29,27 @@ public class JsonRpcBatchResponse extends JsonRpcMessage {
     }
 
     public String toJson() {
-        String str = "[ ";
-        for (JsonRpcResponse r : batch) {
-            if (r != null) str += r.toJson() + ",";
+        StringBuilder str = new StringBuilder();
+        try {
+            write(str);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //cannot happen writing to a StringBuilder
         }
-        return str.substring(0, str.length() - 1) + "]";
+        return str.toString();
     }
 
-    public static JsonRpcBatchResponse fromJson(String str) {
-        JsonArray array;
-        try {
-            array = (new Gson()).fromJson(str, JsonArray.class);
-        }catch (JsonSyntaxException e){
-            return null;
-        }
-        JsonRpcBatchResponse batch = new JsonRpcBatchResponse();
-        for (JsonElement e : array) {
-            JsonRpcResponse r = JsonRpcResponse.fromJson(e.toString());
-            if (r == null) return null;
-            batch.add(r);
+    @Override
+    void write(JsonWriter writer) throws IOException {
+        writer.beginArray();
+        for (JsonRpcResponse r : batch) {
+            if (r != null) r.write(writer);
         }
-        if (batch.isEmpty()) return null;
-        return batch;
+        writer.endArray();
+    }
 
+    public static JsonRpcBatchResponse fromJson(String str) {
+        JsonRpcMessage msg = JsonRpcDecoder.decode(str);
+        return msg instanceof JsonRpcBatchResponse ? (JsonRpcBatchResponse) msg : null;
     }
 
     public List<JsonRpcResponse> get() {
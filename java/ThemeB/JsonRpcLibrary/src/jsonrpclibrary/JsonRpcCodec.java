@@ -0,0 +1,36 @@
+package jsonrpclibrary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A codec defines how json-rpc messages are represented on the wire.
+ * Every codec carries the same json-rpc 2.0 data model: see JsonRpcCodecs for the available ones.
+ */
+public interface JsonRpcCodec {
+
+    /**
+     * @return the name used to agree on the codec with the peer (see JsonRpcManager.negotiateCodec)
+     */
+    String getName();
+
+    /**
+     * @param data : a received message
+     * @return true if data looks like a message written with this codec
+     */
+    boolean accepts(byte[] data);
+
+    /**
+     * @param data : a received message
+     * @param lazy : if true params and result may be decoded only when they are requested
+     * @return the decoded message or null if data is not a well-formed json-rpc message
+     */
+    JsonRpcMessage decode(byte[] data, boolean lazy);
+
+    /**
+     * @param msg : the message to write
+     * @param out : the destination of the encoded message
+     * @throws IOException if out cannot be written
+     */
+    void write(JsonRpcMessage msg, OutputStream out) throws IOException;
+}
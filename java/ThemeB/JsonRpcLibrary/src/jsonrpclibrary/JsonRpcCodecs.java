@@ -0,0 +1,49 @@
+package jsonrpclibrary;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The codecs known by this library, in order of preference.
+ */
+public class JsonRpcCodecs {
+
+    public static final JsonRpcCodec JSON = new JsonCodec();
+    public static final JsonRpcCodec CBOR = new CborCodec();
+
+    private static final List<JsonRpcCodec> codecs = Collections.unmodifiableList(Arrays.asList(CBOR, JSON));
+
+    private JsonRpcCodecs() {
+    }
+
+    /**
+     * @return all the known codecs, the preferred first
+     */
+    public static List<JsonRpcCodec> all() {
+        return codecs;
+    }
+
+    /**
+     * @param name : the name of a codec
+     * @return the codec with that name, null if it is unknown
+     */
+    public static JsonRpcCodec forName(String name) {
+        for (JsonRpcCodec c : codecs)
+            if (c.getName().equals(name)) return c;
+        return null;
+    }
+
+    /**
+     * Every message says which codec wrote it, so a peer can switch codec at any time.
+     *
+     * @param data : a received message
+     * @return the codec that can decode data (json if no codec recognizes it)
+     */
+    public static JsonRpcCodec detect(byte[] data) {
+        if (JSON.accepts(data)) return JSON;
+        for (JsonRpcCodec c : codecs)
+            if (c.accepts(data)) return c;
+        return JSON;
+    }
+}
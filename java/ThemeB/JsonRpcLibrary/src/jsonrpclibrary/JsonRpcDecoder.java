@@ -0,0 +1,420 @@
+package jsonrpclibrary;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming decoder for incoming json-rpc messages.
+ * The input is read only once: the kind of message (request, response or batch) is decided from the member names
+ * found while reading, and the final JsonRpcMessage is built directly from the values read.
+ * <p>
+ * In lazy mode only the envelope (jsonrpc, method, id and error) is decoded: params and result are kept as slices
+ * of the received bytes and decoded on first use, and a message forwarded unchanged is written out as it was received.
+ */
+class JsonRpcDecoder {
+
+    private static final JsonParser parser = new JsonParser();
+
+    private JsonRpcDecoder() {
+    }
+
+    /**
+     * @param str : the json text received
+     * @return a JsonRpcRequest, JsonRpcResponse, JsonRpcBatchRequest or JsonRpcBatchResponse object,
+     * or null if str is not a well-formed json-rpc message
+     */
+    static JsonRpcMessage decode(String str) {
+        return decode(new StringReader(str));
+    }
+
+    /**
+     * @param data : the json text received, encoded in UTF-8 : it is read without building a String
+     */
+    static JsonRpcMessage decode(byte[] data) {
+        return decode(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8));
+    }
+
+    static JsonRpcMessage decode(Reader input) {
+        JsonReader reader = new JsonReader(input);
+        reader.setLenient(true);
+        return decode(reader);
+    }
+
+    /**
+     * @param reader : the source of the message, json text or any other codec read through the JsonReader interface
+     */
+    static JsonRpcMessage decode(JsonReader reader) {
+        try {
+            JsonRpcMessage msg;
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_ARRAY) msg = readBatch(reader);
+            else if (token == JsonToken.BEGIN_OBJECT) msg = readMessage(reader);
+            else return null;
+            if (reader.peek() != JsonToken.END_DOCUMENT) return null; //trailing data after the message
+            return msg;
+        } catch (IOException | JsonParseException | IllegalStateException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A batch made only of valid responses is a JsonRpcBatchResponse, otherwise it is a JsonRpcBatchRequest
+     * in which every entry that is not a valid request is replaced by JsonRpcRequest.invalid()
+     */
+    private static JsonRpcMessage readBatch(JsonReader reader) throws IOException {
+        List<JsonRpcMessage> entries = new ArrayList<>();
+        boolean onlyResponses = true;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JsonRpcMessage entry = reader.peek() == JsonToken.BEGIN_OBJECT ? readMessage(reader) : skip(reader);
+            if (!(entry instanceof JsonRpcResponse)) onlyResponses = false;
+            entries.add(entry);
+        }
+        reader.endArray();
+
+        if (entries.isEmpty()) return null;
+
+        if (onlyResponses) {
+            JsonRpcBatchResponse batch = new JsonRpcBatchResponse();
+            for (JsonRpcMessage m : entries) batch.add((JsonRpcResponse) m);
+            return batch;
+        }
+        JsonRpcBatchRequest batch = new JsonRpcBatchRequest();
+        for (JsonRpcMessage m : entries)
+            batch.add(m instanceof JsonRpcRequest ? (JsonRpcRequest) m : JsonRpcRequest.invalid());
+        return batch;
+    }
+
+    private static JsonRpcMessage skip(JsonReader reader) throws IOException {
+        reader.skipValue();
+        return null;
+    }
+
+    private static JsonElement readValue(JsonReader reader) {
+        if (reader instanceof CborReader) { //numbers are kept in binary form
+            try {
+                return ((CborReader) reader).readElement();
+            } catch (IOException e) {
+                throw new JsonParseException(e);
+            }
+        }
+        return parser.parse(reader);
+    }
+
+    /**
+     * Reads a single json object and classifies it from its members.
+     *
+     * @return a JsonRpcRequest, a JsonRpcResponse or null if the object is not a well-formed json-rpc message
+     */
+    private static JsonRpcMessage readMessage(JsonReader reader) throws IOException {
+        JsonObject json = new JsonObject();
+        boolean version = false, method = false, id = false, result = false, error = false, other = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "jsonrpc":
+                    if (reader.peek() == JsonToken.STRING || reader.peek() == JsonToken.NUMBER) {
+                        String v = reader.nextString();
+                        version = v.equals("2.0");
+                        json.addProperty(name, v);
+                    } else {
+                        reader.skipValue();
+                        version = false;
+                    }
+                    break;
+                case "method":
+                    if (reader.peek() == JsonToken.STRING) {
+                        json.addProperty(name, reader.nextString());
+                        method = true;
+                    } else {
+                        reader.skipValue();
+                        other = true; //a method name MUST be a string
+                    }
+                    break;
+                case "id":
+                    id = true;
+                    json.add(name, readValue(reader));
+                    break;
+                case "result":
+                    result = true;
+                    json.add(name, readValue(reader));
+                    break;
+                case "error":
+                    error = true;
+                    JsonElement e = readValue(reader);
+                    if (!e.isJsonObject()) other = true; //an error MUST be an object
+                    json.add(name, e);
+                    break;
+                case "params":
+                    json.add(name, readValue(reader));
+                    break;
+                default:
+                    reader.skipValue();
+                    other = true;
+            }
+        }
+        reader.endObject();
+
+        if (!version || other) return null; // jsonrpc MUST be included
+        if (method) {
+            if (result || error) return null; //there are other fields -> is not a well-formed Json-RPC Request
+            return new JsonRpcRequest(json);
+        }
+        if (!id) return null; // jsonrpc and id MUST be included
+        if (result == error)
+            return null; //"Either the result member or error member MUST be included, but both members MUST NOT be included."
+        if (3 != json.size()) return null; //there are other fields -> is not a well-formed Json-RPC Response
+        return new JsonRpcResponse(json);
+    }
+
+    /**
+     * Lazy version of decode(byte[]): the UTF-8 bytes are scanned without decoding params and result.
+     * If the input cannot be scanned (e.g. it is not strict json) the eager decoder is used.
+     *
+     * @param data : the json text received, encoded in UTF-8
+     * @return the same message that decode(data) returns
+     */
+    static JsonRpcMessage decodeLazy(byte[] data) {
+        try {
+            Scanner scanner = new Scanner(data);
+            JsonRpcMessage msg;
+            scanner.skipWhitespace();
+            char c = scanner.peek();
+            if (c == '[') msg = scanner.readBatch();
+            else if (c == '{') msg = scanner.readMessage();
+            else return null;
+            scanner.skipWhitespace();
+            if (!scanner.atEnd()) return null; //trailing data after the message
+            return msg;
+        } catch (IndexOutOfBoundsException | IllegalStateException | JsonParseException e) {
+            return decode(data);
+        }
+    }
+
+    /**
+     * Finds the boundaries of json values without decoding them.
+     * Only the small envelope values are given to the parser.
+     * The structural characters are ASCII, and in UTF-8 the bytes of a multi-byte character are never ASCII :
+     * the bytes can be scanned as they are.
+     */
+    private static class Scanner {
+        private static final String[] NAMES = {"jsonrpc", "method", "params", "id", "result", "error"};
+        private static final byte[][] NAME_BYTES = new byte[NAMES.length][];
+
+        static {
+            for (int i = 0; i < NAMES.length; i++) NAME_BYTES[i] = NAMES[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        private final byte[] source;
+        private int pos = 0;
+
+        Scanner(byte[] source) {
+            this.source = source;
+        }
+
+        boolean atEnd() {
+            return pos == source.length;
+        }
+
+        char peek() {
+            return (char) source[pos];
+        }
+
+        void skipWhitespace() {
+            while (pos < source.length) {
+                byte c = source[pos];
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') return;
+                pos++;
+            }
+        }
+
+        void expect(char c) {
+            if (source[pos] != c) throw new IllegalStateException("expected '" + c + "' at " + pos);
+            pos++;
+        }
+
+        /**
+         * Moves after the value starting at the current position.
+         */
+        void skipValue() {
+            byte c = source[pos];
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    c = source[pos];
+                    if (c == '"') {
+                        skipString();
+                        continue;
+                    }
+                    if (c == '{' || c == '[') depth++;
+                    else if (c == '}' || c == ']') depth--;
+                    pos++;
+                } while (depth > 0);
+            } else {
+                int start = pos;
+                while (pos < source.length && ",:]} \t\n\r".indexOf(source[pos]) < 0) pos++;
+                if (pos == start) throw new IllegalStateException("expected a value at " + pos);
+            }
+        }
+
+        void skipString() {
+            expect('"');
+            byte c;
+            while ((c = source[pos++]) != '"')
+                if (c == '\\') pos++;
+        }
+
+        /**
+         * The member names of json-rpc are matched on their bytes, without building a String
+         */
+        String readName() {
+            int start = pos;
+            skipString();
+            int length = pos - start - 2;
+            for (int i = 0; i < NAMES.length; i++) {
+                byte[] name = NAME_BYTES[i];
+                if (name.length != length) continue;
+                int j = 0;
+                while (j < length && name[j] == source[start + 1 + j]) j++;
+                if (j == length) return NAMES[i];
+            }
+            String name = text(start + 1, pos - 1);
+            if (name.indexOf('\\') >= 0) return parser.parse(text(start, pos)).getAsString();
+            return name;
+        }
+
+        JsonElement parseValue(int start) {
+            return parser.parse(text(start, pos));
+        }
+
+        private String text(int start, int end) {
+            return new String(source, start, end - start, StandardCharsets.UTF_8);
+        }
+
+        JsonRpcMessage readBatch() {
+            List<JsonRpcMessage> entries = new ArrayList<>();
+            boolean onlyResponses = true;
+
+            expect('[');
+            skipWhitespace();
+            if (peek() == ']') return null;
+            while (true) {
+                skipWhitespace();
+                JsonRpcMessage entry;
+                if (peek() == '{') {
+                    entry = readMessage();
+                } else {
+                    skipValue();
+                    entry = null;
+                }
+                if (!(entry instanceof JsonRpcResponse)) onlyResponses = false;
+                entries.add(entry);
+                skipWhitespace();
+                if (peek() == ']') break;
+                expect(',');
+            }
+            expect(']');
+
+            if (onlyResponses) {
+                JsonRpcBatchResponse batch = new JsonRpcBatchResponse();
+                for (JsonRpcMessage m : entries) batch.add((JsonRpcResponse) m);
+                return batch;
+            }
+            JsonRpcBatchRequest batch = new JsonRpcBatchRequest();
+            for (JsonRpcMessage m : entries)
+                batch.add(m instanceof JsonRpcRequest ? (JsonRpcRequest) m : JsonRpcRequest.invalid());
+            return batch;
+        }
+
+        JsonRpcMessage readMessage() {
+            int messageStart = pos;
+            JsonObject json = new JsonObject();
+            JsonSlice body = null;
+            boolean version = false, method = false, id = false, result = false, error = false, params = false,
+                    other = false;
+
+            expect('{');
+            skipWhitespace();
+            if (peek() != '}') {
+                while (true) {
+                    skipWhitespace();
+                    String name = readName();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    int start = pos;
+                    skipValue();
+                    switch (name) {
+                        case "jsonrpc":
+                            JsonElement v = parseValue(start);
+                            version = v.isJsonPrimitive() && v.getAsString().equals("2.0");
+                            json.add(name, v);
+                            break;
+                        case "method":
+                            JsonElement m = parseValue(start);
+                            if (m.isJsonPrimitive() && m.getAsJsonPrimitive().isString()) {
+                                json.add(name, m);
+                                method = true;
+                            } else other = true; //a method name MUST be a string
+                            break;
+                        case "id":
+                            id = true;
+                            json.add(name, parseValue(start));
+                            break;
+                        case "error":
+                            error = true;
+                            JsonElement e = parseValue(start);
+                            if (!e.isJsonObject()) other = true; //an error MUST be an object
+                            json.add(name, e);
+                            break;
+                        case "result":
+                            if (result) other = true; //a repeated member cannot be kept as a single slice
+                            result = true;
+                            body = new JsonSlice(source, start, pos);
+                            break;
+                        case "params":
+                            if (params) other = true;
+                            params = true;
+                            body = new JsonSlice(source, start, pos);
+                            break;
+                        default:
+                            other = true;
+                    }
+                    skipWhitespace();
+                    if (peek() == '}') break;
+                    expect(',');
+                }
+            }
+            expect('}');
+            JsonSlice raw = new JsonSlice(source, messageStart, pos);
+
+            if (!version || other) return null; // jsonrpc MUST be included
+            if (method) {
+                if (result || error) return null; //there are other fields -> is not a well-formed Json-RPC Request
+                return new JsonRpcRequest(json, raw, body);
+            }
+            if (!id || params) return null; // jsonrpc and id MUST be included
+            if (result == error)
+                return null; //"Either the result member or error member MUST be included, but both members MUST NOT be included."
+            return new JsonRpcResponse(json, raw, body);
+        }
+    }
+}
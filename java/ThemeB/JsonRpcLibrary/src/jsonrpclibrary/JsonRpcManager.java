@@ -1,15 +1,64 @@
 package jsonrpclibrary;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
 import connectioninterfaces.IConnection;
 import connectioninterfaces.TimeoutException;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
 public class JsonRpcManager {
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+    /**
+     * Method of the codec handshake : names starting with "rpc." are reserved by the json-rpc specification
+     * for rpc-internal extensions, so it cannot clash with a service.
+     */
+    public static final String NEGOTIATE_CODEC = "rpc.codecs";
+
+    /**
+     * Threshold meaning that the sent messages are never compressed
+     */
+    public static final int NO_COMPRESSION = -1;
+
     private IConnection connection;
+    private StringBuilder buffer = new StringBuilder();
+    private Buffer bytes = new Buffer();
+    private boolean lazy = false;
+    private volatile JsonRpcCodec codec = JsonRpcCodecs.JSON;
+    private int compressionThreshold = NO_COMPRESSION;
+    private FrameCompressor compressor = null;
+    private volatile JsonRpcMessageListener listener = null;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "json-rpc-timeouts");
+        t.setDaemon(true);
+        return t;
+    });
 
     public JsonRpcManager(IConnection connection) {
         this.connection = connection;
     }
 
+    /**
+     * @param connection : the connection used to receive and send messages
+     * @param lazy       : if true only the envelope of the received messages is decoded : params and result are decoded
+     *                   when they are requested, and a message sent unchanged is written out as it was received.
+     */
+    public JsonRpcManager(IConnection connection, boolean lazy) {
+        this(connection);
+        this.lazy = lazy;
+    }
+
     public JsonRpcMessage listenRequest() throws ParseException {
         JsonRpcMessage msg = null;
         do {
@@ -75,35 +124,319 @@ public class JsonRpcManager {
      * @throws TimeoutException if nothing arrive within the timeout
      */
     private JsonRpcMessage listen(long milliseconds) throws ParseException, TimeoutException {
-        String input = milliseconds >= 0 ? connection.read(milliseconds) : connection.read();
+        Object input = milliseconds >= 0 ? connection.readObject(milliseconds) : connection.readObject();
         if (input == null) throw new TimeoutException("");
+        return decode(input);
+    }
 
-        input = input.trim();
-        JsonRpcMessage msg;
+    /**
+     * @param current : the current message of the connection, the bytes received or a message passed by reference
+     * @return the decoded message, or null if it was a codec handshake (already answered and consumed)
+     * @throws ParseException if input is not a well-formed json-rpc message (it is consumed)
+     */
+    private JsonRpcMessage decode(Object current) throws ParseException {
+        JsonRpcMessage msg = current instanceof JsonRpcMessage ? (JsonRpcMessage) current : decode((byte[]) current);
+        if (msg instanceof JsonRpcRequest && NEGOTIATE_CODEC.equals(((JsonRpcRequest) msg).getMethod())) {
+            connection.consume();
+            answerNegotiation((JsonRpcRequest) msg);
+            return null;
+        }
+        return msg;
+    }
+
+    private JsonRpcMessage decode(byte[] input) throws ParseException {
+        if (FrameCompressor.isCompressed(input)) {
+            byte[] compressed = input;
+            input = compressor().decompress(compressed);
+            if (input == null) {
+                connection.consume();
+                throw new ParseException("received a corrupted compressed message (" + compressed.length + " bytes)");
+            }
+        }
 
-        if (input.charAt(0) == '[') {
-            msg = JsonRpcBatchResponse.fromJson(input);
-            if (msg != null) return msg;
-            msg = JsonRpcBatchRequest.fromJson(input);
-            if (msg != null) return msg;
+        JsonRpcCodec received = JsonRpcCodecs.detect(input);
+        JsonRpcMessage msg = received.decode(input, lazy);
+        if (msg == null) {
             //error
             connection.consume();
-            throw new ParseException("\"" + input + "\" is not a valid json-rpc batch");
-        } else {
-            msg = JsonRpcRequest.fromJson(input);
-            if (msg != null) return msg;
-            msg = JsonRpcResponse.fromJson(input);
-            if (msg != null) return msg;
-            connection.consume();
-            throw new ParseException("\"" + input + "\" is not a valid json-rpc message");
+            if (received == JsonRpcCodecs.JSON)
+                throw new ParseException("\"" + new String(input, StandardCharsets.UTF_8) + "\" is not a valid json-rpc message");
+            throw new ParseException("received a not valid json-rpc message (" + received.getName() + ")");
+        }
+        if (received != JsonRpcCodecs.JSON && codec == JsonRpcCodecs.JSON)
+            codec = received; //a peer writing a binary codec has agreed on it, even on another connection
+        return msg;
+    }
+
+    private static boolean isRequest(JsonRpcMessage msg) {
+        return msg instanceof JsonRpcRequest || msg instanceof JsonRpcBatchRequest;
+    }
+
+    private static boolean isResponse(JsonRpcMessage msg) {
+        return msg instanceof JsonRpcResponse || msg instanceof JsonRpcBatchResponse;
+    }
+
+    /**
+     * Asynchronous listenRequest() : no thread is blocked while waiting.
+     * The messages that are not requests are dropped.
+     *
+     * @return a future completed with the request, or exceptionally with a ParseException
+     */
+    public CompletableFuture<JsonRpcMessage> listenRequestAsync() {
+        return listenAsync(true, -1);
+    }
+
+    /**
+     * @param milliseconds : the future is completed exceptionally with a TimeoutException if no request arrives in time
+     */
+    public CompletableFuture<JsonRpcMessage> listenRequestAsync(long milliseconds) {
+        return listenAsync(true, milliseconds);
+    }
+
+    /**
+     * Asynchronous listenResponse() : no thread is blocked while waiting.
+     * The messages that are not responses are dropped.
+     *
+     * @return a future completed with the response, or exceptionally with a ParseException
+     */
+    public CompletableFuture<JsonRpcMessage> listenResponseAsync() {
+        return listenAsync(false, -1);
+    }
+
+    /**
+     * @param milliseconds : the future is completed exceptionally with a TimeoutException if no response arrives in time
+     */
+    public CompletableFuture<JsonRpcMessage> listenResponseAsync(long milliseconds) {
+        return listenAsync(false, milliseconds);
+    }
+
+    private CompletableFuture<JsonRpcMessage> listenAsync(boolean requests, long milliseconds) {
+        CompletableFuture<JsonRpcMessage> result = new CompletableFuture<>();
+        if (milliseconds >= 0) {
+            ScheduledFuture<?> timeout = timer.schedule(() -> result.completeExceptionally(new TimeoutException("")),
+                    milliseconds, TimeUnit.MILLISECONDS);
+            result.whenComplete((msg, e) -> timeout.cancel(false));
+        }
+        readAsync(result, requests);
+        return result;
+    }
+
+    private void readAsync(CompletableFuture<JsonRpcMessage> result, boolean requests) {
+        connection.readObjectAsync().whenComplete((input, error) -> {
+            if (result.isDone()) return; //timed out : the message is left to the next listen
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            try {
+                JsonRpcMessage msg = decode(input);
+                if (msg != null) connection.consume(); //consumed before the caller is given the message
+                if (msg != null && (requests ? isRequest(msg) : isResponse(msg))) {
+                    result.complete(msg);
+                    return;
+                }
+            } catch (ParseException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            readAsync(result, requests);
+        });
+    }
+
+    /**
+     * Delivers every message received to listener as soon as it arrives, until stopListening() is called.
+     * No thread is blocked while waiting : the listener is called by the connection when a message arrives.
+     * The listen methods must not be used at the same time.
+     *
+     * @param listener : replaces the previous listener, if any
+     */
+    public void listen(JsonRpcMessageListener listener) {
+        this.listener = listener;
+        deliver(listener);
+    }
+
+    /**
+     * Stops the delivery to the listener. The messages not delivered yet stay in the connection.
+     */
+    public void stopListening() {
+        listener = null;
+    }
+
+    private void deliver(JsonRpcMessageListener target) {
+        connection.readObjectAsync().whenComplete((input, error) -> {
+            if (listener != target) return; //stopped or replaced
+            if (error != null) {
+                target.onError(error);
+                return;
+            }
+            try {
+                JsonRpcMessage msg = decode(input);
+                if (msg != null) {
+                    connection.consume();
+                    target.onMessage(msg);
+                }
+            } catch (ParseException e) {
+                target.onParseError(e);
+            }
+            deliver(target);
+        });
+    }
+
+    /**
+     * Asks the peer to use the first codec it supports among the ones known by this library.
+     * A peer that does not know the handshake answers with an error, so json is kept.
+     * The peer answers automatically while it is listening with any of the listen methods.
+     *
+     * @param milliseconds : how long to wait for the answer of the peer
+     * @return the codec used from now on to send messages
+     */
+    public JsonRpcCodec negotiateCodec(long milliseconds) {
+        JsonArray names = new JsonArray();
+        for (JsonRpcCodec c : JsonRpcCodecs.all()) names.add(c.getName());
+        send(new JsonRpcRequest(NEGOTIATE_CODEC, names, new ID(NEGOTIATE_CODEC)));
+        try {
+            JsonRpcMessage msg = listenResponse(milliseconds);
+            if (msg instanceof JsonRpcResponse && !((JsonRpcResponse) msg).isError()) {
+                JsonElement result = ((JsonRpcResponse) msg).getResult();
+                JsonRpcCodec agreed = result.isJsonPrimitive() ? JsonRpcCodecs.forName(result.getAsString()) : null;
+                if (agreed != null) codec = agreed;
+            }
+        } catch (ParseException | TimeoutException e) {
+            //the peer did not answer : json is kept
         }
+        return codec;
+    }
+
+    private void answerNegotiation(JsonRpcRequest request) {
+        JsonElement params = request.getParams();
+        if (params == null || !params.isJsonArray()) {
+            if (!request.isNotification())
+                send(JsonRpcResponse.error(JsonRpcDefaultError.invalidParams(), request.getID()));
+            return;
+        }
+        JsonRpcCodec agreed = JsonRpcCodecs.JSON;
+        for (JsonElement name : params.getAsJsonArray()) {
+            JsonRpcCodec c = name.isJsonPrimitive() ? JsonRpcCodecs.forName(name.getAsString()) : null;
+            if (c != null) {
+                agreed = c;
+                break;
+            }
+        }
+        if (!request.isNotification()) send(new JsonRpcResponse(new JsonPrimitive(agreed.getName()), request.getID()));
+        codec = agreed; //the answer is still written with the previous codec
+    }
+
+    /**
+     * Uses a codec without asking the peer, e.g. the one it agreed on for another connection. A manager that receives
+     * a message written with a binary codec uses it from then on, so the peer answers with the same codec.
+     *
+     * @param codec : the codec used from now on to send messages
+     */
+    public void setCodec(JsonRpcCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return the codec used to send messages (the received ones are decoded with the codec that wrote them)
+     */
+    public JsonRpcCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Enables the compression (deflate) of the sent messages whose encoding is at least threshold bytes long.
+     * A message is sent compressed only if it gets smaller. Compressed messages are always understood when received,
+     * but the peer has to run a version of this library that knows them.
+     *
+     * @param threshold : the minimum size in bytes of a message to compress, NO_COMPRESSION to disable the compression
+     * @param level     : the Deflater compression level, from Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION
+     */
+    public synchronized void setCompression(int threshold, int level) {
+        if (compressor != null) compressor.end();
+        compressor = threshold < 0 ? null : new FrameCompressor(level);
+        compressionThreshold = threshold < 0 ? NO_COMPRESSION : threshold;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    private synchronized FrameCompressor compressor() {
+        if (compressor == null) compressor = new FrameCompressor(Deflater.DEFAULT_COMPRESSION); //only used to inflate
+        return compressor;
     }
 
     public IConnection getConnection() {
         return connection;
     }
 
-    public void send(JsonRpcMessage msg) {
-        connection.send(msg.toString());
+    /**
+     * Closes the connection and frees the native memory of the compression, if it was used
+     */
+    public void close() {
+        stopListening();
+        synchronized (this) {
+            if (compressor != null) compressor.end();
+        }
+        connection.close();
+    }
+
+    /**
+     * The message is encoded into a buffer reused by every send, and the buffer is handed to the connection.
+     * If the compression is enabled and the message is big enough, the compressed frame is sent instead.
+     * If the connection carries objects the message is passed by reference, without encoding it.
+     *
+     * @param msg : the message to send
+     */
+    public synchronized void send(JsonRpcMessage msg) {
+        transmit(msg, false);
+    }
+
+    /**
+     * Same as send, but the connection does not block the caller while it transmits the message
+     *
+     * @return a future completed when the message has been handed to the transport
+     */
+    public synchronized CompletableFuture<Void> sendAsync(JsonRpcMessage msg) {
+        return transmit(msg, true);
+    }
+
+    private CompletableFuture<Void> transmit(JsonRpcMessage msg, boolean async) {
+        if (connection.sendObject(msg)) return async ? CompletableFuture.completedFuture(null) : null;
+        try {
+            if (!async && codec == JsonRpcCodecs.JSON && compressionThreshold == NO_COMPRESSION
+                    && msg.received() == null) { //a received message is forwarded as bytes, it is not decoded
+                buffer.setLength(0);
+                msg.write(buffer);
+                connection.send(buffer);
+                if (buffer.capacity() > MAX_RETAINED_BUFFER) buffer = new StringBuilder(); //do not keep a huge buffer alive
+                return null;
+            }
+            bytes.reset();
+            codec.write(msg, bytes);
+            int compressed = bytes.size() >= compressionThreshold && compressionThreshold != NO_COMPRESSION
+                    ? compressor.compress(bytes.array(), 0, bytes.size()) : -1;
+            byte[] frame = compressed > 0 ? compressor.output() : bytes.array();
+            int length = compressed > 0 ? compressed : bytes.size();
+
+            CompletableFuture<Void> sent = null;
+            if (async) sent = connection.sendAsync(frame, 0, length);
+            else connection.send(frame, 0, length);
+
+            if (bytes.array().length > MAX_RETAINED_BUFFER) bytes = new Buffer();
+            if (compressor != null) compressor.trim(MAX_RETAINED_BUFFER);
+            return sent;
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //cannot happen writing to memory
+        }
+    }
+
+    /**
+     * A ByteArrayOutputStream whose content can be sent without copying it
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
     }
 }
@@ -1,7 +1,109 @@
 package jsonrpclibrary;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+
 public abstract class JsonRpcMessage {
+
+    // same output as JsonElement.toString() : nulls are kept and html characters are not escaped
+    static final Gson gson = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+
     public boolean isBatch(){
         return this instanceof JsonRpcBatchRequest || this instanceof JsonRpcBatchResponse;
     }
+
+    /**
+     * Writes the json text of the message to out in a single pass, without building it as a String first.
+     *
+     * @param out : the destination, e.g. a StringBuilder or a Writer
+     * @throws IOException if out cannot be written
+     */
+    public void write(Appendable out) throws IOException {
+        JsonWriter writer = new TextWriter(out instanceof Writer ? (Writer) out : new AppendableWriter(out));
+        writer.setLenient(true);
+        write(writer);
+        writer.flush();
+    }
+
+    abstract void write(JsonWriter writer) throws IOException;
+
+    /**
+     * Writes a value kept as it was received (e.g. the params of a request decoded lazily) as the next value of
+     * writer : json text is copied as it is, a chunk at a time, and the other writers (e.g. CBOR) get it decoded.
+     */
+    static void write(JsonWriter writer, JsonSlice value) throws IOException {
+        if (writer instanceof TextWriter) ((TextWriter) writer).copy(value);
+        else gson.toJson(value.parse(), writer);
+    }
+
+    /**
+     * A JsonWriter that can copy json text to its Writer without making a String of it
+     */
+    private static class TextWriter extends JsonWriter {
+        private final Writer out;
+
+        TextWriter(Writer out) {
+            super(out);
+            this.out = out;
+        }
+
+        void copy(JsonSlice value) throws IOException {
+            jsonValue(""); //the separator before the value, nothing else
+            value.writeTo(out);
+        }
+    }
+
+    /**
+     * @return the bytes the message was received as, if it was decoded lazily from json text and can be
+     * forwarded as it is, otherwise null
+     */
+    JsonSlice received() {
+        return null;
+    }
+
+    public abstract String toJson();
+
+    /**
+     * Writer on top of an Appendable that is not a Writer (e.g. a StringBuilder)
+     */
+    private static class AppendableWriter extends Writer {
+        private final Appendable out;
+
+        AppendableWriter(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) out.append(chars[i]);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.append((char) c);
+        }
+
+        @Override
+        public void write(String str, int offset, int length) throws IOException {
+            out.append(str, offset, offset + length);
+        }
+
+        @Override
+        public Writer append(CharSequence csq) throws IOException {
+            out.append(csq);
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package jsonrpclibrary;
+
+/**
+ * Receives the messages of a JsonRpcManager as they arrive (see JsonRpcManager.listen(JsonRpcMessageListener)).
+ * The methods are called one at a time, in the thread of the connection : they should not block.
+ */
+public interface JsonRpcMessageListener {
+
+    /**
+     * @param msg : a request, a response or a batch
+     */
+    void onMessage(JsonRpcMessage msg);
+
+    /**
+     * A not well-formed message has been received and dropped
+     */
+    default void onParseError(ParseException e) {
+    }
+
+    /**
+     * The connection failed (e.g. it has been closed) : no other message is delivered
+     */
+    default void onError(Throwable e) {
+    }
+}
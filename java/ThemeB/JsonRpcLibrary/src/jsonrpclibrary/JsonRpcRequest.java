@@ -1,16 +1,30 @@
 package jsonrpclibrary;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Map;
 
 
 public class JsonRpcRequest extends JsonRpcMessage {
 
     private JsonObject json = null;
+    private JsonSlice raw = null; //the received message, kept only when it is decoded lazily
+    private JsonSlice rawParams = null; //params not decoded yet
+    private volatile JsonElement params = null; //params once decoded, json is not changed after construction
+    private volatile ID id = null; //decoded only the first time it is requested
 
-    private JsonRpcRequest(JsonObject json) {
+    JsonRpcRequest(JsonObject json) {
         this.json = json;
     }
 
+    JsonRpcRequest(JsonObject json, JsonSlice raw, JsonSlice rawParams) {
+        this.json = json;
+        this.raw = raw;
+        this.rawParams = rawParams;
+    }
+
     public JsonRpcRequest(String method, JsonElement params) {
         json = new JsonObject();
         json.addProperty("jsonrpc", "2.0");
@@ -20,10 +34,7 @@ public class JsonRpcRequest extends JsonRpcMessage {
 
     public JsonRpcRequest(String method, JsonElement params, ID id) {
         this(method, params);
-        if(id!=null && !id.isNull()){
-            if(id.isString())json.addProperty("id", id.getAsString());
-            else json.addProperty("id",id.getAsInt());
-        }
+        if(id!=null) id.addTo(json);
     }
 
 
@@ -33,17 +44,44 @@ public class JsonRpcRequest extends JsonRpcMessage {
 
 
 
+    /**
+     * @return the id of the request, or null if it is a notification or the id is not valid.
+     * The same ID is returned by every call, so it must not be changed.
+     */
     public ID getID() {
-        JsonPrimitive j=json.getAsJsonPrimitive("id");
-        if(j==null)return null;
-        if(j.isString())return new ID(j.getAsString());
-        if(j.isNumber())return new ID(j.getAsInt());
-        if(j.isJsonNull())return new ID();
-        return null; //invalid id
+        if (id == null) id = ID.fromJson(json.get("id"));
+        return id;
     }
 
+    /**
+     * @param id : the id of the copy, null for a notification
+     * @return a copy of the request with another id, e.g. to forward it under an id of its own. This request is not
+     * changed, so it can be shared : params that are not decoded yet are not decoded by the copy either.
+     */
+    public JsonRpcRequest withID(ID id) {
+        JsonObject copy = new JsonObject();
+        for (Map.Entry<String, JsonElement> member : json.entrySet())
+            if (!member.getKey().equals("id")) copy.add(member.getKey(), member.getValue());
+        if (id != null) id.addTo(copy);
+        JsonRpcRequest c = new JsonRpcRequest(copy, null, rawParams);
+        c.params = params;
+        return c;
+    }
+
+    /**
+     * A params received lazily is decoded the first time it is requested, and the same element is returned to every
+     * thread from then on
+     */
     public JsonElement getParams() {
-        return json.has("params")?json.get("params"):null;
+        if (rawParams == null) return json.has("params")?json.get("params"):null;
+        JsonElement decoded = params;
+        if (decoded == null) {
+            synchronized (this) {
+                decoded = params;
+                if (decoded == null) params = decoded = rawParams.parse();
+            }
+        }
+        return decoded;
     }
     public String getMethod() {
         return json.get("method").getAsString();
@@ -65,23 +103,43 @@ public class JsonRpcRequest extends JsonRpcMessage {
     }
 
     public String toJson() {
-        return json.toString();
+        if (raw != null) return raw.toString(); //forwarded as it was received
+        if (rawParams == null) return json.toString();
+        StringBuilder out = new StringBuilder();
+        try {
+            write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //a StringBuilder does not fail
+        }
+        return out.toString();
     }
 
-    public static JsonRpcRequest fromJson(String str) {
-        JsonObject json;
-        try {
-             json = (new Gson()).fromJson(str, JsonObject.class);
-        }catch (JsonSyntaxException e){
-            return null;
+    @Override
+    void write(JsonWriter writer) throws IOException {
+        if (raw != null) write(writer, raw); //forwarded as it was received
+        else if (rawParams == null) gson.toJson(json, writer);
+        else { //a copy with other members : the params are written as they were received
+            writer.beginObject();
+            for (Map.Entry<String, JsonElement> member : json.entrySet()) {
+                writer.name(member.getKey());
+                gson.toJson(member.getValue(), writer);
+            }
+            writer.name("params");
+            JsonElement decoded = params;
+            if (decoded != null) gson.toJson(decoded, writer); //it may have been changed once decoded
+            else write(writer, rawParams);
+            writer.endObject();
         }
-        if (json.get("jsonrpc") == null || !json.get("jsonrpc").getAsString().equals("2.0") || !json.has("method"))
-            return null; // jsonrpc and method MUST be included
-        int fields = 0;
-        if (json.has("id")) fields++;     //params MAY be omitted -> notification
-        if (json.has("params")) fields++; //params MAY be omitted
-        if (fields + 2 != json.size()) return null; //there are other fields -> is not a well-formed Json-RPC Request
-        return new JsonRpcRequest(json);
+    }
+
+    @Override
+    JsonSlice received() {
+        return raw;
+    }
+
+    public static JsonRpcRequest fromJson(String str) {
+        JsonRpcMessage msg = JsonRpcDecoder.decode(str);
+        return msg instanceof JsonRpcRequest ? (JsonRpcRequest) msg : null;
     }
 
 
@@ -1,22 +1,34 @@
 package jsonrpclibrary;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Map;
 
 public class JsonRpcResponse extends JsonRpcMessage {
 
     private JsonObject json;
+    private JsonSlice raw = null; //the received message, kept only when it is decoded lazily
+    private JsonSlice rawResult = null; //result not decoded yet
+    private volatile JsonElement result = null; //result once decoded, json is not changed after construction
+    private volatile ID id = null; //decoded only the first time it is requested
 
-    private JsonRpcResponse(JsonObject json) {
+    JsonRpcResponse(JsonObject json) {
         this.json = json;
     }
 
+    JsonRpcResponse(JsonObject json, JsonSlice raw, JsonSlice rawResult) {
+        this.json = json;
+        this.raw = raw;
+        this.rawResult = rawResult;
+    }
+
     private JsonRpcResponse(ID id) {
         json = new JsonObject();
         json.addProperty("jsonrpc", "2.0");
-        if (id != null && !id.isNull()) {
-            if (id.isString()) json.addProperty("id", id.getAsString());
-            else json.addProperty("id", id.getAsInt());
-        }else json.add("id", JsonNull.INSTANCE);
+        if (id != null && !id.isNull()) id.addTo(json);
+        else json.add("id", JsonNull.INSTANCE);
     }
 
     public JsonRpcResponse(JsonElement result, ID id) {
@@ -34,13 +46,29 @@ public class JsonRpcResponse extends JsonRpcMessage {
         return new JsonRpcResponse(e, id);
     }
 
+    /**
+     * @return the id of the response, or null if the id is not valid.
+     * The same ID is returned by every call, so it must not be changed.
+     */
     public ID getID() {
-        JsonPrimitive j = json.getAsJsonPrimitive("id");
-        if (j == null) return null;
-        if (j.isString()) return new ID(j.getAsString());
-        if (j.isNumber()) return new ID(j.getAsInt());
-        if (j.isJsonNull()) return new ID();
-        return null; //invalid id
+        if (id == null) id = ID.fromJson(json.get("id"));
+        return id;
+    }
+
+    /**
+     * @param id : the id of the copy
+     * @return a copy of the response with another id, e.g. to give it back to the request it answers. This response
+     * is not changed, so it can be shared : a result that is not decoded yet is not decoded by the copy either.
+     */
+    public JsonRpcResponse withID(ID id) {
+        JsonObject copy = new JsonObject();
+        for (Map.Entry<String, JsonElement> member : json.entrySet())
+            if (!member.getKey().equals("id")) copy.add(member.getKey(), member.getValue());
+        if (id != null && !id.isNull()) id.addTo(copy);
+        else copy.add("id", JsonNull.INSTANCE);
+        JsonRpcResponse c = new JsonRpcResponse(copy, null, rawResult);
+        c.result = result;
+        return c;
     }
 
     public boolean isError() {
@@ -49,11 +77,23 @@ public class JsonRpcResponse extends JsonRpcMessage {
 
     public Error getError() {
         if (!isError()) return null;
-        return (new Gson()).fromJson(json.get("error"), Error.class);
+        return new Error(json.get("error").getAsJsonObject());
     }
 
+    /**
+     * A result received lazily is decoded the first time it is requested, and the same element is returned to every
+     * thread from then on
+     */
     public JsonElement getResult() {
-        return json.has("result")?json.get("result"):null;
+        if (rawResult == null) return json.has("result")?json.get("result"):null;
+        JsonElement decoded = result;
+        if (decoded == null) {
+            synchronized (this) {
+                decoded = result;
+                if (decoded == null) result = decoded = rawResult.parse();
+            }
+        }
+        return decoded;
     }
 
     public String toString() {
@@ -61,25 +101,42 @@ public class JsonRpcResponse extends JsonRpcMessage {
     }
 
     public String toJson() {
-        return json.toString();
-    }
-
-    public static JsonRpcResponse fromJson(String str) {
-        JsonObject json;
+        if (raw != null) return raw.toString(); //forwarded as it was received
+        if (rawResult == null) return json.toString();
+        StringBuilder out = new StringBuilder();
         try {
-            json = (new Gson()).fromJson(str, JsonObject.class);
-        }catch (JsonSyntaxException e){
-            return null;
+            write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //a StringBuilder does not fail
         }
-        if (!json.get("jsonrpc").getAsString().equals("2.0") || !json.has("id"))
-            return null; // jsonrpc and id MUST be included
-        if (json.has("result") == json.has("error"))
-            return null; //"Either the result member or error member MUST be included, but both members MUST NOT be included."
-        if (json.has("error")) {
-            Error e = (new Gson()).fromJson(json.get("error"), Error.class);  //check if error is valid
-            if (e == null) return null;
+        return out.toString();
+    }
+
+    @Override
+    void write(JsonWriter writer) throws IOException {
+        if (raw != null) write(writer, raw); //forwarded as it was received
+        else if (rawResult == null) gson.toJson(json, writer);
+        else { //a copy with other members : the result is written as it was received
+            writer.beginObject();
+            for (Map.Entry<String, JsonElement> member : json.entrySet()) {
+                writer.name(member.getKey());
+                gson.toJson(member.getValue(), writer);
+            }
+            writer.name("result");
+            JsonElement decoded = result;
+            if (decoded != null) gson.toJson(decoded, writer); //it may have been changed once decoded
+            else write(writer, rawResult);
+            writer.endObject();
         }
-        if (3 != json.size()) return null; //there are other fields -> is not a well-formed Json-RPC Request
-        return new JsonRpcResponse(json);
+    }
+
+    @Override
+    JsonSlice received() {
+        return raw;
+    }
+
+    public static JsonRpcResponse fromJson(String str) {
+        JsonRpcMessage msg = JsonRpcDecoder.decode(str);
+        return msg instanceof JsonRpcResponse ? (JsonRpcResponse) msg : null;
     }
 }
\ No newline at end of file
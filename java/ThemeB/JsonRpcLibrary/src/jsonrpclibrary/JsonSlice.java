@@ -0,0 +1,61 @@
+package jsonrpclibrary;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A json value kept as a range of the UTF-8 bytes of the message it was received in.
+ * It is decoded only when asked for, and written out again as it is.
+ */
+class JsonSlice {
+
+    private static final JsonParser parser = new JsonParser();
+
+    private final byte[] source;
+    private final int start, end;
+
+    JsonSlice(byte[] source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    JsonElement parse() {
+        return parser.parse(new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(source, start, end - start), StandardCharsets.UTF_8)));
+    }
+
+    int length() {
+        return end - start;
+    }
+
+    /**
+     * Writes the bytes of the value, without decoding them
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(source, start, end - start);
+    }
+
+    /**
+     * Writes the characters of the value, decoded a chunk at a time : no String of the whole value is made
+     */
+    void writeTo(Writer out) throws IOException {
+        Reader in = new InputStreamReader(new ByteArrayInputStream(source, start, end - start), StandardCharsets.UTF_8);
+        char[] chunk = new char[Math.min(end - start, 4096)];
+        for (int n; (n = in.read(chunk)) > 0; ) out.write(chunk, 0, n);
+    }
+
+    @Override
+    public String toString() {
+        return new String(source, start, end - start, StandardCharsets.UTF_8);
+    }
+}
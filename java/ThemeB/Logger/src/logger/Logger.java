@@ -7,6 +7,13 @@ public class Logger {
         if (DEBUG) System.out.println("LOG: " + msg);
     }
 
+    /**
+     * @return true if log messages are printed : use it to avoid building a message that would be discarded
+     */
+    public static boolean isEnabled() {
+        return DEBUG;
+    }
+
     public static void error(String msg) {
         System.err.println("ERROR: " + msg);
     }
@@ -14,6 +14,8 @@ import searchstrategy.TitleSearchStrategy;
 import service.IServiceMethod;
 import service.JsonRpcCustomError;
 import service.ServiceMetadata;
+import tcpimplementation.TcpConnectionFactory;
+import tcpimplementation.UnixSocketConnectionFactory;
 import zeromqimplementation.ZeroMQConnectionFactory;
 
 import java.util.ArrayList;
@@ -34,7 +36,19 @@ public class DummyNode {
     public static void main(String[] args) {
 
         // Create new node obj
-        IConnectionFactory connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6789");
+        // java node.DummyNode [tcp|unix] : ZeroMQ unless "tcp" or "unix" is given, as for the broker
+        IConnectionFactory connectionFactory;
+        String transport = args.length > 0 ? args[0] : "zeromq";
+        switch (transport) {
+            case "tcp":
+                connectionFactory = new TcpConnectionFactory("tcp://localhost:6789");
+                break;
+            case "unix":
+                connectionFactory = new UnixSocketConnectionFactory("unix://" + System.getProperty("java.io.tmpdir") + "/jsonrpc-broker.sock");
+                break;
+            default:
+                connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6789");
+        }
         node = new Node(connectionFactory);
 
         setupExampleService();
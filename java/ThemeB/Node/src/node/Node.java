@@ -6,6 +6,7 @@ import com.google.gson.JsonArray;
 
 import connectioninterfaces.IConnection;
 import connectioninterfaces.IConnectionFactory;
+import connectioninterfaces.PooledConnectionFactory;
 import connectioninterfaces.TimeoutException;
 import javafx.util.Pair;
 import jsonrpclibrary.*;
@@ -18,6 +19,11 @@ import service.Service;
 import service.ServiceMetadata;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
 
 /**
  *  This class contains server side and client side function because when can have a single instance of Node as node
@@ -27,8 +33,16 @@ import java.util.*;
 public class Node {
 
     private Map<String, Service> ownServices; /** Service that are provided by a node */
-    private IConnectionFactory connectionFactory; /** It is used to create new connection */
+    private IConnectionFactory connectionFactory; /** It is used to lease connections, see pooled() */
     private int id; /** Every JSON-RPC request from a node have a different jsonrpclibrary.ID */
+    private boolean binaryCodec = false; /** If true a binary codec is negotiated with the broker */
+    private volatile JsonRpcCodec codec = null; /** The codec agreed with the broker, null until it is negotiated */
+    private int compressionThreshold = JsonRpcManager.NO_COMPRESSION; /** Messages at least this long are sent compressed */
+    private boolean eventDrivenServices = false; /** If true the services are served without a thread each */
+    private Executor serviceExecutor = null; /** If set, runs the service functions for many requests at once */
+    private final Map<String, ServiceMetadata> directory = new HashMap<>(); /** The copy kept by syncServiceList */
+    private long directoryEpoch, directoryVersion = -1; /** Where the copy is, -1 : no copy yet */
+    private final List<ServiceSubscription> subscriptions = new CopyOnWriteArrayList<>(); /** See subscribeServices */
     private Timer timer; /** please see below
 
 
@@ -49,7 +63,7 @@ public class Node {
 
     public Node(IConnectionFactory connectionFactory) {
         this.id = 0;
-        this.connectionFactory = connectionFactory;
+        this.connectionFactory = pooled(connectionFactory);
         ownServices = new HashMap<>();
         // See description in checkPublishedService() method
         TimerTask task = new TimerTask() {
@@ -73,7 +87,7 @@ public class Node {
      */
 
     public boolean provideService(ServiceMetadata metadata, IServiceMethod function) {
-        JsonRpcManager manager = new JsonRpcManager(this.connectionFactory.createConnection());
+        JsonRpcManager manager = this.createManager(this.serviceConnection());
         Service service = new Service(metadata, function, manager);
         JsonRpcRequest registerServiceRequest = new JsonRpcRequest("registerService", metadata.toJson(), this.generateNewId());
         manager.send(registerServiceRequest);
@@ -83,9 +97,11 @@ public class Node {
         } catch (ParseException e) {
             e.printStackTrace();
             Logger.log( JsonRpcCustomError.localParseError().getCode() + " " + JsonRpcCustomError.localParseError().getMessage());
+            manager.close();
             return false;
         } catch (TimeoutException e) {
             Logger.log(JsonRpcCustomError.localParseError().getCode() + " " + JsonRpcCustomError.connectionTimeout().getMessage());
+            manager.close();
             return false;
         }
 
@@ -95,12 +111,15 @@ public class Node {
         if (serviceRegistered) {
             String newMethodName = result.get("method").getAsString();
             metadata.setMethodName(newMethodName);
+            if (result.has("provider")) service.setProvider(result.get("provider").getAsString());
         } else {
             // Timeout
         }
         Logger.log("Server: Service registered!");
         // Start new service
-        service.start();
+        service.setExecutor(serviceExecutor);
+        if (eventDrivenServices) service.listen();
+        else service.start();
         ownServices.put(metadata.getMethodName(), service);
         return true;
     }
@@ -116,14 +135,16 @@ public class Node {
 
     public void deleteService(String method) {
         if (this.ownServices.containsKey(method)) {
-            IConnection connection = this.connectionFactory.createConnection();
-            JsonRpcManager manager = new JsonRpcManager(connection);
+            JsonRpcManager manager = this.createManager();
 
             JsonObject jsonMethod = new JsonObject();
             jsonMethod.addProperty("method", method);
+            String provider = this.ownServices.get(method).getProvider();
+            if (provider != null) jsonMethod.addProperty("provider", provider); // only this node stops providing it
 
             JsonRpcRequest request = JsonRpcRequest.notification("deleteService", jsonMethod);
             manager.send(request);
+            manager.close();
             // Delete service
             this.ownServices.get(method).interrupt();
             this.ownServices.get(method).delete();
@@ -140,7 +161,97 @@ public class Node {
      */
 
     public void setConnectionFactory(IConnectionFactory connectionFactory) {
-        this.connectionFactory = connectionFactory;
+        if (this.connectionFactory instanceof PooledConnectionFactory && this.connectionFactory != connectionFactory)
+            ((PooledConnectionFactory) this.connectionFactory).close();
+        this.connectionFactory = pooled(connectionFactory);
+        this.codec = null; //the new broker may not support it
+    }
+
+    /**
+     * The connections to the broker are leased from a pool : closing a connection gives it back, so the requests
+     * do not pay for a new connection every time. A PooledConnectionFactory is used as it is, so that its size
+     * and idle timeout can be configured.
+     * @param connectionFactory
+     * @return
+     */
+    private static IConnectionFactory pooled(IConnectionFactory connectionFactory) {
+        if (connectionFactory instanceof PooledConnectionFactory) return connectionFactory;
+        return new PooledConnectionFactory(connectionFactory);
+    }
+
+    /**
+     * This api allows to exchange messages with the broker in a compact binary codec instead of json text.
+     * The codec is agreed with the broker once, on the first connection, and the next connections use it without
+     * asking : if the broker does not support it, json is used and the node stops asking.
+     * @param binaryCodec
+     */
+
+    public void setBinaryCodec(boolean binaryCodec) {
+        this.binaryCodec = binaryCodec;
+    }
+
+    /**
+     * This api enables the compression of the messages sent to the broker whose size is at least threshold bytes.
+     * The broker must run a version of the library that understands compressed messages.
+     * @param threshold : JsonRpcManager.NO_COMPRESSION to disable the compression
+     */
+
+    public void setCompressionThreshold(int threshold) {
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * This api allows to serve the provided services without a thread each : the requests are handled when
+     * they arrive by the thread of the connection, so the service functions should not block for long.
+     * It applies to the services provided from now on.
+     * @param eventDrivenServices
+     */
+
+    public void setEventDrivenServices(boolean eventDrivenServices) {
+        this.eventDrivenServices = eventDrivenServices;
+    }
+
+    /**
+     * This api allows a service to serve many requests at the same time : the broker forwards them without waiting
+     * for the previous responses, and the service functions are run by executor. The functions must then be thread
+     * safe. It applies to the services provided from now on.
+     * @param executor : null to serve the requests of a service one at a time
+     */
+
+    public void setServiceExecutor(Executor executor) {
+        this.serviceExecutor = executor;
+    }
+
+    /**
+     * createManager leases a connection to the broker, and uses the binary codec if it is requested : it is agreed
+     * with the broker by the first connection only
+     * @return
+     */
+    private JsonRpcManager createManager() {
+        return this.createManager(this.connectionFactory.createConnection());
+    }
+
+    private JsonRpcManager createManager(IConnection connection) {
+        JsonRpcManager manager = new JsonRpcManager(connection);
+        if (binaryCodec) {
+            JsonRpcCodec agreed = codec;
+            if (agreed == null) codec = agreed = manager.negotiateCodec(1000);
+            else manager.setCodec(agreed);
+            if (agreed == JsonRpcCodecs.JSON) binaryCodec = false;
+        }
+        manager.setCompression(compressionThreshold, Deflater.BEST_SPEED);
+        return manager;
+    }
+
+    /**
+     * The connection of a service is not leased from the pool : the broker can forward a request to it until it has
+     * deleted the service, so it is closed with the service instead of being used again.
+     * @return
+     */
+    private IConnection serviceConnection() {
+        if (this.connectionFactory instanceof PooledConnectionFactory)
+            return ((PooledConnectionFactory) this.connectionFactory).createUnpooledConnection();
+        return this.connectionFactory.createConnection();
     }
 
     /**
@@ -148,17 +259,25 @@ public class Node {
      * For example if the broker went down the list of the available services would be empty.
      * For this reason this function called every 60 seconds check if the services owned by node still published.
      * If are not (this means that broker goes down and now is up) the services would be provided again.
+     * The subscriptions whose connection has been lost are made again too.
      */
 
     public void checkPublishedService() {
-        ArrayList<ServiceMetadata> serviceRegistered = this.requestServiceList();
-        Iterator<Map.Entry<String, Service>> i = ownServices.entrySet().iterator();
-        while (i.hasNext()) {
-            Map.Entry<String,Service> it = i.next();
-            if (!serviceRegistered.contains(it)) {
-                this.ownServices.remove(it);
-                this.provideService(it.getValue().getServiceMetadata(), it.getValue().getFunction());
-            }
+        for (ServiceSubscription subscription : subscriptions) {
+            if (subscription.isClosed()) subscriptions.remove(subscription);
+            else if (!subscription.isOpen()) resubscribe(subscription);
+        }
+        Map<String, ServiceMetadata> registered = syncServiceList();
+        if (registered == null) return; // the broker cannot be reached, see next time
+        for (Map.Entry<String, Service> it : new ArrayList<>(ownServices.entrySet())) {
+            Service service = it.getValue();
+            if (service.getProvider() != null && registered.containsKey(service.getProvider())) continue;
+            ServiceMetadata metadata = service.getServiceMetadata();
+            IServiceMethod function = service.getFunction();
+            this.ownServices.remove(it.getKey());
+            service.interrupt();
+            service.delete();
+            this.provideService(metadata, function);
         }
     }
 
@@ -180,7 +299,7 @@ public class Node {
      */
 
     public JsonRpcResponse requestService(String method, JsonElement parameters) {
-        JsonRpcManager manager = new JsonRpcManager(this.connectionFactory.createConnection());
+        JsonRpcManager manager = this.createManager();
         JsonRpcRequest request = new JsonRpcRequest(method, parameters, generateNewId());
         manager.send(request);
         JsonRpcResponse response = null;
@@ -193,9 +312,38 @@ public class Node {
             Logger.log("Timeout");
             response = JsonRpcResponse.error(JsonRpcCustomError.connectionTimeout(), ID.Null());
         }
+        manager.close();
         return response;
     }
 
+    /**
+     * requestServiceAsync is the asynchronous version of requestService : no thread is blocked while the response
+     * is awaited. The returned future is completed with the response, or with the same custom errors returned by
+     * requestService on parse errors and timeouts.
+     * @param method
+     * @param parameters
+     * @return
+     */
+
+    public CompletableFuture<JsonRpcResponse> requestServiceAsync(String method, JsonElement parameters) {
+        JsonRpcManager manager = this.createManager();
+        JsonRpcRequest request = new JsonRpcRequest(method, parameters, generateNewId());
+        manager.sendAsync(request);
+        return manager.listenResponseAsync(1000).handle((msg, e) -> {
+            manager.close();
+            if (e instanceof CompletionException) e = e.getCause();
+            if (e instanceof TimeoutException) {
+                Logger.log("Timeout");
+                return JsonRpcResponse.error(JsonRpcCustomError.connectionTimeout(), ID.Null());
+            }
+            if (e != null || !(msg instanceof JsonRpcResponse)) {
+                Logger.log("Client: Local parse exception: " + (e != null ? e.getMessage() : msg.toString()));
+                return JsonRpcResponse.error(JsonRpcCustomError.localParseError(), ID.Null());
+            }
+            return (JsonRpcResponse) msg;
+        });
+    }
+
     /**
      * requestService is a public api used to send batch request to one or more service registered in the system broker.
      * This method send a JSON-RPC batch request and wait for JSON-RPC batch response :
@@ -208,7 +356,7 @@ public class Node {
      * @return
      */
     public JsonRpcBatchResponse requestService(ArrayList<Pair<String, JsonElement>> methodsAndParameters) {
-        JsonRpcManager manager = new JsonRpcManager(this.connectionFactory.createConnection());
+        JsonRpcManager manager = this.createManager();
         JsonRpcBatchRequest requests = new JsonRpcBatchRequest();
         for (Pair<String, JsonElement> request: methodsAndParameters) {
             requests.add(new JsonRpcRequest(request.getKey(), request.getValue(), generateNewId()));
@@ -224,6 +372,7 @@ public class Node {
             Logger.log("Node: got timeout exception while waiting for batch response ("+e.getMessage()+")");
             responses.add(JsonRpcResponse.error(JsonRpcCustomError.connectionTimeout(), ID.Null()));
         }
+        manager.close();
         return responses;
     }
 
@@ -267,6 +416,162 @@ public class Node {
         return list;
     }
 
+    /**
+     * syncServiceList keeps a copy of the services registered in the system broker. The first call gets them all,
+     * the next ones send "getServicesListSince" with the version of the copy and get only the services registered
+     * or deleted since, nothing when nothing changed. Every service is sent again only if the node is too far behind
+     * or the broker restarted.
+     * @return the services registered, by the id of their provider, null if the broker did not answer
+     */
+    public synchronized Map<String, ServiceMetadata> syncServiceList() {
+        JsonObject params = null;
+        if (directoryVersion >= 0) {
+            params = new JsonObject();
+            params.addProperty("epoch", directoryEpoch);
+            params.addProperty("version", directoryVersion);
+        }
+        JsonRpcResponse response = this.requestService("getServicesListSince", params);
+        if (response.isError()) {
+            Logger.error("Node: services not synchronized (" + response.getError().getMessage() + ")");
+            return null;
+        }
+        JsonObject result = response.getResult().getAsJsonObject();
+        ServiceSubscription.apply(directory, directoryVersion >= 0 ? directoryEpoch : -1, result, null);
+        directoryEpoch = result.get("epoch").getAsLong();
+        directoryVersion = result.get("version").getAsLong();
+        return new HashMap<>(directory);
+    }
+
+    /**
+     * subscribeServices keeps the services that satisfy searchStrategy up to date without polling : the broker sends
+     * them, then pushes to the node the services registered and deleted as they happen, on a connection kept open
+     * for it. A node too slow to read them is sent what changed meanwhile instead of every change.
+     * If the connection is lost (e.g. the broker went down) the subscription is made again by
+     * checkPublishedService, or by resubscribe.
+     * @param searchStrategy : null for every service
+     * @param listener : told of each service registered or deleted, null if none
+     * @return the subscription, null if the broker did not answer
+     */
+    public ServiceSubscription subscribeServices(SearchStrategy searchStrategy, ServiceSubscription.Listener listener) {
+        ServiceSubscription subscription = new ServiceSubscription(searchStrategy, listener);
+        if (!subscribe(subscription)) return null;
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * resubscribe makes again a subscription whose connection has been lost. Without filter the broker sends only
+     * what changed since, if it still has the changes and has not restarted.
+     * @param subscription
+     * @return true if the changes are pushed again
+     */
+    public boolean resubscribe(ServiceSubscription subscription) {
+        if (subscription.isClosed()) return false;
+        return subscription.isOpen() || subscribe(subscription);
+    }
+
+    private boolean subscribe(ServiceSubscription subscription) {
+        JsonRpcManager manager = this.createManager();
+        manager.send(new JsonRpcRequest("subscribeServices", subscription.params(), this.generateNewId()));
+        JsonRpcResponse response;
+        try {
+            response = (JsonRpcResponse) manager.listenResponse(1000);
+        } catch (ParseException | TimeoutException e) {
+            Logger.error("Node: services not subscribed (" + e.getMessage() + ")");
+            manager.close();
+            return false;
+        }
+        if (response.isError()) {
+            Logger.error("Node: services not subscribed (" + response.getError().getMessage() + ")");
+            manager.close();
+            return false;
+        }
+        if (subscription.start(manager, response.getResult().getAsJsonObject())) return true;
+        manager.close(); // closed meanwhile
+        return false;
+    }
+
+    /**
+     * requestServices retrieves the services found by searchStrategy a page at a time : a page is requested from
+     * the broker only when the iterator has given every service of the previous one.
+     * @param searchStrategy : null for every service
+     * @param pageSize : how many services a page has
+     * @param fields : the fields of the services to retrieve, e.g. "method" and "owner", all of them if none
+     * @return the services found, it ends early if the broker answers with an error
+     */
+    public Iterator<ServiceMetadata> requestServices(SearchStrategy searchStrategy, int pageSize, String... fields) {
+        JsonObject params = new JsonObject();
+        if (searchStrategy != null) params.add("search", searchStrategy.toJsonElement());
+        params.addProperty("limit", pageSize);
+        if (fields.length > 0) {
+            JsonArray array = new JsonArray();
+            for (String field : fields) array.add(field);
+            params.add("fields", array);
+        }
+        return new ServicePages(params);
+    }
+
+    /**
+     * requestTopServices retrieves the first k services found by searchStrategy in the order of a field, the broker
+     * sends only those.
+     * @param searchStrategy : null for every service
+     * @param orderBy : "method", "owner", "applicationField", "activationDate" or "capacity"
+     * @return the services found, an empty list if the broker answers with an error
+     */
+    public ArrayList<ServiceMetadata> requestTopServices(SearchStrategy searchStrategy, int k, String orderBy,
+                                                         boolean descending) {
+        JsonObject params = new JsonObject();
+        if (searchStrategy != null) params.add("search", searchStrategy.toJsonElement());
+        params.addProperty("limit", k);
+        params.addProperty("orderBy", orderBy);
+        params.addProperty("descending", descending);
+        ArrayList<ServiceMetadata> list = new ArrayList<>();
+        JsonRpcResponse response = this.requestService("getServicesList", params);
+        if (response.isError())
+            Logger.error("Node: top services not received (" + response.getError().getMessage() + ")");
+        else
+            for (JsonElement s : response.getResult().getAsJsonObject().getAsJsonArray("services"))
+                list.add(ServiceMetadata.fromJson(s.getAsJsonObject()));
+        return list;
+    }
+
+    /**
+     * The services of a getServicesList request with params, requested a page at a time with the cursor of the
+     * previous page
+     */
+    private class ServicePages implements Iterator<ServiceMetadata> {
+        private final JsonObject params;
+        private Iterator<JsonElement> page = Collections.emptyIterator();
+        private boolean last = false;
+
+        ServicePages(JsonObject params) {
+            this.params = params;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && !last) {
+                JsonRpcResponse response = requestService("getServicesList", params);
+                if (response.isError()) {
+                    Logger.error("Node: page of services not received (" + response.getError().getMessage() + ")");
+                    last = true;
+                    break;
+                }
+                JsonObject result = response.getResult().getAsJsonObject();
+                page = result.getAsJsonArray("services").iterator();
+                if (result.has("cursor")) params.add("cursor", result.get("cursor"));
+                else last = true;
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public ServiceMetadata next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return ServiceMetadata.fromJson(page.next().getAsJsonObject());
+        }
+    }
+
     /** This method return all service that are correctly published by the node */
     public ArrayList<String> showRunningServices() {
         ArrayList<String> runningServicesName = new ArrayList<>();
@@ -285,7 +590,7 @@ public class Node {
      * generateNewId is private a  method that increment the id every time a request is generated
      * @return
      * */
-     private ID generateNewId() {
+     private synchronized ID generateNewId() {
         return new ID(this.id++);
     }
 
@@ -299,6 +604,8 @@ public class Node {
             e.printStackTrace();
         }
         timer.cancel();
+        for (ServiceSubscription subscription : subscriptions) subscription.close();
+        subscriptions.clear();
         ArrayList<String> names = new ArrayList<>();
         for (Iterator<Map.Entry<String, Service>> i = ownServices.entrySet().iterator(); i.hasNext();){
             Map.Entry<String,Service> it = i.next();
@@ -307,5 +614,6 @@ public class Node {
         for (Iterator<String> i = names.iterator(); i.hasNext();) {
             this.deleteService(i.next());
         }
+        if (connectionFactory instanceof PooledConnectionFactory) ((PooledConnectionFactory) connectionFactory).close();
     }
 }
@@ -0,0 +1,163 @@
+package node;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import jsonrpclibrary.JsonRpcManager;
+import jsonrpclibrary.JsonRpcMessage;
+import jsonrpclibrary.JsonRpcMessageListener;
+import jsonrpclibrary.JsonRpcRequest;
+import logger.Logger;
+import searchstrategy.SearchStrategy;
+import service.ServiceMetadata;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The services registered in the system broker that satisfy a filter, kept up to date without polling : the broker
+ * pushes the services registered and deleted as "servicesChanged" notifications on a connection kept open for it,
+ * see Node.subscribeServices. The services are changed by the thread of the connection and can be read at any time.
+ */
+public class ServiceSubscription implements JsonRpcMessageListener {
+
+    /**
+     * Told of the services registered and deleted, by the thread of the connection : it should not block
+     */
+    public interface Listener {
+        /**
+         * @param service : the service registered by provider, null if provider deleted its service
+         */
+        void changed(String provider, ServiceMetadata service);
+    }
+
+    private final SearchStrategy filter;
+    private final Listener listener;
+    private final Map<String, ServiceMetadata> services = new ConcurrentHashMap<>();
+    private volatile long epoch, version = -1; // where the services are, -1 : none yet
+    private JsonRpcManager manager = null; // null : not connected
+    private boolean closed = false;
+
+    ServiceSubscription(SearchStrategy filter, Listener listener) {
+        this.filter = filter;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the params of "subscribeServices" : without filter the broker sends only what changed since the
+     * services the subscription has, if any
+     */
+    JsonObject params() {
+        JsonObject params = new JsonObject();
+        if (filter != null) params.add("search", filter.toJsonElement());
+        else if (version >= 0) {
+            params.addProperty("epoch", epoch);
+            params.addProperty("version", version);
+        }
+        return params;
+    }
+
+    /**
+     * Called with the result of "subscribeServices" : the notifications are read from now on
+     * @return false if the subscription has been closed meanwhile
+     */
+    synchronized boolean start(JsonRpcManager manager, JsonObject result) {
+        if (closed) return false;
+        apply(result);
+        this.manager = manager;
+        manager.listen(this);
+        return true;
+    }
+
+    @Override
+    public void onMessage(JsonRpcMessage msg) {
+        if (msg instanceof JsonRpcRequest && ((JsonRpcRequest) msg).getMethod().equals("servicesChanged"))
+            apply(((JsonRpcRequest) msg).getParams().getAsJsonObject());
+        else
+            Logger.error("ServiceSubscription: the broker sent something else than a servicesChanged notification");
+    }
+
+    /**
+     * The connection is lost, e.g. the broker went down : the services are kept until the subscription is made
+     * again, see Node.resubscribe
+     */
+    @Override
+    public synchronized void onError(Throwable e) {
+        if (manager == null) return;
+        Logger.error("ServiceSubscription: connection to the broker lost (" + e.getMessage() + ")");
+        manager.close();
+        manager = null;
+    }
+
+    private void apply(JsonObject result) {
+        apply(services, version >= 0 ? epoch : -1, result, listener);
+        epoch = result.get("epoch").getAsLong();
+        version = result.get("version").getAsLong();
+    }
+
+    /**
+     * Applies to services a result of "getServicesListSince" or the params of a "servicesChanged" notification :
+     * either the changes, or every service. Every service of another epoch (the broker restarted) replaces the one
+     * services has, even with the same provider id.
+     * @param services : the services by the id of their provider
+     * @param epoch    : the epoch of services, -1 if it is empty
+     * @param listener : told of each service registered or deleted, null if none
+     */
+    static void apply(Map<String, ServiceMetadata> services, long epoch, JsonObject result, Listener listener) {
+        boolean all = result.has("services"); // else only the changes
+        boolean sameEpoch = result.get("epoch").getAsLong() == epoch;
+        Map<String, ServiceMetadata> left = all ? new HashMap<>(services) : Collections.emptyMap();
+        for (JsonElement element : result.getAsJsonArray(all ? "services" : "changes")) {
+            JsonObject change = element.getAsJsonObject();
+            String provider = change.get("provider").getAsString();
+            if (change.has("service")) {
+                ServiceMetadata service = ServiceMetadata.fromJson(change.getAsJsonObject("service"));
+                // a service does not change once registered, in the same registry
+                if (all && left.remove(provider) != null && sameEpoch) continue;
+                services.put(provider, service);
+                if (listener != null) listener.changed(provider, service);
+            } else if (services.remove(provider) != null && listener != null) listener.changed(provider, null);
+        }
+        for (String provider : left.keySet()) { // deleted while every service was sent again
+            services.remove(provider);
+            if (listener != null) listener.changed(provider, null);
+        }
+    }
+
+    /**
+     * @return the services, by the id of their provider : the map is kept up to date and cannot be modified
+     */
+    public Map<String, ServiceMetadata> getServices() {
+        return Collections.unmodifiableMap(services);
+    }
+
+    /**
+     * @return the filter of the services, null for every service
+     */
+    public SearchStrategy getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return true if the changes are pushed by the broker, false if the connection has been lost or closed
+     */
+    public synchronized boolean isOpen() {
+        return manager != null;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Unsubscribes : the connection is closed and the services are not kept up to date anymore
+     */
+    public synchronized void close() {
+        closed = true;
+        if (manager == null) return;
+        manager.stopListening();
+        manager.close();
+        manager = null;
+    }
+}
@@ -0,0 +1,54 @@
+package searchstrategy;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import service.ServiceMetadata;
+
+/**
+ * The services activated from a date and before another one. The dates are in the format of
+ * ServiceMetadata.getActivationDate, "yyyy-MM-dd HH:mm:ss", and compared as strings : a prefix is a date too,
+ * e.g. from "2018-05-01" to "2018-05-02" is the whole day of May 1st.
+ */
+public class ActivationDateSearchStrategy extends SearchStrategy {
+    private String from;
+    private String to;
+
+    /**
+     * @param from : the first date, null for no bound
+     * @param to   : the date after the last one, null for no bound
+     */
+    public ActivationDateSearchStrategy(String from, String to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    boolean filter(ServiceMetadata service) {
+        String date = service.getActivationDate();
+        return date != null && (from == null || date.compareTo(from) >= 0) && (to == null || date.compareTo(to) < 0);
+    }
+
+    @Override
+    SlotBitmap slots(ServiceIndex index) {
+        return index.getActivationSlots(from, to);
+    }
+
+    @Override
+    int estimate(ServiceIndex index) {
+        return index.estimateActivationSlots(from, to);
+    }
+
+    @Override
+    boolean exact() {
+        return true;
+    }
+
+    @Override
+    public JsonElement toJsonElement() {
+        JsonObject j = new JsonObject();
+        j.addProperty("type", "ActivationDateSearchStrategy");
+        if (from != null) j.addProperty("from", from);
+        if (to != null) j.addProperty("to", to);
+        return j;
+    }
+}
@@ -0,0 +1,126 @@
+package searchstrategy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import service.ServiceMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The services that satisfy every one of some strategies.
+ * <p>
+ * A search is planned from the estimates of the strategies : their slots are intersected from the most selective
+ * one, and once few services are left the strategies whose slots would cost more to find than to check those
+ * services are only checked, as well as those that cannot use the index. A NotSearchStrategy removes its
+ * slots from those found so far. The search stops as soon as no slot is left.
+ */
+public class AndSearchStrategy extends SearchStrategy {
+    // a strategy expected to give more than this times the slots found so far is checked on their services instead
+    private static final int CHECK_RATIO = 8;
+
+    private final List<SearchStrategy> strategies = new ArrayList<>();
+
+    public AndSearchStrategy(List<SearchStrategy> strategies) {
+        this.strategies.addAll(strategies);
+    }
+
+    public AndSearchStrategy(SearchStrategy... strategies) {
+        this(Arrays.asList(strategies));
+    }
+
+    @Override
+    boolean filter(ServiceMetadata service) {
+        return matches(strategies, service);
+    }
+
+    private static boolean matches(List<SearchStrategy> strategies, ServiceMetadata service) {
+        for (SearchStrategy s : strategies)
+            if (!s.filter(service)) return false;
+        return true;
+    }
+
+    @Override
+    int visit(ServiceIndex index, int first, Visitor visitor) {
+        Plan plan = plan(index, true);
+        return visit(index, plan.slots, s -> matches(plan.order, s), first, visitor);
+    }
+
+    /**
+     * Every strategy that can use the index is used : the slots are exact when they all are
+     */
+    @Override
+    SlotBitmap slots(ServiceIndex index) {
+        return plan(index, false).slots;
+    }
+
+    @Override
+    int estimate(ServiceIndex index) {
+        int min = index.size();
+        for (SearchStrategy s : strategies) min = Math.min(min, s.estimate(index));
+        return min;
+    }
+
+    @Override
+    boolean exact() {
+        for (SearchStrategy s : strategies)
+            if (!s.exact()) return false;
+        return true;
+    }
+
+    private static class Plan {
+        SlotBitmap slots; //null if no strategy used the index
+        final List<SearchStrategy> order = new ArrayList<>(); //to check the services found with
+    }
+
+    /**
+     * @param check : if true the strategies that would give many more slots than those found so far are left to
+     *              be checked
+     */
+    private Plan plan(ServiceIndex index, boolean check) {
+        int[] estimates = new int[strategies.size()];
+        List<Integer> byEstimate = new ArrayList<>(strategies.size());
+        for (int i = 0; i < strategies.size(); i++) {
+            estimates[i] = strategies.get(i).estimate(index);
+            byEstimate.add(i);
+        }
+        byEstimate.sort((a, b) -> Integer.compare(estimates[a], estimates[b]));
+
+        Plan plan = new Plan();
+        List<SearchStrategy> used = new ArrayList<>();
+        for (int i : byEstimate) {
+            SearchStrategy s = strategies.get(i);
+            if (plan.slots != null && plan.slots.isEmpty()) break;
+            if (plan.slots != null && check && estimates[i] > CHECK_RATIO * (long) plan.slots.cardinality()) {
+                plan.order.add(s);
+                continue;
+            }
+            if (plan.slots != null && s instanceof NotSearchStrategy && s.exact()) {
+                SlotBitmap excluded = ((NotSearchStrategy) s).strategy.slots(index);
+                plan.slots = excluded != null ? plan.slots.andNot(excluded) : SlotBitmap.EMPTY;
+                used.add(s);
+                continue;
+            }
+            SlotBitmap b = s.slots(index);
+            if (b == null) plan.order.add(s);
+            else {
+                plan.slots = plan.slots != null ? plan.slots.and(b) : b;
+                used.add(s);
+            }
+        }
+        plan.order.addAll(used); //checked last : they fail only on a slot given again meanwhile or a trigram match
+        return plan;
+    }
+
+    @Override
+    public JsonElement toJsonElement() {
+        JsonArray ja = new JsonArray();
+        for (SearchStrategy s : strategies) ja.add(s.toJsonElement());
+        JsonObject j = new JsonObject();
+        j.addProperty("type", "AndSearchStrategy");
+        j.add("strategies", ja);
+        return j;
+    }
+}
@@ -0,0 +1,41 @@
+package searchstrategy;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import service.ServiceMetadata;
+
+public class ApplicationFieldSearchStrategy extends SearchStrategy {
+    private String applicationField;
+
+    public ApplicationFieldSearchStrategy(String applicationField) {
+        this.applicationField = applicationField;
+    }
+
+    @Override
+    boolean filter(ServiceMetadata service) {
+        return applicationField.equals(service.getApplicationField());
+    }
+
+    @Override
+    SlotBitmap slots(ServiceIndex index) {
+        return index.getApplicationFieldSlots(applicationField);
+    }
+
+    @Override
+    int estimate(ServiceIndex index) {
+        return index.getApplicationFieldSlots(applicationField).cardinality();
+    }
+
+    @Override
+    boolean exact() {
+        return true;
+    }
+
+    @Override
+    public JsonElement toJsonElement() {
+        JsonObject j = new JsonObject();
+        j.addProperty("type", "ApplicationFieldSearchStrategy");
+        j.addProperty("applicationField", applicationField);
+        return j;
+    }
+}
@@ -0,0 +1,66 @@
+package searchstrategy;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The slots of the services having each keyword. A keyword is given a number the first time it is seen, and the
+ * slots of a keyword are a SlotBitmap found by that number : a query with many keywords is a few operations on
+ * bitmaps. A bitmap is replaced by its next version with a compare and set, the queries read it without a lock.
+ * <p>
+ * It works as well for any other field with few distinct values, e.g. the application field.
+ */
+public class KeywordIndex {
+
+    private final Map<String, Integer> dictionary = new ConcurrentHashMap<>();
+    private final List<AtomicReference<SlotBitmap>> bitmaps = new CopyOnWriteArrayList<>(); //by keyword number
+
+    public void add(int slot, Collection<String> keywords) {
+        for (String keyword : keywords) {
+            AtomicReference<SlotBitmap> bitmap = bitmaps.get(number(keyword));
+            SlotBitmap current;
+            do current = bitmap.get(); while (!bitmap.compareAndSet(current, current.with(slot)));
+        }
+    }
+
+    /**
+     * @param keywords : those slot was added with
+     */
+    public void remove(int slot, Collection<String> keywords) {
+        for (String keyword : keywords) {
+            Integer number = dictionary.get(keyword);
+            if (number == null) continue;
+            AtomicReference<SlotBitmap> bitmap = bitmaps.get(number);
+            SlotBitmap current;
+            do current = bitmap.get(); while (!bitmap.compareAndSet(current, current.without(slot)));
+        }
+    }
+
+    /**
+     * @return the slots with keyword
+     */
+    public SlotBitmap get(String keyword) {
+        Integer number = dictionary.get(keyword);
+        return number != null ? bitmaps.get(number).get() : SlotBitmap.EMPTY;
+    }
+
+    /**
+     * @return how many different keywords have been seen
+     */
+    public int size() {
+        return dictionary.size();
+    }
+
+    private int number(String keyword) {
+        return dictionary.computeIfAbsent(keyword, k -> {
+            synchronized (bitmaps) {
+                bitmaps.add(new AtomicReference<>(SlotBitmap.EMPTY));
+                return bitmaps.size() - 1;
+            }
+        });
+    }
+}
@@ -5,10 +5,12 @@ import com.google.gson.JsonElement;
 import service.ServiceMetadata;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 public class KeywordSearchStrategy extends SearchStrategy {
     private List<String> keywords=new ArrayList<>();
+    private boolean matchAll=false;
 
     public KeywordSearchStrategy(String keyword){
         this.keywords.add(keyword);
@@ -17,19 +19,72 @@ public class KeywordSearchStrategy extends SearchStrategy {
         this.keywords.addAll(keywords);
     }
 
+    /**
+     * @param matchAll : if true a service must have every keyword, otherwise one of them is enough
+     */
+    public KeywordSearchStrategy(List<String> keywords, boolean matchAll){
+        this.keywords.addAll(keywords);
+        this.matchAll = matchAll;
+    }
+
     @Override
     boolean filter(ServiceMetadata service) {
         for(String k:keywords) {
-            if (service.getKeywords().contains(k)) return true;
+            boolean has = service.getKeywords().contains(k);
+            if (has && !matchAll) return true;
+            if (!has && matchAll) return false;
+        }
+        return matchAll && !keywords.isEmpty();
+    }
+
+    /**
+     * The bitmaps of the keywords are joined, or intersected from the smallest one with matchAll
+     */
+    @Override
+    SlotBitmap slots(ServiceIndex index) {
+        List<SlotBitmap> bitmaps = bitmaps(index);
+        if (bitmaps.isEmpty()) return SlotBitmap.EMPTY;
+
+        SlotBitmap slots = bitmaps.get(0);
+        for (int i = 1; i < bitmaps.size(); i++) {
+            if (matchAll && slots.isEmpty()) break;
+            slots = matchAll ? slots.and(bitmaps.get(i)) : slots.or(bitmaps.get(i));
         }
-        return false;
+        return slots;
+    }
+
+    @Override
+    int estimate(ServiceIndex index) {
+        List<SlotBitmap> bitmaps = bitmaps(index);
+        if (bitmaps.isEmpty()) return 0;
+        if (matchAll) return bitmaps.get(0).cardinality();
+        long sum = 0;
+        for (SlotBitmap b : bitmaps) sum += b.cardinality();
+        return (int) Math.min(sum, index.size());
+    }
+
+    @Override
+    boolean exact() {
+        return true;
+    }
+
+    /**
+     * @return the bitmaps of the keywords, the smallest first
+     */
+    private List<SlotBitmap> bitmaps(ServiceIndex index) {
+        List<SlotBitmap> bitmaps = new ArrayList<>(keywords.size());
+        for (String k : keywords) bitmaps.add(index.getKeywordSlots(k));
+        bitmaps.sort(Comparator.comparingInt(SlotBitmap::cardinality));
+        return bitmaps;
     }
 
     @Override
     public JsonElement toJsonElement(){
         String s="{\"type\":\"KeywordSearchStrategy\",\"keywords\":[ ";
         for(String k:keywords)s+="\""+k+"\",";
-        s=s.substring(0,s.length()-1)+"]}";
+        s=s.substring(0,s.length()-1)+"]";
+        if(matchAll)s+=",\"match\":\"all\"";
+        s+="}";
         return (new Gson()).fromJson(s,JsonElement.class);
     }
 }
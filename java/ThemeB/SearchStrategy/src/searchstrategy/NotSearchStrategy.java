@@ -0,0 +1,47 @@
+package searchstrategy;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import service.ServiceMetadata;
+
+/**
+ * The services that do not satisfy a strategy. The index is used only if the strategy finds exactly its
+ * services, e.g. a KeywordSearchStrategy : the services found are every service but those.
+ */
+public class NotSearchStrategy extends SearchStrategy {
+    final SearchStrategy strategy;
+
+    public NotSearchStrategy(SearchStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    @Override
+    boolean filter(ServiceMetadata service) {
+        return !strategy.filter(service);
+    }
+
+    @Override
+    SlotBitmap slots(ServiceIndex index) {
+        if (!strategy.exact()) return null;
+        SlotBitmap excluded = strategy.slots(index);
+        return excluded != null ? index.getAllSlots().andNot(excluded) : SlotBitmap.EMPTY;
+    }
+
+    @Override
+    int estimate(ServiceIndex index) {
+        return strategy.exact() ? Math.max(0, index.size() - strategy.estimate(index)) : index.size();
+    }
+
+    @Override
+    boolean exact() {
+        return strategy.exact();
+    }
+
+    @Override
+    public JsonElement toJsonElement() {
+        JsonObject j = new JsonObject();
+        j.addProperty("type", "NotSearchStrategy");
+        j.add("strategy", strategy.toJsonElement());
+        return j;
+    }
+}
@@ -0,0 +1,77 @@
+package searchstrategy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import service.ServiceMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The services that satisfy at least one of some strategies. The index is used only if every strategy can use
+ * it : the strategies that cannot tell are likely those with the biggest estimate, so they are asked first and the
+ * others are not looked at if one of them cannot.
+ */
+public class OrSearchStrategy extends SearchStrategy {
+    private final List<SearchStrategy> strategies = new ArrayList<>();
+
+    public OrSearchStrategy(List<SearchStrategy> strategies) {
+        this.strategies.addAll(strategies);
+    }
+
+    public OrSearchStrategy(SearchStrategy... strategies) {
+        this(Arrays.asList(strategies));
+    }
+
+    @Override
+    boolean filter(ServiceMetadata service) {
+        for (SearchStrategy s : strategies)
+            if (s.filter(service)) return true;
+        return false;
+    }
+
+    @Override
+    SlotBitmap slots(ServiceIndex index) {
+        int[] estimates = new int[strategies.size()];
+        List<Integer> byEstimate = new ArrayList<>(strategies.size());
+        for (int i = 0; i < strategies.size(); i++) {
+            estimates[i] = strategies.get(i).estimate(index);
+            byEstimate.add(i);
+        }
+        byEstimate.sort((a, b) -> Integer.compare(estimates[b], estimates[a]));
+
+        SlotBitmap slots = SlotBitmap.EMPTY;
+        for (int i : byEstimate) {
+            SlotBitmap b = strategies.get(i).slots(index);
+            if (b == null) return null;
+            slots = slots.or(b);
+        }
+        return slots;
+    }
+
+    @Override
+    int estimate(ServiceIndex index) {
+        long sum = 0;
+        for (SearchStrategy s : strategies) sum += s.estimate(index);
+        return (int) Math.min(sum, index.size());
+    }
+
+    @Override
+    boolean exact() {
+        for (SearchStrategy s : strategies)
+            if (!s.exact()) return false;
+        return true;
+    }
+
+    @Override
+    public JsonElement toJsonElement() {
+        JsonArray ja = new JsonArray();
+        for (SearchStrategy s : strategies) ja.add(s.toJsonElement());
+        JsonObject j = new JsonObject();
+        j.addProperty("type", "OrSearchStrategy");
+        j.add("strategies", ja);
+        return j;
+    }
+}
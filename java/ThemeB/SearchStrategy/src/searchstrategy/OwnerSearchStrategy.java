@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import service.ServiceMetadata;
 
+
 public class OwnerSearchStrategy extends SearchStrategy {
     private String owner;
 
@@ -16,6 +17,19 @@ public class OwnerSearchStrategy extends SearchStrategy {
         return service.getOwner().contains(owner);
     }
 
+    /**
+     * Only the services with every trigram of owner are looked at
+     */
+    @Override
+    SlotBitmap slots(ServiceIndex index) {
+        return index.getOwnerSlots(owner);
+    }
+
+    @Override
+    int estimate(ServiceIndex index) {
+        return index.estimateOwnerSlots(owner);
+    }
+
     @Override
     public JsonElement toJsonElement() {
         return (new Gson()).fromJson("{\"type\":\"OwnerSearchStrategy\",\"owner\":" + owner + "}", JsonElement.class);
@@ -0,0 +1,59 @@
+package searchstrategy;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The slots of the services by an ordered value, e.g. the activation date : a sorted map from each value to the
+ * SlotBitmap of the services having it, so that the slots with a value in a range are the union of a sub map.
+ * The bitmaps are replaced by their next version, the queries read them without a lock.
+ */
+public class RangeIndex {
+
+    private final ConcurrentSkipListMap<String, SlotBitmap> bitmaps = new ConcurrentSkipListMap<>();
+
+    public void add(int slot, String value) {
+        if (value == null) return;
+        bitmaps.compute(value, (v, b) -> (b != null ? b : SlotBitmap.EMPTY).with(slot));
+    }
+
+    /**
+     * @param value : the one slot was added with
+     */
+    public void remove(int slot, String value) {
+        if (value == null) return;
+        bitmaps.computeIfPresent(value, (v, b) -> {
+            SlotBitmap left = b.without(slot);
+            return left.isEmpty() ? null : left;
+        });
+    }
+
+    /**
+     * @param from : the first value, null for no bound
+     * @param to   : the value after the last one, null for no bound
+     * @return the slots with a value in [from, to)
+     */
+    public SlotBitmap get(String from, String to) {
+        SlotBitmap slots = SlotBitmap.EMPTY;
+        for (SlotBitmap b : range(from, to).values()) slots = slots.or(b);
+        return slots;
+    }
+
+    /**
+     * @return how many slots get(from, to) has, counted without joining the bitmaps
+     */
+    public int count(String from, String to) {
+        int count = 0;
+        for (SlotBitmap b : range(from, to).values()) count += b.cardinality();
+        return count;
+    }
+
+    private Map<String, SlotBitmap> range(String from, String to) {
+        if (from != null && to != null && from.compareTo(to) >= 0) return new ConcurrentSkipListMap<>();
+        NavigableMap<String, SlotBitmap> range = bitmaps;
+        if (from != null) range = range.tailMap(from, true);
+        if (to != null) range = range.headMap(to, false);
+        return range;
+    }
+}
@@ -7,7 +7,10 @@ import com.google.gson.JsonObject;
 import service.ServiceMetadata;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
 
 
 public abstract class SearchStrategy {
@@ -18,11 +21,133 @@ public abstract class SearchStrategy {
             if (filter(s)) result.add(s);
         return result;
     }
+
+    /**
+     * @return true if service satisfies the filter, e.g. to tell whether a service that registers is one of those
+     * searched
+     */
+    public boolean matches(ServiceMetadata service) {
+        return filter(service);
+    }
+
+    /**
+     * @return the services of index that satisfy the filter : the strategies that can use an index of index look
+     * only at the services it gives
+     */
+    public List<ServiceMetadata> search(ServiceIndex index) {
+        List<ServiceMetadata> found = new ArrayList<>();
+        visit(index, 0, (slot, service) -> found.add(service));
+        return found;
+    }
+
+    /**
+     * @param first : the slot to start from, 0 or the next slot of the previous page
+     * @param limit : at most how many services the page has
+     * @return the services of index that satisfy the filter from slot first on, in the order of their slots
+     */
+    public ServicePage search(ServiceIndex index, int first, int limit) {
+        List<ServiceMetadata> found = new ArrayList<>(Math.min(limit, 1024));
+        int next = visit(index, first, (slot, service) -> found.size() < limit && found.add(service));
+        return new ServicePage(found, next);
+    }
+
+    /**
+     * The services are kept in a heap of at most k of them while they are found
+     *
+     * @return the first k services of index that satisfy the filter, sorted by order
+     */
+    public List<ServiceMetadata> top(ServiceIndex index, int k, Comparator<ServiceMetadata> order) {
+        if (k <= 0) return new ArrayList<>();
+        PriorityQueue<ServiceMetadata> heap = new PriorityQueue<>(k + 1, order.reversed()); //the last one on top
+        visit(index, 0, (slot, service) -> {
+            heap.add(service);
+            if (heap.size() > k) heap.poll();
+            return true;
+        });
+        List<ServiceMetadata> found = new ArrayList<>(heap);
+        found.sort(order);
+        return found;
+    }
+
+    /**
+     * Gets the services found one at a time
+     */
+    interface Visitor {
+        /**
+         * @return false to stop at this service
+         */
+        boolean visit(int slot, ServiceMetadata service);
+    }
+
+    /**
+     * Gives visitor the services of index that satisfy the filter from slot first on, in the order of their slots
+     *
+     * @return the slot of the service visitor stopped at, -1 if it was given them all
+     */
+    int visit(ServiceIndex index, int first, Visitor visitor) {
+        return visit(index, slots(index), this::filter, first, visitor);
+    }
+
+    /**
+     * @param slots : the slots to look at, null for all of them
+     */
+    static int visit(ServiceIndex index, SlotBitmap slots, Predicate<ServiceMetadata> filter, int first,
+                     Visitor visitor) {
+        if (slots != null) return slots.forEach(first, slot -> {
+            ServiceMetadata service = index.getService(slot);
+            return service == null || !filter.test(service) || visitor.visit(slot, service);
+        });
+        for (int slot = Math.max(first, 0), end = index.getSlotCount(); slot < end; slot++) {
+            ServiceMetadata service = index.getService(slot);
+            if (service != null && filter.test(service) && !visitor.visit(slot, service)) return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the slots of the services of index that may satisfy the filter, found with its indexes, null if they
+     * cannot tell : every service may. A slot may have been given to another service meanwhile, so the services
+     * found are still filtered.
+     */
+    SlotBitmap slots(ServiceIndex index) {
+        return null;
+    }
+
+    /**
+     * @return about how many slots slots(index) gives, found without computing them, to choose the order in which
+     * the strategies of a composite one use the indexes
+     */
+    int estimate(ServiceIndex index) {
+        return index.size();
+    }
+
+    /**
+     * @return true if slots(index) gives only services that satisfy the filter, so that a NotSearchStrategy can
+     * take the other slots
+     */
+    boolean exact() {
+        return false;
+    }
+
     abstract  boolean filter(ServiceMetadata service);
     abstract public JsonElement toJsonElement();
 
+    /**
+     * @return the strategy, null if its type (or the type of one of its members) is unknown
+     * @throws IllegalArgumentException if str is not a well-formed strategy, e.g. an AndSearchStrategy without
+     * strategies
+     */
     static public SearchStrategy fromJson(String str){
-        JsonObject j=(new Gson()).fromJson(str,JsonObject.class);
+        try {
+            return fromJson((new Gson()).fromJson(str,JsonObject.class));
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) { //e.g. a missing field, or a number where an object should be
+            throw new IllegalArgumentException("SearchStrategy : ill-formed strategy", e);
+        }
+    }
+
+    static private SearchStrategy fromJson(JsonObject j){
         switch (j.get("type").getAsString()){
             case "TitleSearchStrategy":
                 return new TitleSearchStrategy(j.get("method").getAsString());
@@ -32,7 +157,28 @@ public abstract class SearchStrategy {
                 List<String> keywords=new ArrayList<>();
                 JsonArray ja=j.get("keywords").getAsJsonArray();
                 for(JsonElement k:ja)keywords.add(k.getAsString());
-                return new KeywordSearchStrategy(keywords);
+                boolean matchAll=j.has("match") && j.get("match").getAsString().equals("all");
+                return new KeywordSearchStrategy(keywords, matchAll);
+            }
+            case "ApplicationFieldSearchStrategy":
+                return new ApplicationFieldSearchStrategy(j.get("applicationField").getAsString());
+            case "ActivationDateSearchStrategy":
+                return new ActivationDateSearchStrategy(j.has("from") ? j.get("from").getAsString() : null,
+                        j.has("to") ? j.get("to").getAsString() : null);
+            case "AndSearchStrategy":
+            case "OrSearchStrategy":{
+                List<SearchStrategy> strategies=new ArrayList<>();
+                for(JsonElement e:j.get("strategies").getAsJsonArray()){
+                    SearchStrategy s=fromJson(e.getAsJsonObject());
+                    if(s==null)return null;
+                    strategies.add(s);
+                }
+                if(j.get("type").getAsString().equals("AndSearchStrategy"))return new AndSearchStrategy(strategies);
+                return new OrSearchStrategy(strategies);
+            }
+            case "NotSearchStrategy":{
+                SearchStrategy s=fromJson(j.get("strategy").getAsJsonObject());
+                return s!=null ? new NotSearchStrategy(s) : null;
             }
 
         }
@@ -50,6 +196,11 @@ public abstract class SearchStrategy {
         if(!(s instanceof OwnerSearchStrategy))ok=false;
         s=SearchStrategy.fromJson((new KeywordSearchStrategy("math")).toJsonElement().toString());
         if(!(s instanceof KeywordSearchStrategy))ok=false;
+        s=SearchStrategy.fromJson((new AndSearchStrategy(new KeywordSearchStrategy("math"),
+                new NotSearchStrategy(new ApplicationFieldSearchStrategy("Math")),
+                new OrSearchStrategy(new OwnerSearchStrategy("me"),
+                        new ActivationDateSearchStrategy("2018-01-01", null)))).toJsonElement().toString());
+        if(!(s instanceof AndSearchStrategy))ok=false;
 
         if(ok)System.out.println("SearchStrategy...ok!");
         else System.out.println("ERROR SearchStrategy create() method is broken");
@@ -0,0 +1,81 @@
+package searchstrategy;
+
+import service.ServiceMetadata;
+
+import java.util.List;
+
+/**
+ * A set of services with indexes a SearchStrategy can use instead of looking at every service, e.g. the registry
+ * of the broker. Each service is in a numbered slot, and the indexes give the slots of the services.
+ */
+public interface ServiceIndex {
+
+    /**
+     * @return how many services there are
+     */
+    int size();
+
+    /**
+     * @return every service
+     */
+    List<ServiceMetadata> getAll();
+
+    /**
+     * @return the slots of every service
+     */
+    SlotBitmap getAllSlots();
+
+    /**
+     * @return the slots of the services whose method may contain text, null if the index cannot tell : every
+     * service may
+     */
+    SlotBitmap getMethodSlots(String text);
+
+    /**
+     * @return at least as many as getMethodSlots(text) has, without finding them, size() if the index cannot tell
+     */
+    int estimateMethodSlots(String text);
+
+    /**
+     * @return the slots of the services whose owner may contain text, null if the index cannot tell : every
+     * service may
+     */
+    SlotBitmap getOwnerSlots(String text);
+
+    /**
+     * @return at least as many as getOwnerSlots(text) has, without finding them, size() if the index cannot tell
+     */
+    int estimateOwnerSlots(String text);
+
+    /**
+     * @return the slots of the services having keyword
+     */
+    SlotBitmap getKeywordSlots(String keyword);
+
+    /**
+     * @return the slots of the services of applicationField
+     */
+    SlotBitmap getApplicationFieldSlots(String applicationField);
+
+    /**
+     * @param from : the first activation date, null for no bound
+     * @param to   : the activation date after the last one, null for no bound
+     * @return the slots of the services activated in [from, to)
+     */
+    SlotBitmap getActivationSlots(String from, String to);
+
+    /**
+     * @return how many services were activated in [from, to), without finding them
+     */
+    int estimateActivationSlots(String from, String to);
+
+    /**
+     * @return the service at slot, null if the slot is free
+     */
+    ServiceMetadata getService(int slot);
+
+    /**
+     * @return how many slots there are, free or not : every slot is below
+     */
+    int getSlotCount();
+}
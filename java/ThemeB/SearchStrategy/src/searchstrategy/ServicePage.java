@@ -0,0 +1,29 @@
+package searchstrategy;
+
+import service.ServiceMetadata;
+
+import java.util.List;
+
+/**
+ * A page of the services found by a SearchStrategy, and where the next page starts
+ */
+public class ServicePage {
+    private final List<ServiceMetadata> services;
+    private final int next;
+
+    ServicePage(List<ServiceMetadata> services, int next) {
+        this.services = services;
+        this.next = next;
+    }
+
+    public List<ServiceMetadata> getServices() {
+        return services;
+    }
+
+    /**
+     * @return the slot the next page starts from, -1 if this page is the last one
+     */
+    public int getNext() {
+        return next;
+    }
+}
@@ -0,0 +1,459 @@
+package searchstrategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable set of slots (ints from 0), compressed as a Roaring bitmap : the slots are grouped by their high
+ * 16 bits, and each group is kept as a sorted array of its low 16 bits while it has at most 4096 of them, as a
+ * bitmap of 1024 longs otherwise. An array never takes more than a bitmap, and the set operations work a group at
+ * a time, on the words of the bitmaps or by merging the arrays.
+ * <p>
+ * with and without give a new bitmap that shares every group but one with this one : an index can replace a
+ * bitmap by its next version while queries read the previous one.
+ */
+public final class SlotBitmap {
+
+    public static final SlotBitmap EMPTY = new SlotBitmap(new char[0], new Object[0], new int[0]);
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private final char[] keys; //the high 16 bits of the groups, sorted
+    private final Object[] containers; //a char[] of low 16 bits, sorted, or a long[WORDS] bitmap
+    private final int[] cardinalities;
+    private final int cardinality;
+
+    private SlotBitmap(char[] keys, Object[] containers, int[] cardinalities) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinalities = cardinalities;
+        int total = 0;
+        for (int c : cardinalities) total += c;
+        this.cardinality = total;
+    }
+
+    /**
+     * @param slots : in any order, repeated or not
+     */
+    public static SlotBitmap of(int... slots) {
+        int[] sorted = slots.clone();
+        Arrays.sort(sorted);
+        Builder builder = new Builder();
+        int i = 0;
+        while (i < sorted.length) {
+            int high = sorted[i] >>> 16;
+            char[] lows = new char[ARRAY_MAX];
+            int n = 0;
+            long[] words = null;
+            for (; i < sorted.length && sorted[i] >>> 16 == high; i++) {
+                char low = (char) sorted[i];
+                if (words != null) words[low >>> 6] |= 1L << low;
+                else if (n > 0 && lows[n - 1] == low) continue;
+                else if (n < ARRAY_MAX) lows[n++] = low;
+                else {
+                    words = toBitmap(lows);
+                    words[low >>> 6] |= 1L << low;
+                }
+            }
+            builder.add((char) high, words != null ? words : Arrays.copyOf(lows, n));
+        }
+        return builder.build();
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public boolean contains(int slot) {
+        int i = Arrays.binarySearch(keys, (char) (slot >>> 16));
+        return i >= 0 && contains(containers[i], (char) slot);
+    }
+
+    /**
+     * @return this bitmap and slot
+     */
+    public SlotBitmap with(int slot) {
+        char high = (char) (slot >>> 16), low = (char) slot;
+        int i = Arrays.binarySearch(keys, high);
+        if (i < 0) {
+            i = -i - 1;
+            return new SlotBitmap(insert(keys, i, high), insert(containers, i, new char[]{low}),
+                    insert(cardinalities, i, 1));
+        }
+        Object container = containers[i];
+        if (contains(container, low)) return this;
+        Object[] newContainers = containers.clone();
+        int[] newCardinalities = cardinalities.clone();
+        if (container instanceof char[]) {
+            char[] lows = (char[]) container;
+            if (lows.length < ARRAY_MAX) {
+                newContainers[i] = insert(lows, -Arrays.binarySearch(lows, low) - 1, low);
+            } else {
+                long[] words = toBitmap(lows);
+                words[low >>> 6] |= 1L << low;
+                newContainers[i] = words;
+            }
+        } else {
+            long[] words = ((long[]) container).clone();
+            words[low >>> 6] |= 1L << low;
+            newContainers[i] = words;
+        }
+        newCardinalities[i]++;
+        return new SlotBitmap(keys, newContainers, newCardinalities);
+    }
+
+    /**
+     * @return this bitmap without slot
+     */
+    public SlotBitmap without(int slot) {
+        char high = (char) (slot >>> 16), low = (char) slot;
+        int i = Arrays.binarySearch(keys, high);
+        if (i < 0 || !contains(containers[i], low)) return this;
+        if (cardinalities[i] == 1)
+            return new SlotBitmap(delete(keys, i), delete(containers, i), delete(cardinalities, i));
+        Object[] newContainers = containers.clone();
+        int[] newCardinalities = cardinalities.clone();
+        Object container = containers[i];
+        if (container instanceof char[]) {
+            char[] lows = (char[]) container;
+            newContainers[i] = delete(lows, Arrays.binarySearch(lows, low));
+        } else {
+            long[] words = ((long[]) container).clone();
+            words[low >>> 6] &= ~(1L << low);
+            newContainers[i] = cardinalities[i] - 1 <= ARRAY_MAX ? toArray(words) : words;
+        }
+        newCardinalities[i]--;
+        return new SlotBitmap(keys, newContainers, newCardinalities);
+    }
+
+    /**
+     * @return the slots in this bitmap and in other
+     */
+    public SlotBitmap and(SlotBitmap other) {
+        Builder builder = new Builder();
+        int i = 0, j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (keys[i] > other.keys[j]) j++;
+            else {
+                builder.add(keys[i], and(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the slots in this bitmap or in other
+     */
+    public SlotBitmap or(SlotBitmap other) {
+        Builder builder = new Builder();
+        int i = 0, j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                builder.add(keys[i], containers[i]);
+                i++;
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                builder.add(other.keys[j], other.containers[j]);
+                j++;
+            } else {
+                builder.add(keys[i], or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the slots in this bitmap and not in other
+     */
+    public SlotBitmap andNot(SlotBitmap other) {
+        Builder builder = new Builder();
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            while (j < other.keys.length && other.keys[j] < keys[i]) j++;
+            if (j < other.keys.length && other.keys[j] == keys[i])
+                builder.add(keys[i], andNot(containers[i], other.containers[j]));
+            else builder.add(keys[i], containers[i]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the slots in increasing order
+     */
+    public int[] toArray() {
+        int[] slots = new int[cardinality];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            int high = keys[i] << 16;
+            if (containers[i] instanceof char[]) {
+                for (char low : (char[]) containers[i]) slots[n++] = high | low;
+            } else {
+                long[] words = (long[]) containers[i];
+                for (int w = 0; w < WORDS; w++) {
+                    for (long word = words[w]; word != 0; word &= word - 1)
+                        slots[n++] = high | w << 6 | Long.numberOfTrailingZeros(word);
+                }
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * @return the first slot from slot on, -1 if there is none
+     */
+    public int next(int slot) {
+        if (slot < 0) slot = 0;
+        int i = Arrays.binarySearch(keys, (char) (slot >>> 16));
+        char low = (char) slot;
+        if (i < 0) {
+            i = -i - 1;
+            low = 0;
+        }
+        for (; i < keys.length; i++, low = 0) {
+            int found = next(containers[i], low);
+            if (found >= 0) return keys[i] << 16 | found;
+        }
+        return -1;
+    }
+
+    /**
+     * Gives action the slots from slot first on, in increasing order, until it returns false
+     *
+     * @return the slot action returned false for, -1 if it never did
+     */
+    public int forEach(int first, IntPredicate action) {
+        int start = next(first);
+        if (start < 0) return -1;
+        char low = (char) start;
+        for (int i = Arrays.binarySearch(keys, (char) (start >>> 16)); i < keys.length; i++, low = 0) {
+            int high = keys[i] << 16;
+            if (containers[i] instanceof char[]) {
+                char[] lows = (char[]) containers[i];
+                int j = Arrays.binarySearch(lows, low);
+                for (j = j < 0 ? -j - 1 : j; j < lows.length; j++)
+                    if (!action.test(high | lows[j])) return high | lows[j];
+            } else {
+                long[] words = (long[]) containers[i];
+                for (int w = low >>> 6; w < WORDS; w++) {
+                    for (long word = w == low >>> 6 ? words[w] & -1L << low : words[w]; word != 0; word &= word - 1) {
+                        int slot = high | w << 6 | Long.numberOfTrailingZeros(word);
+                        if (!action.test(slot)) return slot;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /**
+     * Makes a bitmap from groups in increasing order, dropping the empty ones and choosing the smaller form
+     * for each
+     */
+    private static class Builder {
+        private final List<Character> keys = new ArrayList<>();
+        private final List<Object> containers = new ArrayList<>();
+        private final List<Integer> cardinalities = new ArrayList<>();
+
+        void add(char key, Object container) {
+            int cardinality;
+            if (container instanceof char[]) {
+                char[] lows = (char[]) container;
+                cardinality = lows.length;
+                if (cardinality > ARRAY_MAX) container = toBitmap(lows);
+            } else {
+                long[] words = (long[]) container;
+                cardinality = 0;
+                for (long word : words) cardinality += Long.bitCount(word);
+                if (cardinality <= ARRAY_MAX) container = toArray(words);
+            }
+            if (cardinality == 0) return;
+            keys.add(key);
+            containers.add(container);
+            cardinalities.add(cardinality);
+        }
+
+        SlotBitmap build() {
+            char[] k = new char[keys.size()];
+            int[] c = new int[keys.size()];
+            for (int i = 0; i < k.length; i++) {
+                k[i] = keys.get(i);
+                c[i] = cardinalities.get(i);
+            }
+            return new SlotBitmap(k, containers.toArray(), c);
+        }
+    }
+
+    // the groups
+
+    private static boolean contains(Object container, char low) {
+        if (container instanceof char[]) return Arrays.binarySearch((char[]) container, low) >= 0;
+        return (((long[]) container)[low >>> 6] & 1L << low) != 0;
+    }
+
+    private static int next(Object container, char low) {
+        if (container instanceof char[]) {
+            char[] lows = (char[]) container;
+            int i = Arrays.binarySearch(lows, low);
+            if (i < 0) i = -i - 1;
+            return i < lows.length ? lows[i] : -1;
+        }
+        long[] words = (long[]) container;
+        int w = low >>> 6;
+        for (long word = words[w] & -1L << low; ; word = words[w]) {
+            if (word != 0) return w << 6 | Long.numberOfTrailingZeros(word);
+            if (++w == WORDS) return -1;
+        }
+    }
+
+    private static Object and(Object a, Object b) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a, y = (long[]) b, words = new long[WORDS];
+            for (int w = 0; w < WORDS; w++) words[w] = x[w] & y[w];
+            return words;
+        }
+        if (a instanceof long[]) return and(b, a);
+        char[] lows = (char[]) a, found = new char[lows.length];
+        int n = 0;
+        if (b instanceof long[]) {
+            for (char low : lows) if (contains(b, low)) found[n++] = low;
+        } else {
+            char[] other = (char[]) b;
+            for (int i = 0, j = 0; i < lows.length && j < other.length; ) {
+                if (lows[i] < other[j]) i++;
+                else if (lows[i] > other[j]) j++;
+                else {
+                    found[n++] = lows[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    private static Object or(Object a, Object b) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a, y = (long[]) b, words = new long[WORDS];
+            for (int w = 0; w < WORDS; w++) words[w] = x[w] | y[w];
+            return words;
+        }
+        if (a instanceof long[]) return or(b, a);
+        char[] lows = (char[]) a;
+        if (b instanceof long[]) {
+            long[] words = ((long[]) b).clone();
+            for (char low : lows) words[low >>> 6] |= 1L << low;
+            return words;
+        }
+        char[] other = (char[]) b, merged = new char[lows.length + other.length];
+        int i = 0, j = 0, n = 0;
+        while (i < lows.length && j < other.length) {
+            if (lows[i] < other[j]) merged[n++] = lows[i++];
+            else if (lows[i] > other[j]) merged[n++] = other[j++];
+            else {
+                merged[n++] = lows[i++];
+                j++;
+            }
+        }
+        while (i < lows.length) merged[n++] = lows[i++];
+        while (j < other.length) merged[n++] = other[j++];
+        return Arrays.copyOf(merged, n);
+    }
+
+    private static Object andNot(Object a, Object b) {
+        if (a instanceof long[]) {
+            long[] words = ((long[]) a).clone();
+            if (b instanceof long[]) {
+                long[] y = (long[]) b;
+                for (int w = 0; w < WORDS; w++) words[w] &= ~y[w];
+            } else {
+                for (char low : (char[]) b) words[low >>> 6] &= ~(1L << low);
+            }
+            return words;
+        }
+        char[] lows = (char[]) a, left = new char[lows.length];
+        int n = 0;
+        for (char low : lows) if (!contains(b, low)) left[n++] = low;
+        return Arrays.copyOf(left, n);
+    }
+
+    private static long[] toBitmap(char[] lows) {
+        long[] words = new long[WORDS];
+        for (char low : lows) words[low >>> 6] |= 1L << low;
+        return words;
+    }
+
+    private static char[] toArray(long[] words) {
+        int cardinality = 0;
+        for (long word : words) cardinality += Long.bitCount(word);
+        char[] lows = new char[cardinality];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            for (long word = words[w]; word != 0; word &= word - 1)
+                lows[n++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+        }
+        return lows;
+    }
+
+    // copies of the arrays with one element more or less
+
+    private static char[] insert(char[] array, int at, char value) {
+        char[] copy = new char[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+
+    private static Object[] insert(Object[] array, int at, Object value) {
+        Object[] copy = new Object[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+
+    private static int[] insert(int[] array, int at, int value) {
+        int[] copy = new int[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+
+    private static char[] delete(char[] array, int at) {
+        char[] copy = new char[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, array.length - at - 1);
+        return copy;
+    }
+
+    private static Object[] delete(Object[] array, int at) {
+        Object[] copy = new Object[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, array.length - at - 1);
+        return copy;
+    }
+
+    private static int[] delete(int[] array, int at) {
+        int[] copy = new int[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        System.arraycopy(array, at + 1, copy, at, array.length - at - 1);
+        return copy;
+    }
+}
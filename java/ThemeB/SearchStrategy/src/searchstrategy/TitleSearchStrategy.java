@@ -5,6 +5,7 @@ import com.google.gson.JsonElement;
 import service.ServiceMetadata;
 
 
+
 public class TitleSearchStrategy extends SearchStrategy {
     private String title;
 
@@ -15,6 +16,19 @@ public class TitleSearchStrategy extends SearchStrategy {
     @Override
     boolean filter(ServiceMetadata service) { return service.getMethodName().contains(title); }
 
+    /**
+     * Only the services with every trigram of title are looked at
+     */
+    @Override
+    SlotBitmap slots(ServiceIndex index) {
+        return index.getMethodSlots(title);
+    }
+
+    @Override
+    int estimate(ServiceIndex index) {
+        return index.estimateMethodSlots(title);
+    }
+
     @Override
     public JsonElement toJsonElement(){
         return (new Gson()).fromJson("{\"type\":\"TitleSearchStrategy\",\"method\":"+title+"}",JsonElement.class);
@@ -0,0 +1,103 @@
+package searchstrategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An inverted index of the 3 characters substrings of texts, each identified by an int.
+ * <p>
+ * A text contains a pattern only if it contains every trigram of the pattern, so the texts that may contain it are
+ * found by intersecting the lists of the texts having each trigram, starting from the shortest. The candidates
+ * still have to be checked with String.contains : a text can have all the trigrams elsewhere than in a row.
+ * The index is updated text by text and can be read meanwhile.
+ */
+public class TrigramIndex {
+
+    private final Map<Long, Set<Integer>> postings = new ConcurrentHashMap<>();
+
+    public void add(int id, String text) {
+        for (long trigram : trigrams(text)) {
+            postings.compute(trigram, (t, ids) -> {
+                if (ids == null) ids = ConcurrentHashMap.newKeySet();
+                ids.add(id);
+                return ids;
+            });
+        }
+    }
+
+    /**
+     * @param text : the text id was added with
+     */
+    public void remove(int id, String text) {
+        for (long trigram : trigrams(text)) {
+            postings.computeIfPresent(trigram, (t, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    /**
+     * @return the ids of the texts that may contain pattern, or null if pattern is too short to use the index :
+     * every text may contain it
+     */
+    public int[] candidates(String pattern) {
+        long[] trigrams = trigrams(pattern);
+        if (trigrams.length == 0) return null;
+        List<Set<Integer>> lists = new ArrayList<>(trigrams.length);
+        for (long trigram : trigrams) {
+            Set<Integer> ids = postings.get(trigram);
+            if (ids == null) return new int[0];
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+
+        int[] found = new int[lists.get(0).size()];
+        int n = 0;
+        for (int id : lists.get(0)) {
+            boolean all = true;
+            for (int i = 1; i < lists.size() && all; i++) all = lists.get(i).contains(id);
+            if (all) {
+                if (n == found.length) found = Arrays.copyOf(found, n * 2 + 1); //grew meanwhile
+                found[n++] = id;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    /**
+     * @return at least as many as candidates(pattern) has : the size of its shortest list, -1 if pattern is too
+     * short to use the index
+     */
+    public int estimate(String pattern) {
+        long[] trigrams = trigrams(pattern);
+        if (trigrams.length == 0) return -1;
+        int smallest = Integer.MAX_VALUE;
+        for (long trigram : trigrams) {
+            Set<Integer> ids = postings.get(trigram);
+            if (ids == null) return 0;
+            smallest = Math.min(smallest, ids.size());
+        }
+        return smallest;
+    }
+
+    /**
+     * @return the distinct trigrams of text, each as its 3 chars in a long
+     */
+    private static long[] trigrams(String text) {
+        if (text == null || text.length() < 3) return new long[0];
+        long[] trigrams = new long[text.length() - 2];
+        for (int i = 0; i < trigrams.length; i++)
+            trigrams[i] = (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+        Arrays.sort(trigrams);
+        int n = 0;
+        for (int i = 0; i < trigrams.length; i++)
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) trigrams[n++] = trigrams[i];
+        return Arrays.copyOf(trigrams, n);
+    }
+}
@@ -21,6 +21,10 @@ public class JsonRpcCustomError {
         return new Error(-32002, "Internal service Error");
     }
 
+    public static Error serverBusy() {
+        return new Error(-32003, "Server busy, try again later");
+    }
+
     public static Error wrongParametersReceived() { return new Error(-32603, "Wrong parameters received"); }
 
     public static Error connectionTimeout() { return new Error(-32604, "Connection timeout"); }
@@ -6,6 +6,7 @@ import jsonrpclibrary.*;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * This interface is used to define the service function.
@@ -16,6 +17,8 @@ public class Service extends Thread {
     private ServiceMetadata serviceMetadata; // All information about a service
     private JsonRpcManager manager; // It is used to receive request and send response (see JsonRpc Library)
     private IServiceMethod function; // Function that the service run implemented by the user (see IServiceMethod class)
+    private Executor executor = null; // If set, runs the function for the requests, so that many can be served at once
+    private String provider = null; // The id the broker gave to this provider of the method, if any
 
     /**
      * Service class constructor.
@@ -29,6 +32,29 @@ public class Service extends Thread {
         this.manager = manager;
     }
 
+    /**
+     * The broker forwards the requests without waiting for the previous responses : with an executor the function
+     * is run for many requests at the same time, and each response is sent when it is ready, whatever its order.
+     * @param executor : null to serve the requests one at a time, in the order they arrive
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param provider : the id the broker gave to this provider when it registered the service
+     */
+    public void setProvider(String provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * @return the id the broker gave to this provider, null if the broker gave none
+     */
+    public String getProvider() {
+        return provider;
+    }
+
     /**
      * run method is the implementation of the method that the Thread run.
      * In this method all type of request,response and error that a generic service can receive and send are handled.
@@ -42,30 +68,68 @@ public class Service extends Thread {
             } catch (ParseException e) {
                 System.err.println("Parse exception");
                 this.manager.send(JsonRpcResponse.error(JsonRpcDefaultError.parseError(),null));
+            } catch (IllegalStateException e) {
+                if (Thread.currentThread().isInterrupted()) return; //the connection stopped waiting because of delete
+                throw e;
             }
-            if (receivedRpcRequest.isBatch()) { //if is a batch request
-                JsonRpcBatchRequest batch = (JsonRpcBatchRequest) receivedRpcRequest;
-                List<JsonRpcRequest> requests = batch.get();
-                List<JsonRpcResponse> responses = new ArrayList<>();
-                for (Iterator<JsonRpcRequest> i = requests.iterator(); i.hasNext();) {
-                    JsonRpcRequest request = i.next();
-                    JsonRpcResponse serviceResult = this.processRequest(request);
-                    if (!request.isNotification()) // if is a notification no response is generated
-                        responses.add(serviceResult);
-                }
-                JsonRpcBatchResponse batchResponse = new JsonRpcBatchResponse();
-                batchResponse.add(responses);
-                this.manager.send(batchResponse);
-            } else { // else if is a single JsonRpcRequest
-                JsonRpcRequest request = (JsonRpcRequest) receivedRpcRequest;
-                //if (!request.isEmpty()) {
-                    //Execute request
-                    JsonRpcResponse serviceResult = this.processRequest(request);
-                    if (!request.isNotification()) // if is a notification no response return is generated
-                        // Send response
-                        this.manager.send(serviceResult);
-                //}
+            if (receivedRpcRequest != null) this.dispatch(receivedRpcRequest);
+        }
+    }
+
+    /**
+     * listen serves the requests as they arrive, without a thread of its own : it can be used instead of start().
+     * The function is run by the connection when a request arrives, so it should not block for long.
+     */
+    public void listen() {
+        this.manager.listen(new JsonRpcMessageListener() {
+            @Override
+            public void onMessage(JsonRpcMessage msg) {
+                if (msg instanceof JsonRpcBatchRequest || msg instanceof JsonRpcRequest) dispatch(msg);
+            }
+
+            @Override
+            public void onParseError(ParseException e) {
+                System.err.println("Parse exception");
+                manager.send(JsonRpcResponse.error(JsonRpcDefaultError.parseError(),null));
+            }
+        });
+    }
+
+    private void dispatch(JsonRpcMessage receivedRpcRequest) {
+        Executor executor = this.executor;
+        if (executor == null) this.handle(receivedRpcRequest);
+        else executor.execute(() -> this.handle(receivedRpcRequest));
+    }
+
+    /**
+     * handle runs the function for a request or for every request of a batch, and sends the response.
+     * @param receivedRpcRequest
+     */
+    private void handle(JsonRpcMessage receivedRpcRequest) {
+        JsonRpcManager manager = this.manager;
+        if (manager == null) return; //deleted meanwhile
+        if (receivedRpcRequest.isBatch()) { //if is a batch request
+            JsonRpcBatchRequest batch = (JsonRpcBatchRequest) receivedRpcRequest;
+            List<JsonRpcRequest> requests = batch.get();
+            List<JsonRpcResponse> responses = new ArrayList<>();
+            for (Iterator<JsonRpcRequest> i = requests.iterator(); i.hasNext();) {
+                JsonRpcRequest request = i.next();
+                JsonRpcResponse serviceResult = this.processRequest(request);
+                if (!request.isNotification()) // if is a notification no response is generated
+                    responses.add(serviceResult);
             }
+            JsonRpcBatchResponse batchResponse = new JsonRpcBatchResponse();
+            batchResponse.add(responses);
+            manager.send(batchResponse);
+        } else { // else if is a single JsonRpcRequest
+            JsonRpcRequest request = (JsonRpcRequest) receivedRpcRequest;
+            //if (!request.isEmpty()) {
+                //Execute request
+                JsonRpcResponse serviceResult = this.processRequest(request);
+                if (!request.isNotification()) // if is a notification no response return is generated
+                    // Send response
+                    manager.send(serviceResult);
+            //}
         }
     }
 
@@ -91,10 +155,12 @@ public class Service extends Thread {
         return this.serviceMetadata;
     }
 
-    /** delete method destroy the service. */
+    /** delete method destroy the service and closes its connection. */
     public void delete() {
+        JsonRpcManager manager = this.manager;
         this.serviceMetadata = null;
         this.manager = null;
+        if (manager != null) manager.close(); //it stops listening too
     }
 
     /**
@@ -19,6 +19,7 @@ public class ServiceMetadata {
     private ArrayList<String> keywords;
     private String description;
     private String activationDate;
+    private int capacity; // relative weight of the provider in a provider group of the broker, 0 means 1
 
 
     /** ServiceMetadata constructor
@@ -72,6 +73,10 @@ public class ServiceMetadata {
         this.keywords = keywords;
     }
 
+    /** @param capacity : how much load the provider can take compared to the other providers of the same method,
+     * used by a broker with provider groups */
+    public void setCapacity(int capacity) { this.capacity = capacity; }
+
     /** @param keyword */
     public void addKeyword(String keyword) { this.keywords.add(keyword); }
 
@@ -102,6 +107,11 @@ public class ServiceMetadata {
      */
     public String getOwner() { return owner; }
 
+    /** Capacity getter
+     * @return the declared capacity, 1 if none was declared
+     */
+    public int getCapacity() { return capacity > 0 ? capacity : 1; }
+
     /** Method getter
      * @return
      */
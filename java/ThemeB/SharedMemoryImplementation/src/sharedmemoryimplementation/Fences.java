@@ -0,0 +1,68 @@
+package sharedmemoryimplementation;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences for the accesses to a mapped file shared with another process : the JVM gives no ordering for
+ * the plain accesses of a MappedByteBuffer. The fences of sun.misc.Unsafe are used when they can be reached,
+ * otherwise the accesses to a volatile field, which HotSpot does not reorder with the other memory accesses.
+ */
+final class Fences {
+
+    private static final MethodHandle STORE_FENCE;
+    private static final MethodHandle LOAD_FENCE;
+    private static volatile int barrier;
+
+    static {
+        MethodHandle store = null, load = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            store = lookup.findVirtual(unsafeClass, "storeFence", MethodType.methodType(void.class)).bindTo(unsafe);
+            load = lookup.findVirtual(unsafeClass, "loadFence", MethodType.methodType(void.class)).bindTo(unsafe);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //not available : the volatile field is used
+        }
+        STORE_FENCE = store;
+        LOAD_FENCE = load;
+    }
+
+    private Fences() {
+    }
+
+    /**
+     * The loads and stores before the fence are done before the stores after it
+     */
+    static void storeFence() {
+        if (STORE_FENCE == null) {
+            barrier = 0;
+            return;
+        }
+        try {
+            STORE_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The loads before the fence are done before the loads and stores after it
+     */
+    static void loadFence() {
+        if (LOAD_FENCE == null) {
+            int ignored = barrier;
+            return;
+        }
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
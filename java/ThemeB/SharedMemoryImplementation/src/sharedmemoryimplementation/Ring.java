@@ -0,0 +1,255 @@
+package sharedmemoryimplementation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single producer, single consumer ring of frames in a memory-mapped file : the producer and the consumer can
+ * be two processes mapping the same file.
+ * <p>
+ * The file starts with the position of the consumer, the position of the producer (each on its own cache line)
+ * and a closed flag for each side, then the data. A frame is a 4 bytes header, then the bytes of the message padded
+ * to 4 bytes : the low 31 bits of the header are the length of the fragment, the high bit is set when the message
+ * goes on in the next frame, so a message bigger than the ring is sent in pieces. The positions only grow, their
+ * value modulo the capacity is the offset in the data.
+ */
+class Ring {
+
+    static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final int HEAD = 0; //read position, written by the consumer
+    private static final int TAIL = 64; //write position, written by the producer
+    private static final int PRODUCER_CLOSED = 128;
+    private static final int CONSUMER_CLOSED = 132;
+    private static final int DATA = 192;
+    private static final int HEADER = 4;
+    private static final int MORE = 0x80000000;
+
+    private static final long SEND_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    private final MappedByteBuffer buffer;
+    private final int capacity, mask;
+
+    // used only by the producer
+    private long tail;
+    private long cachedHead;
+
+    // used only by the consumer
+    private long head;
+    private byte[] partial = null;
+    private int partialLength = 0;
+
+    private Ring(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.capacity = buffer.capacity() - DATA;
+        this.mask = capacity - 1;
+        this.tail = buffer.getLong(TAIL);
+        this.head = buffer.getLong(HEAD);
+        this.cachedHead = head;
+    }
+
+    /**
+     * Creates the file of a new ring
+     *
+     * @param capacity : a power of 2
+     */
+    static Ring create(Path file, int capacity) throws IOException {
+        if (capacity < 64 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("the capacity of a ring must be a power of 2 : " + capacity);
+        return map(file, DATA + capacity, StandardOpenOption.CREATE_NEW);
+    }
+
+    /**
+     * Maps the file of a ring created by another process
+     */
+    static Ring open(Path file) throws IOException {
+        return map(file, -1);
+    }
+
+    private static Ring map(Path file, long size, StandardOpenOption... options) throws IOException {
+        StandardOpenOption[] all = Arrays.copyOf(options, options.length + 2);
+        all[options.length] = StandardOpenOption.READ;
+        all[options.length + 1] = StandardOpenOption.WRITE;
+        try (FileChannel channel = FileChannel.open(file, all)) {
+            if (size < 0) size = channel.size();
+            //the mapping stays valid once the channel is closed and the file deleted
+            return new Ring(channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Writes message as one or more frames, waiting while the ring is full. Only one thread may call it at a time.
+     *
+     * @return false if the consumer has closed its side : the message is dropped
+     * @throws IllegalStateException if the consumer takes nothing for too long, e.g. because its process died
+     */
+    boolean offer(ByteBuffer message) {
+        Backoff backoff = null;
+        long deadline = 0;
+        do {
+            if (buffer.getInt(CONSUMER_CLOSED) != 0) {
+                message.position(message.limit());
+                return false;
+            }
+            long free = capacity - (tail - cachedHead);
+            if (free < HEADER + HEADER) {
+                cachedHead = buffer.getLong(HEAD);
+                Fences.loadFence();
+                free = capacity - (tail - cachedHead);
+            }
+            if (free < HEADER + HEADER) {
+                if (backoff == null) {
+                    backoff = new Backoff();
+                    deadline = System.nanoTime() + SEND_TIMEOUT;
+                } else if (System.nanoTime() - deadline > 0) {
+                    throw new IllegalStateException("Ring: the peer has read nothing for " +
+                            TimeUnit.NANOSECONDS.toSeconds(SEND_TIMEOUT) + " seconds");
+                }
+                backoff.idle();
+                continue;
+            }
+            backoff = null;
+            int length = (int) Math.min(message.remaining(), (free - HEADER) & ~(HEADER - 1));
+            boolean more = length < message.remaining();
+            int offset = (int) (tail & mask);
+            buffer.putInt(DATA + offset, more ? length | MORE : length);
+            put(offset + HEADER, message, length);
+            Fences.storeFence(); //the frame is written before it is published
+            tail += HEADER + align(length);
+            buffer.putLong(TAIL, tail);
+        } while (message.hasRemaining());
+        return true;
+    }
+
+    private void put(int offset, ByteBuffer message, int length) {
+        offset &= mask;
+        int first = Math.min(length, capacity - offset);
+        ByteBuffer target = buffer.duplicate();
+        int limit = message.limit();
+        message.limit(message.position() + first);
+        target.position(DATA + offset);
+        target.put(message);
+        message.limit(limit);
+        if (first < length) {
+            message.limit(message.position() + length - first);
+            target.position(DATA);
+            target.put(message);
+            message.limit(limit);
+        }
+    }
+
+    /**
+     * Takes the next complete message. Only one thread may call it at a time.
+     *
+     * @return null if no complete message has been written yet
+     */
+    byte[] poll() {
+        while (true) {
+            long published = buffer.getLong(TAIL);
+            Fences.loadFence(); //the frame is read after its publication
+            if (published == head) return null;
+            int offset = (int) (head & mask);
+            int header = buffer.getInt(DATA + offset);
+            int length = header & ~MORE;
+            byte[] message;
+            if ((header & MORE) == 0 && partial == null) {
+                message = new byte[length];
+                get(offset + HEADER, message, 0, length);
+            } else {
+                if (partial == null) partial = new byte[Math.max(length * 2, 64)];
+                if (partial.length - partialLength < length)
+                    partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+                get(offset + HEADER, partial, partialLength, length);
+                partialLength += length;
+                message = null;
+                if ((header & MORE) == 0) {
+                    message = Arrays.copyOf(partial, partialLength);
+                    partial = null;
+                    partialLength = 0;
+                }
+            }
+            Fences.storeFence(); //the frame is read before its space is given back
+            head += HEADER + align(length);
+            buffer.putLong(HEAD, head);
+            if (message != null) return message;
+        }
+    }
+
+    private void get(int offset, byte[] target, int at, int length) {
+        offset &= mask;
+        int first = Math.min(length, capacity - offset);
+        ByteBuffer source = buffer.duplicate();
+        source.position(DATA + offset);
+        source.get(target, at, first);
+        if (first < length) {
+            source.position(DATA);
+            source.get(target, at + first, length - first);
+        }
+    }
+
+    /**
+     * The producer sends nothing more : the consumer reads what is left, then sees the ring closed
+     */
+    void closeProducer() {
+        Fences.storeFence();
+        buffer.putInt(PRODUCER_CLOSED, 1);
+    }
+
+    /**
+     * The consumer reads nothing more : the producer drops its messages
+     */
+    void closeConsumer() {
+        buffer.putInt(CONSUMER_CLOSED, 1);
+    }
+
+    /**
+     * @return true if the producer is closed and every message has been read
+     */
+    boolean finished() {
+        if (buffer.getInt(PRODUCER_CLOSED) == 0) return false;
+        Fences.loadFence();
+        return buffer.getLong(TAIL) == head;
+    }
+
+    private static int align(int length) {
+        return (length + HEADER - 1) & ~(HEADER - 1);
+    }
+
+    /**
+     * Waits without a system call while a message is likely to come, then gives the processor away for longer
+     * and longer : spins first, then yields, then parks. With a single processor it parks at once, spinning or
+     * yielding would only take the processor from the threads that are going to send something.
+     */
+    static class Backoff {
+        private static final boolean MULTIPROCESSOR = Runtime.getRuntime().availableProcessors() > 1;
+        static final long SPIN_NANOS = MULTIPROCESSOR ? TimeUnit.MICROSECONDS.toNanos(50) : 0;
+        static final long YIELD_NANOS = MULTIPROCESSOR ? TimeUnit.MILLISECONDS.toNanos(1) : 0;
+        static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+        private long idleSince = System.nanoTime();
+        private long park = TimeUnit.MICROSECONDS.toNanos(10);
+
+        void reset() {
+            idleSince = System.nanoTime();
+            park = TimeUnit.MICROSECONDS.toNanos(10);
+        }
+
+        void idle() {
+            long idle = System.nanoTime() - idleSince;
+            if (idle < SPIN_NANOS) return;
+            if (idle < YIELD_NANOS) {
+                Thread.yield();
+                return;
+            }
+            LockSupport.parkNanos(this, park);
+            park = Math.min(park * 2, MAX_PARK_NANOS);
+        }
+    }
+}
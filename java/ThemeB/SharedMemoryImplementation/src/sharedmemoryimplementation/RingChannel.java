@@ -0,0 +1,91 @@
+package sharedmemoryimplementation;
+
+import logger.Logger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The two rings between two processes : the frames of one are read by the poller thread and given to the
+ * FrameHandler, the frames sent are written in the other one by the calling thread.
+ * <p>
+ * Only a closed ring is noticed : if the other process dies without closing its side, the frames sent to it fill
+ * the ring until a send fails and the reads wait forever, unless they have a timeout.
+ */
+class RingChannel {
+
+    /**
+     * Receives the frames of a channel, in its poller thread
+     */
+    interface FrameHandler {
+        void frame(byte[] message);
+
+        /**
+         * The peer closed its side : no other frame is going to arrive
+         */
+        void disconnected();
+    }
+
+    final RingPoller poller;
+    private final Ring in, out;
+    private FrameHandler handler;
+    private boolean closed = false; //guarded by this
+
+    RingChannel(Ring in, Ring out, RingPoller poller) {
+        this.in = in;
+        this.out = out;
+        this.poller = poller;
+    }
+
+    /**
+     * Starts reading : the frames are given to handler
+     */
+    void start(FrameHandler handler) {
+        this.handler = handler;
+        poller.add(this);
+    }
+
+    /**
+     * Called by the poller thread
+     *
+     * @return true if something has been read
+     */
+    boolean poll(int maxMessages) {
+        for (int i = 0; i < maxMessages; i++) {
+            byte[] message = in.poll();
+            if (message == null) {
+                if (in.finished()) {
+                    poller.remove(this);
+                    handler.disconnected();
+                    return true;
+                }
+                return i > 0;
+            }
+            handler.frame(message);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the remaining bytes of message as a frame, waiting while the ring of the peer is full.
+     * The frames sent after the channel has been closed, by either side, are dropped.
+     */
+    synchronized void send(ByteBuffer message) {
+        if (closed || !out.offer(message)) {
+            if (Logger.isEnabled()) Logger.log("RingChannel: dropping a message, the channel is closed");
+            message.position(message.limit());
+        }
+    }
+
+    /**
+     * Closes both sides : the peer reads the frames already sent, then sees the channel closed
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            out.closeProducer();
+        }
+        in.closeConsumer();
+        poller.execute(() -> poller.remove(this));
+    }
+}
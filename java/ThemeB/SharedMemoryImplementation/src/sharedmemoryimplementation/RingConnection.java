@@ -0,0 +1,221 @@
+package sharedmemoryimplementation;
+
+import connectioninterfaces.IConnection;
+import connectioninterfaces.TimeoutException;
+import logger.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * A connection over a RingChannel, between two processes of the same host. The poller thread of the channel puts
+ * the received frames in the inbox, and the frames sent are copied in the ring of the peer by the calling thread.
+ * <p>
+ * A SharedMemoryConnectionManager gives a new connection for every request of a client, all using the same rings :
+ * closing one of them does not close the rings. A connection created by a SharedMemoryConnectionFactory owns its
+ * rings.
+ */
+class RingConnection implements IConnection, RingChannel.FrameHandler {
+
+    private final RingChannel channel;
+    private final Executor executor;
+    private final Consumer<RingConnection> closer;
+
+    // guarded by this
+    private final Deque<byte[]> inbox = new ArrayDeque<>();
+    private byte[] head = null;
+    private String headText = null;
+    private CompletableFuture<byte[]> pending = null;
+    private boolean closed = false, disconnected = false;
+
+    /**
+     * @param closer : called once by close()
+     */
+    RingConnection(RingChannel channel, Executor executor, Consumer<RingConnection> closer) {
+        this.channel = channel;
+        this.executor = executor;
+        this.closer = closer;
+    }
+
+    /**
+     * Called by the poller thread when a frame arrives. A waiting asynchronous read is completed by the executor,
+     * so that its callbacks do not stop the selector.
+     */
+    @Override
+    public void frame(byte[] message) {
+        CompletableFuture<byte[]> waiting;
+        byte[] received;
+        synchronized (this) {
+            inbox.add(message);
+            notifyAll();
+            if (pending == null || closed || !next()) return;
+            received = head;
+            waiting = pending;
+            pending = null;
+        }
+        executor.execute(() -> waiting.complete(received));
+    }
+
+    /**
+     * The messages already received can still be read, then the reads fail
+     */
+    @Override
+    public void disconnected() {
+        CompletableFuture<byte[]> waiting;
+        synchronized (this) {
+            disconnected = true;
+            notifyAll();
+            waiting = pending;
+            pending = null;
+        }
+        if (waiting != null)
+            executor.execute(() -> waiting.completeExceptionally(new IllegalStateException("RingConnection disconnected")));
+    }
+
+    /**
+     * Marks the connection as closed and takes the messages nobody read, that belong to the next connection
+     */
+    synchronized List<byte[]> detach(List<byte[]> left) {
+        closed = true;
+        left.addAll(inbox);
+        inbox.clear();
+        if (pending != null) {
+            CompletableFuture<byte[]> waiting = pending;
+            pending = null;
+            executor.execute(() -> waiting.completeExceptionally(new IllegalStateException("RingConnection closed")));
+        }
+        notifyAll();
+        return left;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        closer.accept(this);
+    }
+
+    @Override
+    public String read() {
+        return text(readBytes());
+    }
+
+    @Override
+    public String read(long milliseconds) throws TimeoutException {
+        return text(readBytes(milliseconds));
+    }
+
+    @Override
+    public synchronized byte[] readBytes() {
+        try {
+            while (!next()) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("RingConnection interrupted while waiting", e);
+        }
+        return head;
+    }
+
+    @Override
+    public synchronized byte[] readBytes(long milliseconds) throws TimeoutException {
+        long deadline = System.currentTimeMillis() + milliseconds;
+        try {
+            while (!next()) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) throw new TimeoutException("RingConnection received nothing");
+                wait(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("RingConnection interrupted while waiting");
+        }
+        return head;
+    }
+
+    /**
+     * @return true if there is a current message, taking it from the inbox if needed
+     */
+    private boolean next() {
+        if (head != null) return true;
+        if (closed) throw new IllegalStateException("RingConnection closed");
+        head = inbox.poll();
+        headText = null;
+        if (head != null) {
+            if (Logger.isEnabled()) Logger.log("RingConnection received : \"" + text(head) + "\"");
+            return true;
+        }
+        if (disconnected) throw new IllegalStateException("RingConnection disconnected");
+        return false;
+    }
+
+    /**
+     * The future is completed by the executor of the factory or of the manager
+     */
+    @Override
+    public synchronized CompletableFuture<byte[]> readBytesAsync() {
+        if (head != null || (!closed && !inbox.isEmpty())) {
+            next();
+            return CompletableFuture.completedFuture(head);
+        }
+        if (closed || disconnected) {
+            CompletableFuture<byte[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException(closed ? "RingConnection closed" : "RingConnection disconnected"));
+            return failed;
+        }
+        if (pending == null) pending = new CompletableFuture<>();
+        return pending;
+    }
+
+    private synchronized String text(byte[] data) {
+        if (data != head) return new String(data, StandardCharsets.UTF_8);
+        if (headText == null) headText = new String(data, StandardCharsets.UTF_8);
+        return headText;
+    }
+
+    @Override
+    public synchronized void consume() {
+        readBytes(); //if there is no current message the next one is dropped
+        head = null;
+        headText = null;
+    }
+
+    @Override
+    public void send(String msg) {
+        if (Logger.isEnabled()) Logger.log("Sending : " + msg);
+        send(ByteBuffer.wrap(msg.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void send(byte[] msg, int offset, int length) {
+        channel.send(ByteBuffer.wrap(msg, offset, length));
+    }
+
+    @Override
+    public void send(ByteBuffer msg) {
+        channel.send(msg);
+    }
+
+    /**
+     * The message is copied in the ring before this method returns
+     */
+    @Override
+    public CompletableFuture<Void> sendAsync(byte[] msg, int offset, int length) {
+        try {
+            send(msg, offset, length);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+}
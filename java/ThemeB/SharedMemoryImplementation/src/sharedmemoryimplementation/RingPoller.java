@@ -0,0 +1,70 @@
+package sharedmemoryimplementation;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The thread that reads the rings of many channels. The other process writes its frames without notifying anyone,
+ * so the rings are polled : the thread spins while messages come, then yields, then parks for a little longer
+ * each time, and parks until a channel is added when it has none.
+ */
+class RingPoller {
+
+    private static final int MAX_MESSAGES = 16; //messages of a channel in a row before polling the others
+
+    private final List<RingChannel> channels = new CopyOnWriteArrayList<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    RingPoller(String name) {
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        Ring.Backoff backoff = new Ring.Backoff();
+        while (true) {
+            boolean active = false;
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+                active = true;
+            }
+            for (RingChannel channel : channels) {
+                if (channel.poll(MAX_MESSAGES)) active = true;
+            }
+            if (active) backoff.reset();
+            else if (channels.isEmpty()) LockSupport.park(this);
+            else backoff.idle();
+        }
+    }
+
+    void add(RingChannel channel) {
+        channels.add(channel);
+        LockSupport.unpark(thread);
+    }
+
+    void remove(RingChannel channel) {
+        channels.remove(channel);
+    }
+
+    /**
+     * Runs task in the poller thread
+     */
+    void execute(Runnable task) {
+        if (inLoop()) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        LockSupport.unpark(thread);
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+}
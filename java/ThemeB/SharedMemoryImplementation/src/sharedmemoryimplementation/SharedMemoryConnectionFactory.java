@@ -0,0 +1,67 @@
+package sharedmemoryimplementation;
+
+import connectioninterfaces.IConnection;
+import connectioninterfaces.IConnectionFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Opens connections to a SharedMemoryConnectionManager running on the same host, through memory-mapped rings
+ */
+public class SharedMemoryConnectionFactory implements IConnectionFactory {
+
+    private final Path directory;
+    private final int capacity;
+    private final Executor executor;
+    private RingPoller poller = null;
+
+    /**
+     * @param name : the name given to the SharedMemoryConnectionManager
+     */
+    public SharedMemoryConnectionFactory(String name) {
+        this(name, Ring.DEFAULT_CAPACITY, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param name     : the name given to the SharedMemoryConnectionManager
+     * @param capacity : the size in bytes of the ring of each direction, a power of 2. A bigger message is sent in
+     *                 pieces.
+     * @param executor : completes the asynchronous reads of the connections
+     */
+    public SharedMemoryConnectionFactory(String name, int capacity, Executor executor) {
+        this.directory = SharedMemoryConnectionManager.directory(name);
+        this.capacity = capacity;
+        this.executor = executor;
+    }
+
+    private synchronized RingPoller poller() {
+        if (poller == null) poller = new RingPoller("SharedMemoryConnectionFactory poller " + directory.getFileName());
+        return poller;
+    }
+
+    /**
+     * @throws IllegalStateException if no manager has this name
+     */
+    @Override
+    public IConnection createConnection() {
+        if (!Files.isDirectory(directory))
+            throw new IllegalStateException("SharedMemoryConnectionFactory: nothing listens in " + directory);
+        String id = UUID.randomUUID().toString();
+        try {
+            Ring out = Ring.create(directory.resolve(id + SharedMemoryConnectionManager.CLIENT_TO_SERVER), capacity);
+            Ring in = Ring.create(directory.resolve(id + SharedMemoryConnectionManager.SERVER_TO_CLIENT), capacity);
+            Files.createFile(directory.resolve(id + SharedMemoryConnectionManager.READY));
+            RingChannel channel = new RingChannel(in, out, poller());
+            RingConnection connection = new RingConnection(channel, executor, c -> channel.close());
+            channel.start(connection);
+            return connection;
+        } catch (IOException e) {
+            throw new IllegalStateException("SharedMemoryConnectionFactory: cannot create the rings in " + directory, e);
+        }
+    }
+}
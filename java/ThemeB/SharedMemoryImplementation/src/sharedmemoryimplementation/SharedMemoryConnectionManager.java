@@ -0,0 +1,192 @@
+package sharedmemoryimplementation;
+
+import connectioninterfaces.IConnection;
+import connectioninterfaces.IConnectionManager;
+import logger.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Accepts the clients of the same host through memory-mapped files, without sockets : a client creates the two
+ * rings of its channel in the directory of the manager, then a marker file telling they are ready. The manager maps
+ * them and deletes the files, the mapping staying shared by both processes.
+ * <p>
+ * As with the other managers, every request of a client is a new connection given by acceptConnection.
+ * The directory is in /dev/shm when there is one, so the rings are never written to a disk.
+ */
+public class SharedMemoryConnectionManager implements IConnectionManager {
+
+    static final String CLIENT_TO_SERVER = ".c2s", SERVER_TO_CLIENT = ".s2c", READY = ".ready";
+
+    private final Path directory;
+    private final WatchService watcher;
+    private final RingPoller poller;
+    private final Executor executor;
+    private final BlockingQueue<RingConnection> connections_queue = new LinkedBlockingQueue<>();
+
+    public SharedMemoryConnectionManager(String name) {
+        this(name, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param name     : the name the factories of the clients use
+     * @param executor : completes the asynchronous reads of the connections
+     * @throws IllegalStateException if the directory of the manager cannot be created
+     */
+    public SharedMemoryConnectionManager(String name, Executor executor) {
+        this.directory = directory(name);
+        this.executor = executor;
+        try {
+            if (Files.isDirectory(directory)) {
+                //left by a manager that has not been closed
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                    for (Path file : files) Files.deleteIfExists(file);
+                }
+            }
+            Files.createDirectories(directory);
+            watcher = directory.getFileSystem().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            throw new IllegalStateException("SharedMemoryConnectionManager: cannot use " + directory, e);
+        }
+        poller = new RingPoller("SharedMemoryConnectionManager poller " + name);
+        Thread acceptor = new Thread(this::accept, "SharedMemoryConnectionManager acceptor " + name);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return where the rings of the manager called name are created
+     */
+    static Path directory(String name) {
+        Path shm = Paths.get("/dev/shm");
+        Path base = Files.isDirectory(shm) && Files.isWritable(shm) ? shm : Paths.get(System.getProperty("java.io.tmpdir"));
+        return base.resolve("jsonrpc-" + name);
+    }
+
+    private void accept() {
+        try {
+            scan(); //the clients that came before the directory was watched
+            while (true) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) scan();
+                    else ready(directory.resolve((Path) event.context()));
+                }
+                if (!key.reset()) return;
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            //closed
+        } catch (IOException e) {
+            Logger.error("SharedMemoryConnectionManager: cannot list " + directory + " (" + e.getMessage() + ")");
+        }
+    }
+
+    private void scan() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + READY)) {
+            for (Path file : files) ready(file);
+        }
+    }
+
+    private void ready(Path marker) {
+        String file = marker.getFileName().toString();
+        if (!file.endsWith(READY)) return;
+        String id = file.substring(0, file.length() - READY.length());
+        Path c2s = directory.resolve(id + CLIENT_TO_SERVER), s2c = directory.resolve(id + SERVER_TO_CLIENT);
+        try {
+            RingChannel channel = new RingChannel(Ring.open(c2s), Ring.open(s2c), poller);
+            channel.start(new Client(channel));
+        } catch (NoSuchFileException e) {
+            return; //already accepted
+        } catch (IOException e) {
+            Logger.error("SharedMemoryConnectionManager: cannot map the rings of " + id + " (" + e.getMessage() + ")");
+        }
+        try {
+            Files.deleteIfExists(marker);
+            Files.deleteIfExists(c2s);
+            Files.deleteIfExists(s2c);
+        } catch (IOException e) {
+            Logger.error("SharedMemoryConnectionManager: cannot delete the rings of " + id + " (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Stops accepting clients and removes the directory. The channels already accepted stay open.
+     */
+    public void close() {
+        try {
+            watcher.close();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            Logger.error("SharedMemoryConnectionManager: cannot remove " + directory + " (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * @return the connection of a new request, or null if the calling thread is interrupted while waiting
+     */
+    @Override
+    public IConnection acceptConnection() {
+        try {
+            return connections_queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * The channel of a client : it routes the frames to the current connection, in the poller thread
+     */
+    private class Client implements RingChannel.FrameHandler {
+        private final RingChannel channel;
+        private RingConnection current = null;
+
+        Client(RingChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void frame(byte[] message) {
+            if (current == null) {
+                current = new RingConnection(channel, executor, c -> channel.poller.execute(() -> closed(c)));
+                connections_queue.add(current);
+            }
+            current.frame(message);
+        }
+
+        /**
+         * The next frame of the client is a new connection, and the frames the closed one did not read are given
+         * to the new one
+         */
+        private void closed(RingConnection connection) {
+            if (current == connection) current = null;
+            for (byte[] message : connection.detach(new ArrayList<>())) frame(message);
+        }
+
+        @Override
+        public void disconnected() {
+            if (current != null) current.disconnected();
+            current = null;
+            channel.close();
+        }
+    }
+}
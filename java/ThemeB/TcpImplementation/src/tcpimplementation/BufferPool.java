@@ -0,0 +1,46 @@
+package tcpimplementation;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers reused by the writes of all the channels of a TcpSelectorGroup.
+ * Allocating a direct buffer is expensive, and writing a heap buffer makes the JDK copy it into a direct one.
+ */
+class BufferPool {
+
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int max;
+
+    /**
+     * @param max : how many free buffers are kept at most
+     */
+    BufferPool(int max) {
+        this.max = max;
+    }
+
+    /**
+     * @return an empty buffer of BUFFER_SIZE bytes
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        size.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != BUFFER_SIZE) return; //not one of ours
+        if (size.incrementAndGet() > max) {
+            size.decrementAndGet();
+            return;
+        }
+        free.add(buffer);
+    }
+}
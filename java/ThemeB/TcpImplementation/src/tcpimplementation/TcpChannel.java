@@ -0,0 +1,281 @@
+package tcpimplementation;
+
+import logger.Logger;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A socket carrying length-prefixed frames : a 4 bytes big-endian length, then the message.
+ * <p>
+ * The frames are read by the selector thread of the channel and given to its FrameHandler.
+ * A frame is written by the thread that sends it as long as the socket accepts it : the selector thread writes
+ * only what the socket could not take at once. Small frames are copied in pooled direct buffers, filling the last
+ * queued buffer before taking a new one, and the queued buffers are written together with a gathering write.
+ */
+class TcpChannel implements TcpSelector.Handler {
+
+    /**
+     * Receives the frames of a channel, in its selector thread
+     */
+    interface FrameHandler {
+        void frame(byte[] message);
+
+        /**
+         * The peer closed the socket or the socket failed : no other frame is going to arrive
+         */
+        void disconnected();
+    }
+
+    static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final int HEADER = 4;
+    private static final int MAX_READS = 16; //reads in a row before letting the other channels of the selector run
+    private static final int MAX_GATHER = 64;
+
+    final TcpSelector selector;
+    private final SocketChannel channel;
+    private final BufferPool pool;
+    private FrameHandler handler;
+    private SelectionKey key;
+
+    // used only by the selector thread
+    private int header = 0, headerBytes = 0;
+    private byte[] frame = null;
+    private int filled = 0;
+
+    // guarded by this
+    private final Deque<ByteBuffer> queue = new ArrayDeque<>(); //buffers ready to be written
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private boolean waitingWritable = false;
+    private boolean closing = false, closed = false;
+
+    TcpChannel(SocketChannel channel, TcpSelector selector, BufferPool pool) throws IOException {
+        this.channel = channel;
+        this.selector = selector;
+        this.pool = pool;
+        channel.configureBlocking(false);
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) //not for a unix domain socket
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Starts reading : the frames are given to handler
+     */
+    void start(FrameHandler handler) {
+        this.handler = handler;
+        selector.execute(() -> {
+            try {
+                key = selector.register(channel, SelectionKey.OP_READ, this);
+                synchronized (this) {
+                    if (waitingWritable) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                disconnect();
+            }
+        });
+    }
+
+    @Override
+    public void ready(SelectionKey key) {
+        if (key.isValid() && key.isWritable()) writable();
+        if (key.isValid() && key.isReadable()) readable();
+    }
+
+    private void readable() {
+        ByteBuffer buffer = selector.readBuffer;
+        try {
+            for (int i = 0; i < MAX_READS; i++) {
+                buffer.clear();
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    disconnect();
+                    return;
+                }
+                if (n == 0) return;
+                buffer.flip();
+                if (!parse(buffer)) return;
+            }
+        } catch (IOException e) {
+            disconnect();
+        }
+    }
+
+    /**
+     * @return false if the channel has been closed because of an invalid frame
+     */
+    private boolean parse(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            if (frame == null) {
+                if (headerBytes == 0 && buffer.remaining() >= HEADER) {
+                    header = buffer.getInt();
+                } else {
+                    while (headerBytes < HEADER && buffer.hasRemaining()) {
+                        header = (header << 8) | (buffer.get() & 0xff);
+                        headerBytes++;
+                    }
+                    if (headerBytes < HEADER) return true; //the rest of the header is in the next read
+                    headerBytes = 0;
+                }
+                if (header < 0 || header > MAX_FRAME_SIZE) {
+                    Logger.error("TcpChannel: received a frame of " + header + " bytes, closing the connection");
+                    disconnect();
+                    return false;
+                }
+                frame = new byte[header];
+                filled = 0;
+                header = 0;
+            }
+            int n = Math.min(buffer.remaining(), frame.length - filled);
+            buffer.get(frame, filled, n);
+            filled += n;
+            if (filled == frame.length) {
+                byte[] message = frame;
+                frame = null;
+                handler.frame(message);
+            }
+        }
+        return true;
+    }
+
+    private void disconnect() {
+        boolean notify;
+        synchronized (this) {
+            notify = !closed;
+            closed = true;
+            release();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //nothing left to do with it
+        }
+        if (notify && handler != null) handler.disconnected();
+    }
+
+    /**
+     * Sends the remaining bytes of message as a frame. The content of message can be changed when this method returns.
+     * The frames sent after the channel has been closed are dropped.
+     */
+    synchronized void send(ByteBuffer message) {
+        int length = message.remaining();
+        if (closed || closing) {
+            if (Logger.isEnabled()) Logger.log("TcpChannel: dropping a message of " + length + " bytes, the channel is closed");
+            message.position(message.limit());
+            return;
+        }
+        if (length > MAX_FRAME_SIZE) throw new IllegalArgumentException("message too big : " + length + " bytes");
+
+        if (length + HEADER <= BufferPool.BUFFER_SIZE) {
+            ByteBuffer tail = queue.peekLast();
+            if (tail == null || tail.capacity() - tail.limit() < length + HEADER) {
+                tail = pool.acquire();
+                tail.flip(); //empty, ready to be written
+                queue.add(tail);
+            }
+            //append the frame after the bytes still to write
+            int position = tail.position();
+            tail.position(tail.limit()).limit(tail.capacity());
+            tail.putInt(length).put(message);
+            tail.limit(tail.position()).position(position);
+        } else if (queue.isEmpty() && !waitingWritable) {
+            //a big message is written straight from its buffer, only the part the socket does not take is copied
+            ByteBuffer prefix = ByteBuffer.allocate(HEADER).putInt(0, length);
+            gather[0] = prefix;
+            gather[1] = message;
+            try {
+                channel.write(gather, 0, 2);
+            } catch (IOException e) {
+                failed(e);
+                return;
+            } finally {
+                gather[0] = gather[1] = null;
+            }
+            if (prefix.hasRemaining()) queue.add(prefix);
+            if (message.hasRemaining()) queue.add(copy(message));
+            if (!queue.isEmpty()) waitWritable();
+            return;
+        } else {
+            queue.add(ByteBuffer.allocate(HEADER).putInt(0, length));
+            queue.add(copy(message));
+        }
+
+        if (!waitingWritable && !flush()) waitWritable();
+    }
+
+    private static ByteBuffer copy(ByteBuffer message) {
+        ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+        copy.put(message).flip();
+        return copy;
+    }
+
+    /**
+     * Writes the queued buffers with gathering writes. Must be called holding the lock.
+     *
+     * @return true if everything has been written
+     */
+    private boolean flush() {
+        try {
+            while (!queue.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer b : queue) {
+                    gather[count++] = b;
+                    if (count == MAX_GATHER) break;
+                }
+                long written = channel.write(gather, 0, count);
+                Arrays.fill(gather, 0, count, null);
+                while (!queue.isEmpty() && !queue.peekFirst().hasRemaining()) pool.release(queue.pollFirst());
+                if (written == 0) return false;
+            }
+        } catch (IOException e) {
+            failed(e);
+        }
+        return true;
+    }
+
+    private void failed(IOException e) {
+        Logger.error("TcpChannel: cannot write (" + e.getMessage() + ")");
+        closing = true;
+        release();
+        selector.execute(this::disconnect);
+    }
+
+    /**
+     * Lets the selector thread write the rest when the socket can take it. Must be called holding the lock.
+     */
+    private void waitWritable() {
+        waitingWritable = true;
+        selector.execute(() -> {
+            if (key != null && key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        });
+    }
+
+    private synchronized void writable() {
+        if (!flush()) return;
+        waitingWritable = false;
+        if (key.isValid()) key.interestOps(SelectionKey.OP_READ);
+        if (closing) selector.execute(this::disconnect);
+    }
+
+    /**
+     * Must be called holding the lock
+     */
+    private void release() {
+        for (ByteBuffer b : queue) pool.release(b);
+        queue.clear();
+    }
+
+    /**
+     * Closes the socket once the queued frames have been written
+     */
+    synchronized void close() {
+        if (closed || closing) return;
+        closing = true;
+        if (!waitingWritable) selector.execute(this::disconnect);
+    }
+}
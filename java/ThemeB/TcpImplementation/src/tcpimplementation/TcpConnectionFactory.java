@@ -0,0 +1,83 @@
+package tcpimplementation;
+
+import connectioninterfaces.IConnection;
+import connectioninterfaces.IConnectionFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Opens tcp connections to a TcpConnectionManager, without ZeroMQ
+ */
+public class TcpConnectionFactory implements IConnectionFactory {
+
+    public static final int DEFAULT_SELECTOR_THREADS = 1;
+
+    private final InetSocketAddress address;
+    private final TcpSelectorGroup selectors;
+    private final Executor executor;
+
+    /**
+     * @param address : the same address a ZeroMQConnectionFactory takes, eg:"tcp://localhost:5555"
+     */
+    public TcpConnectionFactory(String address) {
+        this(address, DEFAULT_SELECTOR_THREADS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param address         : eg:"tcp://localhost:5555"
+     * @param selectorThreads : how many threads read and write the sockets
+     * @param executor        : completes the asynchronous reads of the connections
+     */
+    public TcpConnectionFactory(String address, int selectorThreads, Executor executor) {
+        String hostPort = address.startsWith("tcp://") ? address.substring("tcp://".length()) : address;
+        int colon = hostPort.lastIndexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("the address has no port : " + address);
+        this.address = InetSocketAddress.createUnresolved(hostPort.substring(0, colon),
+                Integer.parseInt(hostPort.substring(colon + 1)));
+        this.selectors = new TcpSelectorGroup(selectorThreads);
+        this.executor = executor;
+    }
+
+    /**
+     * For a factory that overrides open()
+     */
+    TcpConnectionFactory(int selectorThreads, Executor executor) {
+        this.address = null;
+        this.selectors = new TcpSelectorGroup(selectorThreads);
+        this.executor = executor;
+    }
+
+    /**
+     * @return a socket connected to the server, in blocking mode
+     */
+    SocketChannel open() throws IOException {
+        return SocketChannel.open(new InetSocketAddress(address.getHostString(), address.getPort()));
+    }
+
+    /**
+     * @return the server, for the error messages
+     */
+    String target() {
+        return String.valueOf(address);
+    }
+
+    /**
+     * @throws IllegalStateException if the server cannot be reached
+     */
+    @Override
+    public IConnection createConnection() {
+        try {
+            SocketChannel socket = open();
+            TcpChannel channel = new TcpChannel(socket, selectors.next(), selectors.pool);
+            TcpConnection connection = new TcpConnection(channel, executor, c -> channel.close());
+            channel.start(connection);
+            return connection;
+        } catch (IOException e) {
+            throw new IllegalStateException("TcpConnectionFactory: cannot connect to " + target(), e);
+        }
+    }
+}
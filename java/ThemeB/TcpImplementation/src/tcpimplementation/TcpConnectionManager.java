@@ -0,0 +1,149 @@
+package tcpimplementation;
+
+import connectioninterfaces.IConnection;
+import connectioninterfaces.IConnectionManager;
+import logger.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Accepts tcp clients on a port, without ZeroMQ : the sockets are spread on a few selector threads.
+ * As with ZeroMQConnectionManager, every request of a client is a new connection given by acceptConnection : a client
+ * can keep its socket open for many requests, while the server closes the connection of each request.
+ */
+public class TcpConnectionManager implements IConnectionManager {
+
+    public static final int DEFAULT_SELECTOR_THREADS = 2;
+
+    private final ServerSocketChannel server;
+    private final TcpSelectorGroup selectors;
+    private final Executor executor;
+    private final BlockingQueue<TcpConnection> connections_queue = new LinkedBlockingQueue<>();
+
+    public TcpConnectionManager(int port) {
+        this(port, DEFAULT_SELECTOR_THREADS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param port            : the tcp port to bind
+     * @param selectorThreads : how many threads read and write the sockets
+     * @param executor        : completes the asynchronous reads of the connections
+     */
+    public TcpConnectionManager(int port, int selectorThreads, Executor executor) {
+        this(listen(port), selectorThreads, executor);
+    }
+
+    /**
+     * @param server : a bound channel, e.g. of a unix domain socket
+     */
+    TcpConnectionManager(ServerSocketChannel server, int selectorThreads, Executor executor) {
+        this.server = server;
+        this.executor = executor;
+        selectors = new TcpSelectorGroup(selectorThreads);
+        try {
+            server.configureBlocking(false);
+        } catch (IOException e) {
+            throw new IllegalStateException("TcpConnectionManager: cannot use " + server, e);
+        }
+        TcpSelector acceptor = selectors.get(0);
+        acceptor.execute(() -> {
+            try {
+                acceptor.register(server, SelectionKey.OP_ACCEPT, key -> accept());
+            } catch (IOException e) {
+                Logger.error("TcpConnectionManager: cannot accept clients (" + e.getMessage() + ")");
+            }
+        });
+    }
+
+    private static ServerSocketChannel listen(int port) {
+        try {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.socket().setReuseAddress(true);
+            server.bind(new InetSocketAddress(port));
+            return server;
+        } catch (IOException e) {
+            throw new IllegalStateException("TcpConnectionManager: cannot listen on port " + port, e);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel socket;
+            while ((socket = server.accept()) != null) {
+                TcpChannel channel = new TcpChannel(socket, selectors.next(), selectors.pool);
+                channel.start(new Client(channel));
+            }
+        } catch (IOException e) {
+            Logger.error("TcpConnectionManager: cannot accept a client (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Closes the port. The sockets already accepted stay open.
+     */
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            Logger.error("TcpConnectionManager: cannot close the port (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * @return the connection of a new request, or null if the calling thread is interrupted while waiting
+     */
+    @Override
+    public IConnection acceptConnection() {
+        try {
+            return connections_queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * The socket of a client : it routes the frames to the current connection, in the selector thread
+     */
+    private class Client implements TcpChannel.FrameHandler {
+        private final TcpChannel channel;
+        private TcpConnection current = null;
+
+        Client(TcpChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void frame(byte[] message) {
+            if (current == null) {
+                current = new TcpConnection(channel, executor, c -> channel.selector.execute(() -> closed(c)));
+                connections_queue.add(current);
+            }
+            current.frame(message);
+        }
+
+        /**
+         * The next frame of the client is a new connection, and the frames the closed one did not read are given
+         * to the new one
+         */
+        private void closed(TcpConnection connection) {
+            if (current == connection) current = null;
+            for (byte[] message : connection.detach(new ArrayList<>())) frame(message);
+        }
+
+        @Override
+        public void disconnected() {
+            if (current != null) current.disconnected();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package tcpimplementation;
+
+import logger.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A thread that waits on a Selector for the channels registered to it, and runs the tasks of the other threads
+ * (e.g. a change of the interest set of a key), since a key should only be changed by the selector thread.
+ */
+class TcpSelector implements Runnable {
+
+    /**
+     * Called by the selector thread when the channel of key is ready
+     */
+    interface Handler {
+        void ready(SelectionKey key);
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    // used only by the selector thread : a read is always fully parsed before the next one
+    final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BufferPool.BUFFER_SIZE);
+
+    TcpSelector(String name) {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("TcpSelector: cannot open a selector", e);
+        }
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs the task in the selector thread
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inLoop()) selector.wakeup();
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Must be called in the selector thread
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+
+            try {
+                selector.select();
+            } catch (IOException e) {
+                Logger.error("TcpSelector: select failed (" + e.getMessage() + ")");
+                break;
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    ((Handler) key.attachment()).ready(key);
+                } catch (CancelledKeyException e) {
+                    //closed by the handler, or by another thread
+                }
+            }
+        }
+    }
+}
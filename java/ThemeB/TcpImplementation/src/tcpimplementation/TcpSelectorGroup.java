@@ -0,0 +1,35 @@
+package tcpimplementation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small fixed set of selector threads, which the channels are spread on, and the write buffers they share
+ */
+class TcpSelectorGroup {
+
+    private static final int POOLED_BUFFERS_PER_SELECTOR = 64;
+    private static final AtomicInteger groups = new AtomicInteger();
+
+    final BufferPool pool;
+    private final TcpSelector[] selectors;
+    private final AtomicInteger next = new AtomicInteger();
+
+    TcpSelectorGroup(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("at least a selector thread is needed");
+        int group = groups.incrementAndGet();
+        pool = new BufferPool(threads * POOLED_BUFFERS_PER_SELECTOR);
+        selectors = new TcpSelector[threads];
+        for (int i = 0; i < threads; i++) selectors[i] = new TcpSelector("tcp-selector-" + group + "-" + i);
+    }
+
+    TcpSelector get(int i) {
+        return selectors[i];
+    }
+
+    /**
+     * @return the selectors one after another
+     */
+    TcpSelector next() {
+        return selectors[Math.floorMod(next.getAndIncrement(), selectors.length)];
+    }
+}
@@ -0,0 +1,84 @@
+package tcpimplementation;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The unix domain sockets of java.nio, reached by reflection : they came with java 16 while the sources are built
+ * for java 8. They can be used when the program runs on java 16 or later.
+ */
+final class UnixDomainSockets {
+
+    private static final ProtocolFamily UNIX;
+    private static final Method ADDRESS_OF, OPEN_SERVER, OPEN;
+
+    static {
+        ProtocolFamily unix = null;
+        Method addressOf = null, openServer = null, open = null;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            openServer = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            unix = null; //before java 16
+        }
+        UNIX = unix;
+        ADDRESS_OF = addressOf;
+        OPEN_SERVER = openServer;
+        OPEN = open;
+    }
+
+    private UnixDomainSockets() {
+    }
+
+    static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    static ServerSocketChannel bind(String path) throws IOException {
+        ServerSocketChannel server = (ServerSocketChannel) invoke(OPEN_SERVER, UNIX);
+        try {
+            server.bind(address(path));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    static SocketChannel connect(String path) throws IOException {
+        SocketChannel socket = (SocketChannel) invoke(OPEN, UNIX);
+        try {
+            socket.connect(address(path));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private static SocketAddress address(String path) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, path);
+    }
+
+    private static Object invoke(Method method, Object argument) throws IOException {
+        if (!isSupported()) throw new UnsupportedOperationException("unix domain sockets need java 16 or later");
+        try {
+            return method.invoke(null, argument);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
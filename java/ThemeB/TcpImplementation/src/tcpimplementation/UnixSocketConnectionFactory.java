@@ -0,0 +1,41 @@
+package tcpimplementation;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Opens connections to a UnixSocketConnectionManager of the same host. Needs java 16 or later at run time.
+ */
+public class UnixSocketConnectionFactory extends TcpConnectionFactory {
+
+    private final String path;
+
+    /**
+     * @param address : the path of the socket file, with or without "unix://" in front, eg:"unix:///tmp/broker.sock"
+     */
+    public UnixSocketConnectionFactory(String address) {
+        this(address, DEFAULT_SELECTOR_THREADS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param address         : the path of the socket file, with or without "unix://" in front
+     * @param selectorThreads : how many threads read and write the sockets
+     * @param executor        : completes the asynchronous reads of the connections
+     */
+    public UnixSocketConnectionFactory(String address, int selectorThreads, Executor executor) {
+        super(selectorThreads, executor);
+        this.path = UnixSocketConnectionManager.path(address);
+    }
+
+    @Override
+    SocketChannel open() throws IOException {
+        return UnixDomainSockets.connect(path);
+    }
+
+    @Override
+    String target() {
+        return path;
+    }
+}
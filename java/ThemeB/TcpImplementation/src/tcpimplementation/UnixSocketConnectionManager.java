@@ -0,0 +1,103 @@
+package tcpimplementation;
+
+import logger.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A TcpConnectionManager listening on a unix domain socket instead of a tcp port : the clients of the same host
+ * skip the tcp stack. The frames and the connections are the same as over tcp.
+ * Needs java 16 or later at run time.
+ */
+public class UnixSocketConnectionManager extends TcpConnectionManager {
+
+    private final String path;
+
+    /**
+     * @param address : the path of the socket file, with or without "unix://" in front
+     */
+    public UnixSocketConnectionManager(String address) {
+        this(address, DEFAULT_SELECTOR_THREADS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param address         : the path of the socket file, with or without "unix://" in front
+     * @param selectorThreads : how many threads read and write the sockets
+     * @param executor        : completes the asynchronous reads of the connections
+     */
+    public UnixSocketConnectionManager(String address, int selectorThreads, Executor executor) {
+        super(listen(path(address)), selectorThreads, executor);
+        this.path = path(address);
+    }
+
+    /**
+     * @return true if the jvm has unix domain sockets
+     */
+    public static boolean isSupported() {
+        return UnixDomainSockets.isSupported();
+    }
+
+    static String path(String address) {
+        return address.startsWith("unix://") ? address.substring("unix://".length()) : address;
+    }
+
+    /**
+     * A socket file left by a server that did not close is removed
+     */
+    private static ServerSocketChannel listen(String path) {
+        try {
+            removeStaleSocket(path);
+            return UnixDomainSockets.bind(path);
+        } catch (IOException e) {
+            throw new IllegalStateException("UnixSocketConnectionManager: cannot listen on " + path, e);
+        }
+    }
+
+    /**
+     * @throws IOException if path is not a socket, or if a server still accepts connections on it
+     */
+    private static void removeStaleSocket(String path) throws IOException {
+        Path file = Paths.get(path);
+        if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) return;
+        if (!isSocket(file)) throw new IOException(path + " exists and it is not a socket");
+        try {
+            UnixDomainSockets.connect(path).close();
+        } catch (ConnectException e) {
+            Files.deleteIfExists(file); //refused : nobody listens on it anymore
+            return;
+        }
+        throw new IOException("another server is listening on " + path);
+    }
+
+    private static boolean isSocket(Path file) throws IOException {
+        try {
+            int mode = (Integer) Files.getAttribute(file, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return (mode & 0170000) == 0140000; //S_IFSOCK
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            //no unix attributes : sockets are among the "other" files
+            return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+        }
+    }
+
+    /**
+     * Closes the socket and removes its file. The sockets already accepted stay open.
+     */
+    @Override
+    public void close() {
+        super.close();
+        try {
+            Files.deleteIfExists(Paths.get(path));
+        } catch (IOException e) {
+            Logger.error("UnixSocketConnectionManager: cannot remove " + path + " (" + e.getMessage() + ")");
+        }
+    }
+}
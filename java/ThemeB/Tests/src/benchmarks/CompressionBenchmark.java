@@ -0,0 +1,126 @@
+package benchmarks;
+
+import com.google.gson.JsonArray;
+import connectioninterfaces.IConnection;
+import jsonrpclibrary.*;
+import service.ServiceMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * Bandwidth vs cpu trade-off of the message compression.
+ * A getServicesList response of growing size is sent through an in-memory connection, with the compression disabled
+ * and with some Deflater levels : for each case the bytes on the wire and the time to send (encode and compress)
+ * and to receive (inflate and decode) a message are printed.
+ * <p>
+ * Run it with: java benchmarks.CompressionBenchmark [iterations]
+ */
+public class CompressionBenchmark {
+
+    private static final int[] SERVICES = {1, 4, 16, 64, 256, 1024, 4096};
+    private static final int[] LEVELS = {Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION};
+
+    /**
+     * Keeps the last sent frame, which is what the next read returns
+     */
+    private static class LoopbackConnection implements IConnection {
+        private byte[] frame;
+        private long sentBytes = 0;
+
+        @Override
+        public String read() {
+            return new String(frame, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String read(long milliseconds) {
+            return read();
+        }
+
+        @Override
+        public byte[] readBytes() {
+            return frame;
+        }
+
+        @Override
+        public byte[] readBytes(long milliseconds) {
+            return frame;
+        }
+
+        @Override
+        public void consume() {
+        }
+
+        @Override
+        public void send(String message) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            send(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void send(byte[] message, int offset, int length) {
+            frame = new byte[length];
+            System.arraycopy(message, offset, frame, 0, length);
+            sentBytes += length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static JsonRpcResponse servicesList(int n) {
+        JsonArray result = new JsonArray();
+        for (int i = 0; i < n; i++) {
+            ServiceMetadata s = new ServiceMetadata("service" + i, "owner" + (i % 17));
+            s.setApplicationField(i % 2 == 0 ? "math" : "text");
+            s.setDescription("a service registered for the benchmark, number " + i);
+            s.addKeyword("keyword" + (i % 31));
+            s.addKeyword("benchmark");
+            result.add(s.toJson());
+        }
+        return new JsonRpcResponse(result, new ID(1));
+    }
+
+    private static void run(JsonRpcResponse response, int threshold, int level, int iterations) throws Exception {
+        LoopbackConnection connection = new LoopbackConnection();
+        JsonRpcManager sender = new JsonRpcManager(connection);
+        JsonRpcManager receiver = new JsonRpcManager(connection);
+        sender.setCompression(threshold, level);
+
+        for (int i = 0; i < iterations / 10 + 1; i++) { //warm up
+            sender.send(response);
+            receiver.listenResponse(0);
+        }
+
+        long sendTime = 0, receiveTime = 0;
+        connection.sentBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            long t0 = System.nanoTime();
+            sender.send(response);
+            long t1 = System.nanoTime();
+            receiver.listenResponse(0);
+            long t2 = System.nanoTime();
+            sendTime += t1 - t0;
+            receiveTime += t2 - t1;
+        }
+
+        String name = threshold < 0 ? "none" : "deflate " + level;
+        System.out.printf("%-12s %12d %12.1f %12.1f%n", name, connection.sentBytes / iterations,
+                sendTime / 1000.0 / iterations, receiveTime / 1000.0 / iterations);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        for (int n : SERVICES) {
+            JsonRpcResponse response = servicesList(n);
+            System.out.println();
+            System.out.println(n + " services, " + response.toJson().length() + " characters");
+            System.out.printf("%-12s %12s %12s %12s%n", "compression", "wire bytes", "send (us)", "receive (us)");
+            run(response, JsonRpcManager.NO_COMPRESSION, 0, iterations);
+            for (int level : LEVELS) run(response, 0, level, iterations);
+        }
+    }
+}
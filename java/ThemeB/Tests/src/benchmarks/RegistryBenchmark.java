@@ -0,0 +1,104 @@
+package benchmarks;
+
+import broker.ServiceRegistry;
+import com.google.gson.JsonArray;
+import searchstrategy.AndSearchStrategy;
+import searchstrategy.ApplicationFieldSearchStrategy;
+import searchstrategy.KeywordSearchStrategy;
+import searchstrategy.NotSearchStrategy;
+import searchstrategy.OrSearchStrategy;
+import searchstrategy.OwnerSearchStrategy;
+import searchstrategy.SearchStrategy;
+import searchstrategy.TitleSearchStrategy;
+import service.ServiceMetadata;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Directory searches on a big registry : for each query the time of a scan of every service (filterList) and of the
+ * search through the indexes of the registry are printed, with the number of services found.
+ * <p>
+ * Run it with: java benchmarks.RegistryBenchmark [services]
+ */
+public class RegistryBenchmark {
+
+    private static final String[] FIELDS = {"Math", "Text", "Image", "Audio", "Storage", "Network", "Time", "Crypto"};
+
+    private static ServiceMetadata service(int n) {
+        ServiceMetadata s = new ServiceMetadata("method" + n, "owner" + n % 1000);
+        s.setApplicationField(FIELDS[n % FIELDS.length]);
+        s.addKeyword("k" + n % 100);
+        s.addKeyword("k" + n % 37);
+        return s;
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        ServiceRegistry registry = new ServiceRegistry();
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) registry.add(Integer.toString(i), service(i));
+        System.out.printf("%d services registered in %.1f ms%n", size, (System.nanoTime() - start) / 1e6);
+
+        System.out.printf("%-40s %10s %12s %12s%n", "query", "found", "scan (us)", "index (us)");
+        run(registry, "title method12345", new TitleSearchStrategy("method12345"));
+        run(registry, "title thod999", new TitleSearchStrategy("thod999"));
+        run(registry, "owner owner42", new OwnerSearchStrategy("owner42"));
+        run(registry, "owner er7 (many)", new OwnerSearchStrategy("er7"));
+        run(registry, "keyword k42", new KeywordSearchStrategy("k42"));
+        run(registry, "keywords k42 or k5 or k17", new KeywordSearchStrategy(Arrays.asList("k42", "k5", "k17")));
+        run(registry, "keywords k42 and k5", new KeywordSearchStrategy(Arrays.asList("k42", "k5"), true));
+        run(registry, "Image and k42 and title thod9", new AndSearchStrategy(new ApplicationFieldSearchStrategy("Image"),
+                new KeywordSearchStrategy("k42"), new TitleSearchStrategy("thod9")));
+        run(registry, "owner er7 and not Math", new AndSearchStrategy(new OwnerSearchStrategy("er7"),
+                new NotSearchStrategy(new ApplicationFieldSearchStrategy("Math"))));
+        run(registry, "(Math or Time) and k5", new AndSearchStrategy(new OrSearchStrategy(
+                new ApplicationFieldSearchStrategy("Math"), new ApplicationFieldSearchStrategy("Time")),
+                new KeywordSearchStrategy("k5")));
+        run(registry, "not (k1 or k2)", new NotSearchStrategy(new KeywordSearchStrategy(Arrays.asList("k1", "k2"))));
+
+        // the list of every service, and what a node that has it gets when it synchronizes
+        System.out.printf("%nall services as json : %.1f ms made again, %.4f ms cached%n",
+                timeMs(() -> {
+                    JsonArray array = new JsonArray();
+                    for (ServiceMetadata s : registry.getAll()) array.add(s.toJson());
+                }), timeMs(registry::getAllJson));
+        long epoch = registry.getEpoch(), version = registry.getVersion();
+        System.out.printf("sync : every service %d bytes, nothing changed %d bytes",
+                registry.getChangesSince(-1, -1).toString().length(),
+                registry.getChangesSince(epoch, version).toString().length());
+        for (int i = 0; i < 10; i++) registry.remove(Integer.toString(i));
+        System.out.printf(", 10 deleted %d bytes%n", registry.getChangesSince(epoch, version).toString().length());
+    }
+
+    private static double timeMs(Runnable task) {
+        for (int i = 0; i < 3; i++) task.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) task.run();
+        return (System.nanoTime() - start) / 1e7;
+    }
+
+    private static void run(ServiceRegistry registry, String name, SearchStrategy strategy) {
+        int found = strategy.search(registry).size();
+        if (found != strategy.filterList(registry.getAll()).size())
+            throw new IllegalStateException(name + " : the search and the scan disagree");
+        System.out.printf("%-40s %10d %12.1f %12.1f%n", name, found,
+                time(() -> strategy.filterList(registry.getAll())), time(() -> strategy.search(registry)));
+    }
+
+    /**
+     * @return the mean time of a call in microseconds, once the JIT has warmed up
+     */
+    private static double time(java.util.function.Supplier<List<ServiceMetadata>> query) {
+        for (int i = 0; i < 20; i++) query.get();
+        int iterations = 0;
+        long start = System.nanoTime(), elapsed;
+        do {
+            query.get();
+            iterations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < 500_000_000L && iterations < 100000);
+        return elapsed / 1e3 / iterations;
+    }
+}
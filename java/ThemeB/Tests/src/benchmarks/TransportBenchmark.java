@@ -0,0 +1,187 @@
+package benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import connectioninterfaces.IConnection;
+import connectioninterfaces.IConnectionFactory;
+import connectioninterfaces.IConnectionManager;
+import inprocessimplementation.InProcessConnectionFactory;
+import inprocessimplementation.InProcessConnectionManager;
+import jsonrpclibrary.ID;
+import jsonrpclibrary.JsonRpcManager;
+import jsonrpclibrary.JsonRpcRequest;
+import jsonrpclibrary.JsonRpcResponse;
+import jsonrpclibrary.ParseException;
+import sharedmemoryimplementation.SharedMemoryConnectionFactory;
+import sharedmemoryimplementation.SharedMemoryConnectionManager;
+import tcpimplementation.TcpConnectionFactory;
+import tcpimplementation.TcpConnectionManager;
+import tcpimplementation.UnixSocketConnectionFactory;
+import tcpimplementation.UnixSocketConnectionManager;
+import zeromqimplementation.ZeroMQConnectionFactory;
+import zeromqimplementation.ZeroMQConnectionManager;
+
+/**
+ * ZeroMQ vs NIO tcp vs unix domain sockets vs shared memory vs in-process transport.
+ * An echo server sends back every message of a client : for growing message sizes the round trip time of a single
+ * message and the throughput of a window of pipelined messages are printed for each transport.
+ * Then a json-rpc request is answered through each transport : the in-process one passes the messages by reference,
+ * which gives the cost of the transport and of the codec together.
+ * <p>
+ * The unix domain socket rows need java 16 or later.
+ * <p>
+ * Run it with: java benchmarks.TransportBenchmark [iterations]
+ */
+public class TransportBenchmark {
+
+    private static final int[] SIZES = {64, 1024, 16 * 1024, 256 * 1024};
+    private static final int WINDOW = 64;
+
+    private static void echo(IConnectionManager manager) {
+        Thread server = new Thread(() -> {
+            while (true) {
+                IConnection connection = manager.acceptConnection();
+                if (connection == null) return;
+                Thread t = new Thread(() -> {
+                    try {
+                        while (true) {
+                            byte[] message = connection.readBytes();
+                            connection.consume();
+                            connection.send(message, 0, message.length);
+                        }
+                    } catch (IllegalStateException e) {
+                        //the client is gone
+                    }
+                });
+                t.setDaemon(true);
+                t.start();
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+    }
+
+    private static void run(String name, IConnectionFactory factory, int iterations) throws Exception {
+        IConnection connection = factory.createConnection();
+        for (int size : SIZES) {
+            byte[] message = new byte[size];
+            int count = Math.max(10, iterations * 64 / Math.max(64, size / 16));
+
+            for (int i = 0; i < count / 10 + 1; i++) { //warm up
+                connection.send(message, 0, size);
+                connection.readBytes(5000);
+                connection.consume();
+            }
+
+            long t0 = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                connection.send(message, 0, size);
+                connection.readBytes(5000);
+                connection.consume();
+            }
+            long roundTrip = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            int sent = 0, received = 0;
+            while (received < count) {
+                while (sent < count && sent - received < WINDOW) {
+                    connection.send(message, 0, size);
+                    sent++;
+                }
+                connection.readBytes(5000);
+                connection.consume();
+                received++;
+            }
+            long pipelined = System.nanoTime() - t0;
+
+            System.out.printf("%-8s %10d %10d %14.1f %14.0f %12.1f%n", name, size, count,
+                    roundTrip / 1000.0 / count, count * 1e9 / pipelined,
+                    2.0 * count * size / (pipelined / 1e9) / (1024 * 1024));
+        }
+        connection.close();
+    }
+
+    private static void echoJsonRpc(IConnectionManager manager) {
+        Thread server = new Thread(() -> {
+            while (true) {
+                IConnection connection = manager.acceptConnection();
+                if (connection == null) return;
+                JsonRpcManager rpc = new JsonRpcManager(connection);
+                Thread t = new Thread(() -> {
+                    try {
+                        while (true) {
+                            JsonRpcRequest request = (JsonRpcRequest) rpc.listenRequest();
+                            rpc.send(new JsonRpcResponse(request.getParams(), request.getID()));
+                        }
+                    } catch (ParseException | IllegalStateException e) {
+                        //the client is gone
+                    }
+                });
+                t.setDaemon(true);
+                t.start();
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+    }
+
+    private static void runJsonRpc(String name, IConnectionFactory factory, int iterations) throws Exception {
+        JsonRpcManager rpc = new JsonRpcManager(factory.createConnection());
+        JsonObject params = new JsonObject();
+        params.addProperty("method", "sum");
+        JsonArray values = new JsonArray();
+        for (int i = 0; i < 16; i++) values.add(i);
+        params.add("values", values);
+
+        for (int i = 0; i < iterations / 10 + 1; i++) { //warm up
+            rpc.send(new JsonRpcRequest("echo", params, new ID(i)));
+            rpc.listenResponse(5000);
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            rpc.send(new JsonRpcRequest("echo", params, new ID(i)));
+            rpc.listenResponse(5000);
+        }
+        System.out.printf("%-8s %10d %14.1f%n", name, iterations, (System.nanoTime() - t0) / 1000.0 / iterations);
+        rpc.getConnection().close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        boolean unix = UnixSocketConnectionManager.isSupported();
+        String socket = System.getProperty("java.io.tmpdir") + "/TransportBenchmark.sock";
+
+        echo(new ZeroMQConnectionManager(6900));
+        echo(new TcpConnectionManager(6901));
+        if (unix) echo(new UnixSocketConnectionManager(socket));
+        echo(new SharedMemoryConnectionManager("TransportBenchmark"));
+        echo(new InProcessConnectionManager("TransportBenchmark"));
+        echoJsonRpc(new ZeroMQConnectionManager(6902));
+        echoJsonRpc(new TcpConnectionManager(6903));
+        if (unix) echoJsonRpc(new UnixSocketConnectionManager(socket + ".json"));
+        echoJsonRpc(new SharedMemoryConnectionManager("TransportBenchmark.json"));
+        echoJsonRpc(new InProcessConnectionManager("TransportBenchmark.json"));
+
+        System.out.printf("%-8s %10s %10s %14s %14s %12s%n", "", "bytes", "messages", "round trip (us)",
+                "pipelined msg/s", "MiB/s");
+        for (int i = 0; i < 2; i++) { //the first pass warms up the jit
+            run("zeromq", new ZeroMQConnectionFactory("tcp://localhost:6900"), iterations);
+            run("tcp", new TcpConnectionFactory("tcp://localhost:6901"), iterations);
+            if (unix) run("unix", new UnixSocketConnectionFactory(socket), iterations);
+            run("shm", new SharedMemoryConnectionFactory("TransportBenchmark"), iterations);
+            run("inproc", new InProcessConnectionFactory("TransportBenchmark"), iterations);
+            System.out.println();
+        }
+
+        System.out.printf("%-8s %10s %14s%n", "json-rpc", "calls", "round trip (us)");
+        for (int i = 0; i < 2; i++) {
+            runJsonRpc("zeromq", new ZeroMQConnectionFactory("tcp://localhost:6902"), iterations);
+            runJsonRpc("tcp", new TcpConnectionFactory("tcp://localhost:6903"), iterations);
+            if (unix) runJsonRpc("unix", new UnixSocketConnectionFactory(socket + ".json"), iterations);
+            runJsonRpc("shm", new SharedMemoryConnectionFactory("TransportBenchmark.json"), iterations);
+            runJsonRpc("inproc", new InProcessConnectionFactory("TransportBenchmark.json"), iterations);
+            System.out.println();
+        }
+        System.exit(0);
+    }
+}
@@ -3,13 +3,29 @@ package tests;
 import connectioninterfaces.IConnection;
 import connectioninterfaces.IConnectionFactory;
 import connectioninterfaces.IConnectionManager;
+import connectioninterfaces.PooledConnectionFactory;
 import connectioninterfaces.TimeoutException;
 import jsonrpclibrary.JsonRpcManager;
+import inprocessimplementation.InProcessConnectionFactory;
+import inprocessimplementation.InProcessConnectionManager;
 import org.junit.Test;
+import sharedmemoryimplementation.SharedMemoryConnectionFactory;
+import sharedmemoryimplementation.SharedMemoryConnectionManager;
+import tcpimplementation.TcpConnectionFactory;
+import tcpimplementation.TcpConnectionManager;
+import tcpimplementation.UnixSocketConnectionFactory;
+import tcpimplementation.UnixSocketConnectionManager;
 import zeromqimplementation.ZeroMQConnectionFactory;
 import zeromqimplementation.ZeroMQConnectionManager;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 public class ConnectionTest {
     @Test
@@ -58,4 +74,284 @@ public class ConnectionTest {
     }
 
 
+    @Test(timeout = 5000)
+    public void pooled() throws Exception {
+        IConnectionManager connectionManager = new ZeroMQConnectionManager(6803);
+        ZeroMQConnectionFactory zeroMQFactory = new ZeroMQConnectionFactory("tcp://localhost:6803");
+        AtomicInteger created = new AtomicInteger();
+        PooledConnectionFactory connectionFactory = new PooledConnectionFactory(() -> {
+            created.incrementAndGet();
+            return zeroMQFactory.createConnection();
+        });
+
+        Thread server = new Thread(() -> { // like the broker: a connection for every request
+            while (true) {
+                IConnection receiver = connectionManager.acceptConnection();
+                String msg = receiver.read();
+                receiver.consume();
+                if (!msg.equals("no answer")) receiver.send("re:" + msg);
+                receiver.close();
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        for (int i = 0; i < 20; i++) {
+            IConnection sender = connectionFactory.createConnection();
+            sender.send("hello " + i);
+            assertEquals("re:hello " + i, sender.read(1000));
+            sender.consume();
+            sender.close();
+        }
+        assertEquals(1, created.get());
+        assertEquals(1, connectionFactory.idleConnections());
+
+        IConnection sender = connectionFactory.createConnection();
+        sender.send("no answer");
+        try {
+            sender.read(100);
+            fail();
+        } catch (TimeoutException e) {
+            sender.close(); // an answer could still arrive: the connection is not reused
+        }
+        assertEquals(0, connectionFactory.idleConnections());
+    }
+
+    @Test(timeout = 5000)
+    public void idle_eviction() throws Exception {
+        ZeroMQConnectionManager connectionManager = new ZeroMQConnectionManager(6804, Runnable::run);
+        connectionManager.setIdleTimeout(100);
+        ZeroMQConnectionFactory connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6804");
+        IConnection sender = connectionFactory.createConnection();
+
+        sender.send("hello");
+        IConnection receiver = connectionManager.acceptConnection();
+        assertEquals("hello", receiver.read());
+        receiver.consume();
+        assertEquals(1, connectionManager.openConnections());
+
+        Thread.sleep(300);
+        assertEquals(0, connectionManager.openConnections());
+
+        // the same client is accepted again as a new connection
+        sender.send("hello again");
+        IConnection again = connectionManager.acceptConnection();
+        assertNotSame(receiver, again);
+        assertEquals("hello again", again.read(1000));
+        again.consume();
+        again.send("hi!");
+        assertEquals("hi!", sender.read(1000));
+        sender.consume();
+    }
+
+    @Test(timeout = 5000)
+    public void tcp() throws Exception {
+        TcpConnectionManager connectionManager = new TcpConnectionManager(6806);
+        TcpConnectionFactory connectionFactory = new TcpConnectionFactory("tcp://localhost:6806");
+        IConnection sender = connectionFactory.createConnection();
+
+        sender.send("hello!");
+        IConnection receiver = connectionManager.acceptConnection();
+        assertEquals("hello!", receiver.read());
+        receiver.consume();
+        receiver.send("hi!");
+        assertEquals("hi!", sender.read(1000));
+        sender.consume();
+        try {
+            sender.read(100);
+            fail();
+        } catch (TimeoutException e) {
+            // nothing else was sent
+        }
+
+        // pipelined frames, and frames bigger than the socket buffers
+        byte[] big = new byte[3 * 1024 * 1024];
+        for (int i = 0; i < big.length; i++) big[i] = (byte) i;
+        for (int i = 0; i < 1000; i++) receiver.send("message " + i);
+        receiver.send(big, 0, big.length);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("message " + i, sender.read(1000));
+            sender.consume();
+        }
+        assertArrayEquals(big, sender.readBytes(1000));
+        sender.consume();
+
+        // the server closes the connection of a request, the client keeps its socket for the next one
+        receiver.close();
+        sender.send("again");
+        IConnection next = connectionManager.acceptConnection();
+        assertNotSame(receiver, next);
+        assertEquals("again", next.read(1000));
+        next.consume();
+
+        sender.close();
+        try {
+            next.read(1000);
+            fail();
+        } catch (IllegalStateException e) {
+            // the client is gone
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void in_process() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("ConnectionTest");
+        InProcessConnectionFactory connectionFactory = new InProcessConnectionFactory("ConnectionTest");
+        IConnection sender = connectionFactory.createConnection();
+
+        sender.send("hello!");
+        IConnection receiver = connectionManager.acceptConnection();
+        assertEquals("hello!", receiver.read());
+        receiver.consume();
+        receiver.send("hi!");
+        assertEquals("hi!", sender.read(1000));
+        sender.consume();
+        try {
+            sender.read(100);
+            fail();
+        } catch (TimeoutException e) {
+            // nothing else was sent
+        }
+
+        // the messages the closed connection did not read go to the next one
+        sender.send("first");
+        sender.send("second");
+        assertEquals("first", receiver.read(1000));
+        receiver.consume();
+        receiver.close();
+        IConnection next = connectionManager.acceptConnection();
+        assertEquals("second", next.read(1000));
+        next.consume();
+
+        sender.close();
+        try {
+            next.read(1000);
+            fail();
+        } catch (IllegalStateException e) {
+            // the client is gone
+        }
+        connectionManager.close();
+        try {
+            connectionFactory.createConnection();
+            fail();
+        } catch (IllegalStateException e) {
+            // nobody listens anymore
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void shared_memory() throws Exception {
+        SharedMemoryConnectionManager connectionManager = new SharedMemoryConnectionManager("ConnectionTest");
+        // small rings : the big message below is sent in pieces
+        SharedMemoryConnectionFactory connectionFactory = new SharedMemoryConnectionFactory("ConnectionTest", 256, ForkJoinPool.commonPool());
+        IConnection sender = connectionFactory.createConnection();
+
+        sender.send("hello!");
+        IConnection receiver = connectionManager.acceptConnection();
+        assertEquals("hello!", receiver.read());
+        receiver.consume();
+        receiver.send("hi!");
+        assertEquals("hi!", sender.read(1000));
+        sender.consume();
+
+        byte[] big = new byte[10000];
+        for (int i = 0; i < big.length; i++) big[i] = (byte) i;
+        sender.send(big, 0, big.length);
+        assertArrayEquals(big, receiver.readBytes(1000));
+        receiver.consume();
+
+        // the messages the closed connection did not read go to the next one
+        sender.send("first");
+        sender.send("second");
+        assertEquals("first", receiver.read(1000));
+        receiver.consume();
+        receiver.close();
+        IConnection next = connectionManager.acceptConnection();
+        assertEquals("second", next.read(1000));
+        next.consume();
+
+        sender.close();
+        try {
+            next.read(1000);
+            fail();
+        } catch (IllegalStateException e) {
+            // the client is gone
+        }
+        connectionManager.close();
+        try {
+            connectionFactory.createConnection();
+            fail();
+        } catch (IllegalStateException e) {
+            // nobody listens anymore
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void unix_socket() throws Exception {
+        assumeTrue(UnixSocketConnectionManager.isSupported()); //java 16 or later
+        String path = System.getProperty("java.io.tmpdir") + "/ConnectionTest.sock";
+        UnixSocketConnectionManager connectionManager = new UnixSocketConnectionManager(path);
+        UnixSocketConnectionFactory connectionFactory = new UnixSocketConnectionFactory("unix://" + path);
+        IConnection sender = connectionFactory.createConnection();
+
+        sender.send("hello!");
+        IConnection receiver = connectionManager.acceptConnection();
+        assertEquals("hello!", receiver.read());
+        receiver.consume();
+        receiver.send("hi!");
+        assertEquals("hi!", sender.read(1000));
+        sender.consume();
+
+        byte[] big = new byte[3 * 1024 * 1024];
+        for (int i = 0; i < big.length; i++) big[i] = (byte) i;
+        receiver.send(big, 0, big.length);
+        assertArrayEquals(big, sender.readBytes(1000));
+        sender.consume();
+
+        sender.close();
+        try {
+            receiver.read(1000);
+            fail();
+        } catch (IllegalStateException e) {
+            // the client is gone
+        }
+        connectionManager.close();
+        try {
+            connectionFactory.createConnection();
+            fail();
+        } catch (IllegalStateException e) {
+            // the socket file has been removed
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void unix_socket_in_use() throws Exception {
+        assumeTrue(UnixSocketConnectionManager.isSupported()); //java 16 or later
+        String path = System.getProperty("java.io.tmpdir") + "/ConnectionTest-in-use.sock";
+        UnixSocketConnectionManager connectionManager = new UnixSocketConnectionManager(path);
+        try {
+            new UnixSocketConnectionManager(path);
+            fail();
+        } catch (IllegalStateException e) {
+            // the first server is still listening
+        }
+        IConnection sender = new UnixSocketConnectionFactory(path).createConnection();
+        sender.send("still mine");
+        IConnection receiver = connectionManager.acceptConnection();
+        assertEquals("still mine", receiver.read(1000));
+        sender.close();
+        connectionManager.close();
+
+        File file = new File(System.getProperty("java.io.tmpdir"), "ConnectionTest-not-a-socket");
+        Files.write(file.toPath(), "data".getBytes(StandardCharsets.UTF_8));
+        try {
+            new UnixSocketConnectionManager(file.getPath());
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(file.exists()); // a regular file is never removed
+        } finally {
+            file.delete();
+        }
+    }
+
 }
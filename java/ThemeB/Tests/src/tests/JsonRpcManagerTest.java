@@ -1,14 +1,30 @@
 package tests;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import connectioninterfaces.IConnection;
+import connectioninterfaces.TimeoutException;
 import jsonrpclibrary.Error;
 import jsonrpclibrary.*;
+import inprocessimplementation.InProcessConnectionFactory;
+import inprocessimplementation.InProcessConnectionManager;
 import org.junit.Test;
 import zeromqimplementation.ZeroMQConnectionFactory;
 import zeromqimplementation.ZeroMQConnectionManager;
 
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.zip.Deflater;
+
 import static org.junit.Assert.*;
 
 public class JsonRpcManagerTest {
@@ -48,6 +64,135 @@ public class JsonRpcManagerTest {
 
 
 
+    @Test (timeout = 1000)
+    public void listenRequestLazy() throws Exception {
+        ZeroMQConnectionManager connectionManager = new ZeroMQConnectionManager(6795);
+        ZeroMQConnectionFactory connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6795");
+        IConnection connection = connectionFactory.createConnection();
+
+        String sent = "{\"jsonrpc\": \"2.0\", \"method\": \"subtract\", \"params\": {\"a\": [42, 23], \"b\": \"x\\\"]}\"}, \"id\": 1}";
+        connection.send(sent);
+        JsonRpcManager managerReceiver = new JsonRpcManager(connectionManager.acceptConnection(), true);
+        JsonRpcRequest request = (JsonRpcRequest) managerReceiver.listenRequest();
+        assertEquals("subtract", request.getMethod());
+        assertEquals(new ID(1), request.getID());
+        assertEquals(sent, request.toString()); // forwarded as it was received
+        assertEquals(23, request.getParams().getAsJsonObject().get("a").getAsJsonArray().get(1).getAsInt());
+        assertEquals("x\"]}", request.getParams().getAsJsonObject().get("b").getAsString());
+        assertEquals(sent, request.toString());
+    }
+
+    @Test (timeout = 1000)
+    public void forwardBytes() throws Exception {
+        ZeroMQConnectionManager connectionManager = new ZeroMQConnectionManager(6805);
+        ZeroMQConnectionFactory connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6805");
+        IConnection connection = connectionFactory.createConnection();
+
+        byte[] sent = "{\"jsonrpc\":\"2.0\",\"m\\u0065thod\":\"caf\u00e9\",\"params\":[\"\u20ac \ud83d\ude00\"],\"id\":\"\u00e0\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(sent.length);
+        direct.put(sent).flip();
+        connection.send(direct);
+        assertFalse(direct.hasRemaining());
+
+        JsonRpcManager managerReceiver = new JsonRpcManager(connectionManager.acceptConnection(), true);
+        JsonRpcRequest request = (JsonRpcRequest) managerReceiver.listenRequest();
+        assertEquals("caf\u00e9", request.getMethod());
+        assertEquals(new ID("\u00e0"), request.getID());
+        managerReceiver.send(request); // forwarded as the bytes it was received as
+        assertEquals("\u20ac \ud83d\ude00", request.getParams().getAsJsonArray().get(0).getAsString());
+
+        ByteBuffer received = connection.readBuffer(1000);
+        byte[] forwarded = new byte[received.remaining()];
+        received.get(forwarded);
+        assertArrayEquals(sent, forwarded);
+        connection.consume();
+    }
+
+    @Test (timeout = 2000)
+    public void inProcessByReference() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("JsonRpcManagerTest");
+        InProcessConnectionFactory connectionFactory = new InProcessConnectionFactory("JsonRpcManagerTest");
+        JsonRpcManager managerSender = new JsonRpcManager(connectionFactory.createConnection());
+
+        JsonRpcRequest sent = new JsonRpcRequest("subtract", new JsonPrimitive(42), new ID(1));
+        managerSender.send(sent);
+        JsonRpcManager managerReceiver = new JsonRpcManager(connectionManager.acceptConnection());
+        assertSame(sent, managerReceiver.listenRequest()); // nothing encoded nor decoded
+
+        JsonRpcResponse answer = new JsonRpcResponse(new JsonPrimitive(41), new ID(1));
+        managerReceiver.sendAsync(answer);
+        assertSame(answer, managerSender.listenResponseAsync(1000).get());
+
+        // a peer that reads bytes gets the json of the message
+        managerSender.send(sent);
+        assertEquals(sent.toJson(), managerReceiver.getConnection().read(1000));
+        managerReceiver.getConnection().consume();
+        connectionManager.close();
+    }
+
+    @Test(timeout = 5000)
+    public void withID() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("JsonRpcManagerTest.withID");
+        IConnection connection = new InProcessConnectionFactory("JsonRpcManagerTest.withID").createConnection();
+        connection.send("{\"jsonrpc\":\"2.0\",\"method\":\"sum\",\"params\":[1, 2],\"id\":\"client\"}");
+        connection.send("{\"jsonrpc\":\"2.0\",\"result\":{\"sum\": 3},\"id\":7}");
+        JsonRpcManager lazy = new JsonRpcManager(connectionManager.acceptConnection(), true);
+
+        // the copies get the new id, the params and the result are copied as they were received
+        JsonRpcRequest request = (JsonRpcRequest) lazy.listenRequest();
+        JsonRpcRequest forwarded = request.withID(new ID(7));
+        assertEquals(new ID("client"), request.getID());
+        assertEquals(new ID(7), forwarded.getID());
+        assertEquals("{\"jsonrpc\":\"2.0\",\"method\":\"sum\",\"id\":7,\"params\":[1, 2]}", forwarded.toJson());
+        assertEquals(2, forwarded.getParams().getAsJsonArray().get(1).getAsInt());
+
+        JsonRpcResponse response = (JsonRpcResponse) lazy.listenResponse();
+        JsonRpcResponse answer = response.withID(request.getID());
+        assertEquals(new ID(7), response.getID());
+        assertEquals("{\"jsonrpc\":\"2.0\",\"id\":\"client\",\"result\":{\"sum\": 3}}", answer.toJson());
+        assertEquals(3, answer.getResult().getAsJsonObject().get("sum").getAsInt());
+        connectionManager.close();
+    }
+
+    @Test(timeout = 5000)
+    public void sharedLazyRequest() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("JsonRpcManagerTest.shared");
+        IConnection connection = new InProcessConnectionFactory("JsonRpcManagerTest.shared").createConnection();
+        StringBuilder params = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) params.append(i == 0 ? "" : ",").append("\"\u20ac").append(i).append("\"");
+        params.append("]"); // longer than a chunk, with characters of more bytes across the chunks
+        connection.send("{\"jsonrpc\":\"2.0\",\"method\":\"sum\",\"params\":" + params + ",\"id\":1}");
+        JsonRpcRequest request = (JsonRpcRequest) new JsonRpcManager(connectionManager.acceptConnection(), true).listenRequest();
+
+        // every thread gets the same params, decoded once, and the copies are written as they were received
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        Map<Integer, JsonElement> decoded = new ConcurrentHashMap<>();
+        Map<Integer, String> copies = new ConcurrentHashMap<>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int n = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    copies.put(n, request.withID(new ID(n)).toJson());
+                    decoded.put(n, request.getParams());
+                } catch (InterruptedException ignored) {
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+        for (int i = 0; i < threads; i++) {
+            assertSame(decoded.get(0), decoded.get(i));
+            assertEquals("{\"jsonrpc\":\"2.0\",\"method\":\"sum\",\"id\":" + i + ",\"params\":" + params + "}", copies.get(i));
+        }
+        assertEquals("\u20ac1999", request.getParams().getAsJsonArray().get(1999).getAsString());
+        connectionManager.close();
+    }
+
     @Test
     public void JsonRpcResponse() throws Exception{
         JsonRpcResponse response=new JsonRpcResponse(new JsonPrimitive(2),new ID(2));
@@ -122,6 +267,217 @@ public class JsonRpcManagerTest {
         assertNull(JsonRpcResponse.fromJson(batch.toJson()));
     }
 
+    @Test (timeout = 1000)
+    public void sendBigBatch() throws Exception {
+        ZeroMQConnectionManager connectionManager = new ZeroMQConnectionManager(6796);
+        ZeroMQConnectionFactory connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6796");
+        JsonRpcManager managerSender = new JsonRpcManager(connectionFactory.createConnection());
+
+        JsonRpcBatchRequest batch = new JsonRpcBatchRequest();
+        for (int i = 0; i < 10000; i++) {
+            JsonArray array = new JsonArray();
+            array.add(i);
+            array.add("x");
+            batch.add(new JsonRpcRequest("sum", array, new ID(i)));
+        }
+        StringBuilder written = new StringBuilder();
+        batch.write(written);
+        assertEquals(batch.toJson(), written.toString());
+
+        managerSender.send(batch);
+        JsonRpcManager managerReceiver = new JsonRpcManager(connectionManager.acceptConnection());
+        JsonRpcBatchRequest received = (JsonRpcBatchRequest) managerReceiver.listenRequest();
+        assertEquals(10000, received.get().size());
+        assertEquals(9999, received.get().get(9999).getParams().getAsJsonArray().get(0).getAsInt());
+        assertEquals(batch.toJson(), received.toJson());
+    }
+
+    @Test (timeout = 2000)
+    public void negotiateCodec() throws Exception {
+        ZeroMQConnectionManager connectionManager = new ZeroMQConnectionManager(6797);
+        ZeroMQConnectionFactory connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6797");
+        JsonRpcManager managerSender = new JsonRpcManager(connectionFactory.createConnection());
+
+        Thread receiver = new Thread(() -> {
+            JsonRpcManager managerReceiver = new JsonRpcManager(connectionManager.acceptConnection());
+            Thread poller = new Thread(connectionManager::acceptConnection); // keeps forwarding the next messages
+            poller.setDaemon(true);
+            poller.start();
+            try {
+                JsonRpcRequest request = (JsonRpcRequest) managerReceiver.listenRequest(); // the handshake is answered here
+                managerReceiver.send(new JsonRpcResponse(request.getParams(), request.getID()));
+            } catch (ParseException e) {
+                e.printStackTrace();
+            }
+        });
+        receiver.start();
+
+        assertEquals(JsonRpcCodecs.CBOR, managerSender.negotiateCodec(1000));
+        JsonArray array = new JsonArray();
+        array.add(42);
+        array.add(-23.5);
+        array.add("\u00e8");
+        managerSender.send(new JsonRpcRequest("echo", array, new ID(1)));
+        JsonRpcResponse response = (JsonRpcResponse) managerSender.listenResponse(1000);
+        assertEquals(array, response.getResult());
+        assertEquals(new ID(1), response.getID());
+    }
+
+    @Test (timeout = 2000)
+    public void compressedMessages() throws Exception {
+        ZeroMQConnectionManager connectionManager = new ZeroMQConnectionManager(6798);
+        ZeroMQConnectionFactory connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6798");
+        JsonRpcManager managerSender = new JsonRpcManager(connectionFactory.createConnection());
+        managerSender.setCompression(0, Deflater.BEST_COMPRESSION);
+
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < 1000; i++) {
+            JsonObject service = new JsonObject();
+            service.addProperty("method", "sum@" + i);
+            service.addProperty("owner", "owner \u00e8");
+            array.add(service);
+        }
+
+        Thread receiver = new Thread(() -> {
+            JsonRpcManager managerReceiver = new JsonRpcManager(connectionManager.acceptConnection());
+            managerReceiver.setCompression(1024, Deflater.BEST_SPEED);
+            Thread poller = new Thread(connectionManager::acceptConnection); // keeps forwarding the next messages
+            poller.setDaemon(true);
+            poller.start();
+            try {
+                JsonRpcRequest request = (JsonRpcRequest) managerReceiver.listenRequest();
+                managerReceiver.send(new JsonRpcResponse(request.getParams(), request.getID()));
+            } catch (ParseException e) {
+                e.printStackTrace();
+            }
+        });
+        receiver.start();
+
+        managerSender.send(new JsonRpcRequest("echo", array, new ID(1)));
+        JsonRpcResponse response = (JsonRpcResponse) managerSender.listenResponse(1000);
+        assertEquals(array, response.getResult());
+        assertEquals(new ID(1), response.getID());
+    }
+
+    @Test (timeout = 1000, expected = ParseException.class)
+    public void compressedLengthTooBig() throws Exception {
+        ZeroMQConnectionManager connectionManager = new ZeroMQConnectionManager(6808);
+        ZeroMQConnectionFactory connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6808");
+        IConnection connection = connectionFactory.createConnection();
+
+        // compression marker and a declared length of 2 GB, the buffer must not be allocated
+        byte[] frame = {0x00, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x78};
+        connection.send(frame, 0, frame.length);
+
+        JsonRpcManager managerReceiver = new JsonRpcManager(connectionManager.acceptConnection());
+        try {
+            managerReceiver.listenRequest();
+        } finally {
+            managerReceiver.close();
+        }
+    }
+
+    @Test (timeout = 5000)
+    public void asyncListeners() throws Exception {
+        ZeroMQConnectionManager connectionManager = new ZeroMQConnectionManager(6799);
+        ZeroMQConnectionFactory connectionFactory = new ZeroMQConnectionFactory("tcp://localhost:6799");
+        JsonRpcManager managerSender = new JsonRpcManager(connectionFactory.createConnection());
+
+        managerSender.sendAsync(new JsonRpcRequest("echo", new JsonPrimitive(0), new ID(0))).get();
+        JsonRpcManager managerReceiver = new JsonRpcManager(connectionManager.acceptConnection());
+        Thread poller = new Thread(() -> {
+            while (true) connectionManager.acceptConnection(); // keeps forwarding the next messages
+        });
+        poller.setDaemon(true);
+        poller.start();
+
+        managerReceiver.listen(msg -> {
+            JsonRpcRequest request = (JsonRpcRequest) msg;
+            managerReceiver.send(new JsonRpcResponse(request.getParams(), request.getID()));
+        });
+
+        JsonRpcResponse first = (JsonRpcResponse) managerSender.listenResponseAsync(1000).get();
+        assertEquals(new ID(0), first.getID());
+
+        int n = 100;
+        CountDownLatch received = new CountDownLatch(n);
+        Map<ID, JsonElement> results = new ConcurrentHashMap<>();
+        managerSender.listen(msg -> {
+            JsonRpcResponse response = (JsonRpcResponse) msg;
+            results.put(response.getID(), response.getResult());
+            received.countDown();
+        });
+        for (int i = 1; i <= n; i++) managerSender.sendAsync(new JsonRpcRequest("echo", new JsonPrimitive(i), new ID(i)));
+        received.await();
+        managerSender.stopListening();
+
+        assertEquals(n, results.size());
+        for (int i = 1; i <= n; i++) assertEquals(new JsonPrimitive(i), results.get(new ID(i)));
+
+        try {
+            managerSender.listenResponseAsync(100).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void CborCodec() throws Exception {
+        JsonRpcBatchRequest batch = new JsonRpcBatchRequest();
+        JsonObject params = new JsonObject();
+        params.addProperty("num1", 12.789);
+        params.addProperty("num2", -100000000000L);
+        params.add("list", new JsonArray());
+        params.addProperty("text", "hello");
+        batch.add(new JsonRpcRequest("divide", params, new ID(2)));
+        batch.add(JsonRpcRequest.notification("nada", null));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonRpcCodecs.CBOR.write(batch, out);
+        byte[] bytes = out.toByteArray();
+        assertEquals(JsonRpcCodecs.CBOR, JsonRpcCodecs.detect(bytes));
+        JsonRpcMessage decoded = JsonRpcCodecs.CBOR.decode(bytes, false);
+        assertTrue(decoded instanceof JsonRpcBatchRequest);
+        assertEquals(batch.toJson(), decoded.toJson());
+        assertTrue(bytes.length < batch.toJson().length());
+
+        JsonRpcResponse response = JsonRpcResponse.error(new Error(42, "lol"), new ID("1337"));
+        out.reset();
+        JsonRpcCodecs.CBOR.write(response, out);
+        decoded = JsonRpcCodecs.CBOR.decode(out.toByteArray(), false);
+        assertTrue(decoded instanceof JsonRpcResponse);
+        assertEquals(response.toJson(), decoded.toJson());
+
+        assertEquals(JsonRpcCodecs.JSON, JsonRpcCodecs.detect(response.toJson().getBytes("UTF-8")));
+    }
+
+    @Test
+    public void CborBigIntegers() throws Exception {
+        BigInteger big = BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE);
+        BigInteger negative = new BigInteger("-123456789012345678901234567890");
+        JsonArray params = new JsonArray();
+        params.add(big);
+        params.add(negative);
+        params.add(Long.MIN_VALUE);
+        JsonRpcRequest request = new JsonRpcRequest("sum", params, new ID(1));
+
+        // integers that do not fit a long are written as bignums, and read back exactly
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonRpcCodecs.CBOR.write(request, out);
+        JsonRpcRequest decoded = (JsonRpcRequest) JsonRpcCodecs.CBOR.decode(out.toByteArray(), false);
+        assertEquals(big, decoded.getParams().getAsJsonArray().get(0).getAsBigInteger());
+        assertEquals(negative, decoded.getParams().getAsJsonArray().get(1).getAsBigInteger());
+        assertEquals(Long.MIN_VALUE, decoded.getParams().getAsJsonArray().get(2).getAsLong());
+        assertEquals(request.toJson(), decoded.toJson());
+
+        // the same for the numbers of a request received as json text
+        out.reset();
+        JsonRpcCodecs.CBOR.write(JsonRpcRequest.fromJson(request.toJson()), out);
+        decoded = (JsonRpcRequest) JsonRpcCodecs.CBOR.decode(out.toByteArray(), true);
+        assertEquals(request.toJson(), decoded.toJson());
+    }
+
     @Test
     public void ID(){
         ID a=new ID(1);
@@ -167,4 +523,29 @@ public class JsonRpcManagerTest {
         System.out.println("ID...ok!");
     }
 
+    @Test
+    public void IDAsKey() {
+        Map<ID, Integer> inFlight = new HashMap<>();
+        for (int i = 0; i < 10000; i++) inFlight.put(new ID(i), i);
+        inFlight.put(new ID("1000"), -1);
+        inFlight.put(new ID(1L << 40), -2);
+
+        assertEquals(10002, inFlight.size());
+        assertEquals(Integer.valueOf(1000), inFlight.get(new ID(1000)));
+        assertEquals(Integer.valueOf(-1), inFlight.get(new ID("1000")));
+        assertEquals(Integer.valueOf(-2), inFlight.get(new ID(1L << 40)));
+        assertTrue(new ID(1000).equals(1000));
+        assertTrue(new ID(1L << 40).equals(1L << 40));
+        assertEquals(new ID(new String("abc")).hashCode(), new ID("abc").hashCode());
+
+        JsonRpcResponse response = JsonRpcResponse.fromJson("{\"jsonrpc\":\"2.0\",\"result\":1,\"id\":1099511627776}");
+        assertEquals(new ID(1L << 40), response.getID());
+        assertSame(response.getID(), response.getID());
+        assertEquals(Integer.valueOf(-2), inFlight.get(response.getID()));
+
+        response = JsonRpcResponse.fromJson("{\"jsonrpc\":\"2.0\",\"error\":{\"code\":-32700,\"message\":\"\"},\"id\":null}");
+        assertTrue(response.getID().isNull());
+        assertNull(JsonRpcRequest.fromJson("{\"jsonrpc\":\"2.0\",\"method\":\"m\",\"id\":1.5}").getID());
+    }
+
 }
\ No newline at end of file
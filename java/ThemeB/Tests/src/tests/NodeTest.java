@@ -1,27 +1,64 @@
 package tests;
 
+import broker.BalancingPolicies;
+import broker.BalancingPolicy;
 import broker.Broker;
+import broker.BrokerExecutors;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import connectioninterfaces.IConnection;
+import connectioninterfaces.PooledConnectionFactory;
+import connectioninterfaces.TimeoutException;
+import inprocessimplementation.InProcessConnectionFactory;
+import inprocessimplementation.InProcessConnectionManager;
 import javafx.util.Pair;
 import jsonrpclibrary.JsonRpcBatchResponse;
+import jsonrpclibrary.ID;
+import jsonrpclibrary.JsonRpcCodecs;
+import jsonrpclibrary.JsonRpcDefaultError;
+import jsonrpclibrary.JsonRpcManager;
+import jsonrpclibrary.JsonRpcRequest;
 import jsonrpclibrary.JsonRpcResponse;
 import node.Node;
+import node.ServiceSubscription;
+import org.junit.Assume;
 import org.junit.Test;
 import searchstrategy.OwnerSearchStrategy;
 import service.IServiceMethod;
 import service.JsonRpcCustomError;
 import service.ServiceMetadata;
+import tcpimplementation.TcpConnectionFactory;
+import tcpimplementation.TcpConnectionManager;
+import tcpimplementation.UnixSocketConnectionFactory;
+import tcpimplementation.UnixSocketConnectionManager;
 import zeromqimplementation.ZeroMQConnectionFactory;
 import zeromqimplementation.ZeroMQConnectionManager;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Math.pow;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class NodeTest {
@@ -146,4 +183,604 @@ public class NodeTest {
         deleteService();
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void tcp() throws Exception {
+        TcpConnectionManager connectionManager = new TcpConnectionManager(6807);
+        node = new Node(new TcpConnectionFactory("tcp://localhost:6807"));
+
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+
+        provideService();
+        requestServiceList();
+        requestService_batch();
+        requestService();
+        requestService();
+        deleteService();
+    }
+
+    @Test(timeout = 10000)
+    public void binaryCodec() throws Exception {
+        TcpConnectionManager connectionManager = new TcpConnectionManager(6809);
+        TcpConnectionFactory connectionFactory = new TcpConnectionFactory("tcp://localhost:6809");
+        AtomicInteger handshakes = new AtomicInteger();
+        AtomicInteger binaryAnswers = new AtomicInteger();
+        node = new Node(() -> new CountingConnection(connectionFactory.createConnection(), handshakes, binaryAnswers,
+                new AtomicInteger()));
+        node.setBinaryCodec(true);
+
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+
+        // the codec is agreed by the first connection only, and the broker answers with it
+        provideService();
+        requestService();
+        requestService();
+        requestServiceList();
+        assertEquals(1, handshakes.get());
+        assertTrue(binaryAnswers.get() >= 3);
+        deleteService();
+    }
+
+    @Test(timeout = 10000)
+    public void deleteClosesConnections() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.deleteCloses");
+        InProcessConnectionFactory connectionFactory = new InProcessConnectionFactory("NodeTest.deleteCloses");
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        PooledConnectionFactory pool = new PooledConnectionFactory(() -> {
+            created.incrementAndGet();
+            return new CountingConnection(connectionFactory.createConnection(), new AtomicInteger(), new AtomicInteger(), closed);
+        });
+        node = new Node(pool);
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+
+        // the connections of the deleted services are closed or idle in the pool, none is left open
+        for (int i = 0; i < 3; i++) {
+            provideService();
+            node.deleteService(divideMetadata.getMethodName());
+            node.deleteService(powerMetadata.getMethodName());
+        }
+        assertTrue(node.showRunningServices().isEmpty());
+        assertEquals(pool.idleConnections(), created.get() - closed.get());
+        connectionManager.close();
+    }
+
+    /**
+     * Counts the codec handshakes sent, the answers received in a binary codec and the connections closed
+     */
+    private static class CountingConnection implements IConnection {
+        private final IConnection connection;
+        private final AtomicInteger handshakes, binaryAnswers, closed;
+
+        CountingConnection(IConnection connection, AtomicInteger handshakes, AtomicInteger binaryAnswers,
+                           AtomicInteger closed) {
+            this.connection = connection;
+            this.handshakes = handshakes;
+            this.binaryAnswers = binaryAnswers;
+            this.closed = closed;
+        }
+
+        private byte[] received(byte[] message) {
+            if (JsonRpcCodecs.detect(message) != JsonRpcCodecs.JSON) binaryAnswers.incrementAndGet();
+            return message;
+        }
+
+        public String read() {
+            return connection.read();
+        }
+
+        public String read(long milliseconds) throws TimeoutException {
+            return connection.read(milliseconds);
+        }
+
+        public byte[] readBytes() {
+            return received(connection.readBytes());
+        }
+
+        public byte[] readBytes(long milliseconds) throws TimeoutException {
+            return received(connection.readBytes(milliseconds));
+        }
+
+        public void consume() {
+            connection.consume();
+        }
+
+        public void send(String message) {
+            if (message.contains(JsonRpcManager.NEGOTIATE_CODEC)) handshakes.incrementAndGet();
+            connection.send(message);
+        }
+
+        public void send(byte[] message, int offset, int length) {
+            connection.send(message, offset, length);
+        }
+
+        public void close() {
+            closed.incrementAndGet();
+            connection.close();
+        }
+    }
+
+    @Test
+    public void unixSocket() throws Exception {
+        Assume.assumeTrue(UnixSocketConnectionManager.isSupported()); //java 16 or later
+        String path = System.getProperty("java.io.tmpdir") + "/NodeTest.sock";
+        UnixSocketConnectionManager connectionManager = new UnixSocketConnectionManager(path);
+        node = new Node(new UnixSocketConnectionFactory(path));
+
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+
+        provideService();
+        requestServiceList();
+        requestService_batch();
+        requestService();
+        requestService();
+        deleteService();
+    }
+
+    @Test(timeout = 10000)
+    public void boundedExecutor() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.boundedExecutor");
+        node = new Node(new InProcessConnectionFactory("NodeTest.boundedExecutor"));
+
+        Broker broker = new Broker(connectionManager,
+                BrokerExecutors.bounded(2, 4, new ThreadPoolExecutor.AbortPolicy()));
+        broker.start();
+
+        provideService();
+        requestServiceList();
+        requestService_batch();
+        requestService();
+
+        // the worker of the previous request can still be closing its connection after the response
+        JsonObject metrics;
+        do metrics = node.requestService("getBrokerMetrics", null).getResult().getAsJsonObject();
+        while (metrics.get("active").getAsInt() > 1);
+        assertEquals(1, metrics.get("active").getAsInt()); //this request
+        assertEquals(0, metrics.get("queued").getAsInt());
+        assertTrue(metrics.get("completed").getAsLong() >= 4);
+        assertEquals(0, metrics.get("rejected").getAsLong());
+        connectionManager.close();
+
+        // an executor that rejects everything : the requests are answered with an error
+        InProcessConnectionManager busyManager = new InProcessConnectionManager("NodeTest.busy");
+        Broker busy = new Broker(busyManager, r -> {
+            throw new RejectedExecutionException();
+        });
+        busy.start();
+        node.setConnectionFactory(new InProcessConnectionFactory("NodeTest.busy"));
+        JsonRpcResponse response = node.requestService("getBrokerMetrics", null);
+        assertEquals(JsonRpcCustomError.serverBusy().getCode(), response.getError().getCode());
+        assertEquals(1, busy.getRejectedRequests());
+        busyManager.close();
+
+        // by default the requests beyond the capacity are rejected, not run by the thread of the broker
+        ThreadPoolExecutor bounded = (ThreadPoolExecutor) BrokerExecutors.bounded();
+        assertTrue(bounded.getRejectedExecutionHandler() instanceof ThreadPoolExecutor.AbortPolicy);
+        bounded.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void pipelinedForwarding() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.pipelined");
+        node = new Node(new InProcessConnectionFactory("NodeTest.pipelined"));
+        node.setServiceExecutor(Executors.newFixedThreadPool(8));
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+
+        IServiceMethod slowEcho = request -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new JsonRpcResponse(request.getParams(), request.getID());
+        };
+        assertTrue(node.provideService(new ServiceMetadata("slowEcho", "NodeTester"), slowEcho));
+
+        // one at a time the calls would take 2.4s, more than the 1s the broker waits for a response
+        List<CompletableFuture<JsonRpcResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int n = i;
+            calls.add(CompletableFuture.supplyAsync(() -> node.requestService("slowEcho", new JsonPrimitive(n)),
+                    Executors.newSingleThreadExecutor()));
+        }
+        for (int i = 0; i < 8; i++) {
+            JsonRpcResponse response = calls.get(i).get();
+            assertTrue(response.toJson(), !response.isError());
+            assertEquals(i, response.getResult().getAsInt());
+        }
+        connectionManager.close();
+    }
+
+    @Test(timeout = 10000)
+    public void batchFanOut() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.fanOut");
+        node = new Node(new InProcessConnectionFactory("NodeTest.fanOut"));
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+
+        // every provider waits until all of them got their requests : it only works if they are forwarded at once
+        CountDownLatch started = new CountDownLatch(10);
+        Set<String> providers = ConcurrentHashMap.newKeySet();
+        AtomicBoolean together = new AtomicBoolean(true);
+        IServiceMethod waitingEcho = request -> {
+            if (providers.add(request.getMethod())) started.countDown();
+            try {
+                if (!started.await(800, TimeUnit.MILLISECONDS)) together.set(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new JsonRpcResponse(request.getParams(), request.getID());
+        };
+        for (int s = 0; s < 10; s++)
+            assertTrue(node.provideService(new ServiceMetadata("slowEcho" + s, "NodeTester"), waitingEcho));
+
+        ArrayList<Pair<String, JsonElement>> calls = new ArrayList<>();
+        for (int i = 0; i < 50; i++) calls.add(new Pair<>("slowEcho" + (i % 10), new JsonPrimitive(i)));
+        calls.add(new Pair<>("unknown", JsonNull.INSTANCE));
+        List<JsonRpcResponse> responses = node.requestService(calls).get();
+
+        assertEquals(51, responses.size());
+        for (int i = 0; i < 50; i++) {
+            assertTrue(responses.get(i).toJson(), !responses.get(i).isError());
+            assertEquals(i, responses.get(i).getResult().getAsInt());
+        }
+        assertEquals(JsonRpcDefaultError.methodNotFound().getCode(), responses.get(50).getError().getCode());
+        assertTrue("the providers were not all in flight at once", together.get());
+        connectionManager.close();
+    }
+
+    @Test(timeout = 10000)
+    public void providerGroups() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.groups");
+        Broker broker = new Broker(connectionManager);
+        broker.setProviderGroups(BalancingPolicies::roundRobin);
+        broker.start();
+
+        // two nodes provide the same method
+        Node first = new Node(new InProcessConnectionFactory("NodeTest.groups"));
+        Node second = new Node(new InProcessConnectionFactory("NodeTest.groups"));
+        assertTrue(first.provideService(new ServiceMetadata("whoami", "GroupTester"),
+                request -> new JsonRpcResponse(new JsonPrimitive("first"), request.getID())));
+        assertTrue(second.provideService(new ServiceMetadata("whoami", "GroupTester"),
+                request -> new JsonRpcResponse(new JsonPrimitive("second"), request.getID())));
+        assertEquals(2, first.requestServiceList(new OwnerSearchStrategy("GroupTester")).size());
+
+        int firsts = 0;
+        for (int i = 0; i < 10; i++)
+            if (first.requestService("whoami", null).getResult().getAsString().equals("first")) firsts++;
+        assertEquals(5, firsts);
+
+        // the first node leaves the group, the method is still served by the second one
+        first.deleteService("whoami");
+        while (first.requestServiceList(new OwnerSearchStrategy("GroupTester")).size() != 1) Thread.sleep(10);
+        for (int i = 0; i < 4; i++)
+            assertEquals("second", first.requestService("whoami", null).getResult().getAsString());
+        connectionManager.close();
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentRegistrations() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.concurrent");
+        InProcessConnectionFactory connectionFactory = new InProcessConnectionFactory("NodeTest.concurrent");
+        node = new Node(connectionFactory);
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+
+        // providers of the same method registering at once get a name each, forwarded to that provider only
+        int providers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < providers; i++) {
+            int n = i;
+            Thread provider = new Thread(() -> {
+                JsonRpcManager manager = new JsonRpcManager(connectionFactory.createConnection());
+                try {
+                    start.await();
+                    manager.send(new JsonRpcRequest("registerService",
+                            new ServiceMetadata("same", "ConcurrentTester").toJson(), new ID(n)));
+                    JsonRpcResponse registered = (JsonRpcResponse) manager.listenResponse(2000);
+                    names.add(registered.getResult().getAsJsonObject().get("method").getAsString());
+                    JsonRpcRequest request = (JsonRpcRequest) manager.listenRequest();
+                    manager.send(new JsonRpcResponse(new JsonPrimitive(n), request.getID()));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            provider.start();
+            threads.add(provider);
+        }
+        start.countDown();
+        while (names.size() < providers) Thread.sleep(10);
+
+        Set<Integer> answered = new HashSet<>();
+        for (String name : names) answered.add(node.requestService(name, null).getResult().getAsInt());
+        assertEquals(providers, answered.size());
+        assertEquals(providers, broker.getRegistry().size());
+        for (Thread provider : threads) provider.join();
+        connectionManager.close();
+    }
+
+    @Test(timeout = 20000)
+    public void registerDeleteChurn() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.churn");
+        InProcessConnectionFactory connectionFactory = new InProcessConnectionFactory("NodeTest.churn");
+        node = new Node(connectionFactory);
+        Broker broker = new Broker(connectionManager);
+        broker.setProviderGroups(BalancingPolicies::roundRobin);
+        broker.start();
+
+        // providers keep joining the "churn" group while another thread deletes the whole group
+        JsonObject delete = new JsonObject();
+        delete.addProperty("method", "churn");
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread deleter = new Thread(() -> {
+            while (running.get()) {
+                JsonRpcManager manager = new JsonRpcManager(connectionFactory.createConnection());
+                manager.send(JsonRpcRequest.notification("deleteService", delete));
+                manager.close();
+                try {
+                    Thread.sleep(1); //about one delete per registration, without flooding the broker
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        deleter.start();
+        List<JsonRpcManager> providers = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            JsonRpcManager provider = new JsonRpcManager(connectionFactory.createConnection());
+            provider.send(new JsonRpcRequest("registerService",
+                    new ServiceMetadata("churn", "ChurnTester").toJson(), new ID(i)));
+            provider.listenResponse(1000);
+            providers.add(provider);
+        }
+        running.set(false);
+        deleter.join();
+
+        // a delete after the churn removes every provider left : none can stay in the registry
+        JsonRpcManager manager = new JsonRpcManager(connectionFactory.createConnection());
+        manager.send(JsonRpcRequest.notification("deleteService", delete));
+        manager.close();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (broker.getRegistry().size() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(0, broker.getRegistry().size());
+        assertEquals(0, broker.getRegistry().getByMethod("churn").size());
+        assertEquals(0, node.requestService("getServicesList", null).getResult().getAsJsonArray().size());
+
+        for (JsonRpcManager provider : providers) provider.close();
+        connectionManager.close();
+    }
+
+    @Test(timeout = 10000)
+    public void servicePages() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.pages");
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+        for (int i = 0; i < 250; i++) {
+            ServiceMetadata metadata = new ServiceMetadata(String.format("page%03d", i), "PageTester");
+            metadata.setApplicationField("Paging");
+            broker.getRegistry().add("p" + i, metadata);
+        }
+        node = new Node(new InProcessConnectionFactory("NodeTest.pages"));
+
+        // the services come a page at a time, with only the fields asked for
+        Iterator<ServiceMetadata> services = node.requestServices(new OwnerSearchStrategy("PageTester"), 100, "method");
+        for (int i = 0; i < 250; i++) {
+            ServiceMetadata s = services.next();
+            assertEquals(String.format("page%03d", i), s.getMethodName());
+            assertNull(s.getApplicationField());
+        }
+        assertFalse(services.hasNext());
+
+        JsonObject params = new JsonObject();
+        params.addProperty("limit", 100);
+        JsonObject page = node.requestService("getServicesList", params).getResult().getAsJsonObject();
+        assertEquals(100, page.getAsJsonArray("services").size());
+        params.add("cursor", page.get("cursor"));
+        params.addProperty("limit", 200);
+        page = node.requestService("getServicesList", params).getResult().getAsJsonObject();
+        assertEquals(150, page.getAsJsonArray("services").size());
+        assertFalse(page.has("cursor"));
+
+        List<ServiceMetadata> top = node.requestTopServices(null, 3, "method", true);
+        assertEquals("page249", top.get(0).getMethodName());
+        assertEquals("page247", top.get(2).getMethodName());
+
+        params.addProperty("cursor", "not a cursor");
+        assertTrue(node.requestService("getServicesList", params).isError());
+
+        // an ill-formed composite search is answered with an error, as the other wrong params
+        JsonObject and = new JsonObject();
+        and.addProperty("type", "AndSearchStrategy");
+        assertEquals(JsonRpcCustomError.wrongParametersReceived().getCode(),
+                node.requestService("getServicesList", and).getError().getCode());
+        JsonObject not = new JsonObject();
+        not.addProperty("type", "NotSearchStrategy");
+        not.addProperty("strategy", 42);
+        params = new JsonObject();
+        params.add("search", not);
+        assertEquals(JsonRpcCustomError.wrongParametersReceived().getCode(),
+                node.requestService("getServicesList", params).getError().getCode());
+        assertEquals(250, node.requestServiceList(new OwnerSearchStrategy("PageTester")).size());
+        connectionManager.close();
+    }
+
+    @Test(timeout = 10000)
+    public void syncServiceList() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.sync");
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+        node = new Node(new InProcessConnectionFactory("NodeTest.sync"));
+        assertTrue(node.provideService(new ServiceMetadata("synced", "SyncTester"),
+                request -> new JsonRpcResponse(new JsonPrimitive("synced"), request.getID())));
+
+        Map<String, ServiceMetadata> services = node.syncServiceList();
+        assertEquals(1, services.size());
+        for (int i = 0; i < 3; i++) broker.getRegistry().add("p" + i, new ServiceMetadata("other" + i, "SyncTester"));
+        broker.getRegistry().remove("p0");
+        services = node.syncServiceList();
+        assertEquals(3, services.size());
+        assertEquals("other2", services.get("p2").getMethodName());
+
+        // once in sync, the broker sends no service
+        JsonObject params = new JsonObject();
+        params.addProperty("epoch", broker.getRegistry().getEpoch());
+        params.addProperty("version", broker.getRegistry().getVersion());
+        JsonObject result = node.requestService("getServicesListSince", params).getResult().getAsJsonObject();
+        assertEquals(0, result.getAsJsonArray("changes").size());
+
+        // the broker restarts : the node registers its service again
+        connectionManager.close();
+        InProcessConnectionManager restarted = new InProcessConnectionManager("NodeTest.sync");
+        Broker newBroker = new Broker(restarted);
+        newBroker.start();
+        node.setConnectionFactory(new InProcessConnectionFactory("NodeTest.sync")); //the pooled ones went to the old one
+        // a provider id of the old broker is used again by another service : the copy of the node is replaced
+        newBroker.getRegistry().add("p2", new ServiceMetadata("renewed", "SyncTester"));
+        // another node registers first : it must not get the id the node had on the old broker
+        Node other = new Node(new InProcessConnectionFactory("NodeTest.sync"));
+        assertTrue(other.provideService(new ServiceMetadata("first", "SyncTester"),
+                request -> new JsonRpcResponse(new JsonPrimitive("first"), request.getID())));
+        node.checkPublishedService();
+        assertEquals(1, newBroker.getRegistry().getByMethod("synced").size());
+        assertEquals("synced", node.requestService("synced", null).getResult().getAsString());
+        node.checkPublishedService(); // nothing to do
+        assertEquals(3, newBroker.getRegistry().size());
+        services = node.syncServiceList();
+        assertEquals(3, services.size());
+        assertEquals("renewed", services.get("p2").getMethodName());
+        other.close();
+        restarted.close();
+    }
+
+    @Test(timeout = 10000)
+    public void subscribeServices() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.subscribe");
+        Broker broker = new Broker(connectionManager);
+        broker.setMaxPendingChanges(4);
+        broker.start();
+        node = new Node(new InProcessConnectionFactory("NodeTest.subscribe"));
+        broker.getRegistry().add("p0", new ServiceMetadata("before", "Pushed"));
+
+        Map<String, ServiceMetadata> seen = new ConcurrentHashMap<>(); // as the listener is told
+        ServiceSubscription all = node.subscribeServices(null, (provider, service) -> {
+            if (service != null) seen.put(provider, service);
+            else seen.remove(provider);
+        });
+        ServiceSubscription pushed = node.subscribeServices(new OwnerSearchStrategy("Pushed"), null);
+        assertEquals(1, all.getServices().size());
+        assertEquals("before", pushed.getServices().get("p0").getMethodName());
+
+        broker.getRegistry().add("p1", new ServiceMetadata("pushed", "Pushed"));
+        broker.getRegistry().add("p2", new ServiceMetadata("other", "Other"));
+        broker.getRegistry().remove("p0");
+        // the two subscriptions are pushed the changes independently : each is waited for in its final state
+        Set<String> expectedAll = new HashSet<>(Arrays.asList("p1", "p2"));
+        Set<String> expectedPushed = new HashSet<>(Collections.singletonList("p1"));
+        while (!all.getServices().keySet().equals(expectedAll)) Thread.sleep(10);
+        while (!pushed.getServices().keySet().equals(expectedPushed)) Thread.sleep(10);
+        assertEquals("other", all.getServices().get("p2").getMethodName());
+        assertEquals("pushed", pushed.getServices().get("p1").getMethodName());
+
+        // many more changes than the buffer holds at once : the subscriptions still end up with the services
+        for (int i = 0; i < 500; i++)
+            broker.getRegistry().add("q" + i, new ServiceMetadata("q" + i, i % 2 == 0 ? "Pushed" : "Other"));
+        for (int i = 0; i < 500; i += 3) broker.getRegistry().remove("q" + i);
+        for (int i = 0; i < 500; i++) {
+            if (i % 3 == 0) continue;
+            expectedAll.add("q" + i);
+            if (i % 2 == 0) expectedPushed.add("q" + i);
+        }
+        while (!all.getServices().keySet().equals(expectedAll)) Thread.sleep(10);
+        while (!pushed.getServices().keySet().equals(expectedPushed)) Thread.sleep(10);
+        while (!seen.keySet().equals(expectedAll)) Thread.sleep(10); // the listener is told after the map changes
+        assertEquals(all.getServices(), seen);
+        assertFalse(all.getServices().containsKey("q3"));
+        assertTrue(pushed.getServices().containsKey("q4"));
+
+        // once unsubscribed, nothing is pushed
+        pushed.close();
+        assertFalse(pushed.isOpen());
+        assertFalse(node.resubscribe(pushed));
+        broker.getRegistry().remove("p1");
+        while (all.getServices().containsKey("p1")) Thread.sleep(10);
+        assertTrue(pushed.getServices().containsKey("p1"));
+        assertTrue(node.resubscribe(all)); // still open
+        connectionManager.close();
+    }
+
+    @Test
+    public void balancingPolicies() throws Exception {
+        List<BalancingPolicy.Provider> providers = new ArrayList<>();
+        int[] outstanding = {4, 1, 2};
+        int[] capacity = {1, 3, 1};
+        for (int i = 0; i < 3; i++) {
+            int n = i;
+            providers.add(new BalancingPolicy.Provider() {
+                public int getOutstandingRequests() { return outstanding[n]; }
+                public int getCapacity() { return capacity[n]; }
+            });
+        }
+
+        BalancingPolicy weighted = BalancingPolicies.weighted();
+        int[] chosen = new int[3];
+        for (int i = 0; i < 50; i++) chosen[weighted.choose(providers)]++;
+        assertEquals(10, chosen[0]);
+        assertEquals(30, chosen[1]);
+        assertEquals(10, chosen[2]);
+
+        for (int i = 0; i < 10; i++) assertEquals(1, BalancingPolicies.leastOutstanding().choose(providers));
+        // of any two providers the second one is the less loaded
+        BalancingPolicy twoChoices = BalancingPolicies.powerOfTwoChoices();
+        for (int i = 0; i < 50; i++) assertTrue(twoChoices.choose(providers) != 0);
+    }
+
+    @Test
+    public void inProcess() throws Exception {
+        InProcessConnectionManager connectionManager = new InProcessConnectionManager("NodeTest.inProcess");
+        node = new Node(new InProcessConnectionFactory("NodeTest.inProcess"));
+
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+
+        provideService();
+        requestServiceList();
+        requestService_batch();
+        requestService();
+        requestService();
+        deleteService();
+        connectionManager.close();
+    }
+
+    @Test
+    public void eventDriven() throws Exception {
+        ZeroMQConnectionManager connectionManager = new ZeroMQConnectionManager(6802);
+        node = new Node(new ZeroMQConnectionFactory("tcp://localhost:6802"));
+        node.setEventDrivenServices(true);
+
+        Broker broker = new Broker(connectionManager);
+        broker.start();
+
+        provideService();
+
+        List<CompletableFuture<JsonRpcResponse>> responses = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.addProperty("num1", i);
+            jsonObject.addProperty("num2", 10);
+            responses.add(node.requestServiceAsync("divide", jsonObject));
+            assertEquals(false, responses.get(i - 1).get().isError()); //the broker forwards one call at a time to a provider
+        }
+        for (int i = 1; i <= 5; i++)
+            assertEquals(i / 10.0, responses.get(i - 1).get().getResult().getAsJsonObject().get("quotient").getAsDouble(), 1e-15);
+
+        assertTrue(node.requestServiceAsync("missing", null).get().isError());
+        deleteService();
+    }
+}
@@ -0,0 +1,349 @@
+package tests;
+
+import broker.ServiceRegistry;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.junit.Test;
+import searchstrategy.ActivationDateSearchStrategy;
+import searchstrategy.AndSearchStrategy;
+import searchstrategy.ApplicationFieldSearchStrategy;
+import searchstrategy.KeywordSearchStrategy;
+import searchstrategy.NotSearchStrategy;
+import searchstrategy.OrSearchStrategy;
+import searchstrategy.OwnerSearchStrategy;
+import searchstrategy.SearchStrategy;
+import searchstrategy.ServicePage;
+import searchstrategy.SlotBitmap;
+import searchstrategy.TitleSearchStrategy;
+import service.ServiceMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RegistryTest {
+
+    private static ServiceMetadata service(int n) {
+        ServiceMetadata s = new ServiceMetadata("method" + n, "owner" + n % 100);
+        s.setApplicationField("field" + n % 10);
+        s.addKeyword("k" + n % 7);
+        s.addKeyword("k" + n % 11);
+        return s;
+    }
+
+    @Test
+    public void lookups() throws Exception {
+        ServiceRegistry registry = new ServiceRegistry();
+        for (int i = 0; i < 1000; i++) registry.add(Integer.toString(i), service(i));
+
+        assertEquals(1000, registry.size());
+        assertEquals("method42", registry.getByMethod("method42").get(0).getMethodName());
+        assertEquals(10, registry.getByOwner("owner7").size());
+        assertEquals(100, registry.getByApplicationField("field3").size());
+        for (ServiceMetadata s : registry.getByKeyword("k3")) assertTrue(s.getKeywords().contains("k3"));
+
+        assertEquals("method42", registry.remove("42").getMethodName());
+        assertNull(registry.remove("42"));
+        assertTrue(registry.getByMethod("method42").isEmpty());
+        assertEquals(9, registry.getByOwner("owner42").size());
+        assertEquals(999, registry.getAll().size());
+
+        // the free slot is given again
+        registry.add("new", service(42));
+        assertEquals(1000, registry.getAll().size());
+        assertEquals(10, registry.getByOwner("owner42").size());
+    }
+
+    @Test
+    public void substringSearch() throws Exception {
+        ServiceRegistry registry = new ServiceRegistry();
+        for (int i = 0; i < 10000; i++) registry.add(Integer.toString(i), service(i));
+        registry.add("abc", new ServiceMetadata("abcXbcd", "someone"));
+
+        for (String title : new String[]{"thod12", "method9999", "d1", "", "nothing", "abcd", "bcd"}) {
+            SearchStrategy strategy = new TitleSearchStrategy(title);
+            assertEquals(title, strategy.filterList(registry.getAll()), strategy.search(registry));
+        }
+        for (String owner : new String[]{"owner1", "ner42", "ow", "someone"}) {
+            SearchStrategy strategy = new OwnerSearchStrategy(owner);
+            assertEquals(owner, strategy.filterList(registry.getAll()), strategy.search(registry));
+        }
+        assertEquals(11, new TitleSearchStrategy("method123").search(registry).size()); //123 and 1230..1239
+
+        registry.remove("1234");
+        assertEquals(10, new TitleSearchStrategy("method123").search(registry).size());
+        assertTrue(new TitleSearchStrategy("method1234").search(registry).isEmpty());
+    }
+
+    @Test
+    public void slotBitmap() throws Exception {
+        Random random = new Random(42);
+        // sparse and dense groups, so that both the arrays and the bitmaps are used
+        for (int density : new int[]{10, 1000, 9000, 60000}) {
+            BitSet expectedA = new BitSet(), expectedB = new BitSet();
+            SlotBitmap a = SlotBitmap.EMPTY, b = SlotBitmap.EMPTY;
+            for (int i = 0; i < density; i++) {
+                int x = random.nextInt(3 << 16), y = random.nextInt(3 << 16);
+                a = a.with(x);
+                expectedA.set(x);
+                b = b.with(y);
+                expectedB.set(y);
+            }
+            for (int i = 0; i < density / 2; i++) {
+                int x = random.nextInt(3 << 16);
+                a = a.without(x);
+                expectedA.clear(x);
+            }
+            assertArrayEquals(expectedA.stream().toArray(), a.toArray());
+            assertEquals(expectedA.cardinality(), a.cardinality());
+            assertArrayEquals(a.toArray(), SlotBitmap.of(a.toArray()).toArray());
+
+            BitSet and = (BitSet) expectedA.clone();
+            and.and(expectedB);
+            assertArrayEquals(and.stream().toArray(), a.and(b).toArray());
+            BitSet or = (BitSet) expectedA.clone();
+            or.or(expectedB);
+            assertArrayEquals(or.stream().toArray(), a.or(b).toArray());
+            BitSet andNot = (BitSet) expectedA.clone();
+            andNot.andNot(expectedB);
+            assertArrayEquals(andNot.stream().toArray(), a.andNot(b).toArray());
+        }
+    }
+
+    @Test
+    public void keywordSearch() throws Exception {
+        ServiceRegistry registry = new ServiceRegistry();
+        for (int i = 0; i < 10000; i++) registry.add(Integer.toString(i), service(i));
+
+        List<List<String>> queries = Arrays.asList(Arrays.asList("k3"), Arrays.asList("k3", "k5"),
+                Arrays.asList("k3", "k10", "k6"), Arrays.asList("unknown"), Arrays.asList("k3", "unknown"));
+        for (List<String> keywords : queries) {
+            for (boolean matchAll : new boolean[]{false, true}) {
+                SearchStrategy strategy = new KeywordSearchStrategy(keywords, matchAll);
+                assertEquals(keywords + " " + matchAll, strategy.filterList(registry.getAll()), strategy.search(registry));
+            }
+        }
+        // k3 and k5 : n % 77 == 38 (n % 7 == 3, n % 11 == 5) or n % 77 == 47 (n % 7 == 5, n % 11 == 3)
+        assertEquals(2 * 130, new KeywordSearchStrategy(Arrays.asList("k3", "k5"), true).search(registry).size());
+
+        SearchStrategy parsed = SearchStrategy.fromJson(
+                new KeywordSearchStrategy(Arrays.asList("k3", "k5"), true).toJsonElement().toString());
+        assertEquals(2 * 130, parsed.search(registry).size());
+
+        for (int i = 0; i < 10000; i += 77) {
+            registry.remove(Integer.toString(i + 38));
+            registry.remove(Integer.toString(i + 47));
+        }
+        assertTrue(new KeywordSearchStrategy(Arrays.asList("k3", "k5"), true).search(registry).isEmpty());
+    }
+
+    @Test
+    public void compositeSearch() throws Exception {
+        ServiceRegistry registry = new ServiceRegistry();
+        for (int i = 0; i < 10000; i++) {
+            JsonObject j = service(i).toJson();
+            j.addProperty("activationDate", String.format("2018-01-%02d 10:00:00", i % 28 + 1));
+            registry.add(Integer.toString(i), ServiceMetadata.fromJson(j));
+        }
+
+        SearchStrategy k3 = new KeywordSearchStrategy("k3"), field5 = new ApplicationFieldSearchStrategy("field5");
+        SearchStrategy title = new TitleSearchStrategy("thod12"), shortTitle = new TitleSearchStrategy("12");
+        SearchStrategy week = new ActivationDateSearchStrategy("2018-01-08", "2018-01-15");
+        SearchStrategy[] queries = {
+                field5, week,
+                new ActivationDateSearchStrategy(null, "2018-01-03"), new ActivationDateSearchStrategy("2018-01-27", null),
+                new AndSearchStrategy(k3, field5),
+                new AndSearchStrategy(k3, field5, title, week),
+                new AndSearchStrategy(shortTitle, new NotSearchStrategy(k3)),
+                new AndSearchStrategy(field5, new NotSearchStrategy(title)),
+                new AndSearchStrategy(new KeywordSearchStrategy("unknown"), shortTitle),
+                new OrSearchStrategy(k3, field5, week),
+                new OrSearchStrategy(title, new AndSearchStrategy(k3, field5)),
+                new OrSearchStrategy(shortTitle, field5),
+                new NotSearchStrategy(new OrSearchStrategy(k3, field5)),
+                new NotSearchStrategy(new AndSearchStrategy(title, week)),
+                new AndSearchStrategy(new OrSearchStrategy(k3, new KeywordSearchStrategy("k5")),
+                        new NotSearchStrategy(new ApplicationFieldSearchStrategy("field0")), week),
+                new AndSearchStrategy(), new OrSearchStrategy(), new NotSearchStrategy(new AndSearchStrategy())
+        };
+        for (SearchStrategy query : queries) {
+            String json = query.toJsonElement().toString();
+            List<ServiceMetadata> expected = query.filterList(registry.getAll());
+            assertEquals(json, expected, query.search(registry));
+            assertEquals(json, expected, SearchStrategy.fromJson(json).search(registry));
+        }
+        assertEquals(10000 / 28 * 7, week.search(registry).size()); //the 8th to the 14th
+
+        for (int i = 0; i < 10000; i += 10) registry.remove(Integer.toString(i + 5));
+        assertTrue(new AndSearchStrategy(k3, field5).search(registry).isEmpty());
+        assertTrue(new OrSearchStrategy(field5, new KeywordSearchStrategy("unknown")).search(registry).isEmpty());
+        assertNull(SearchStrategy.fromJson("{\"type\":\"NotSearchStrategy\",\"strategy\":{\"type\":\"Unknown\"}}"));
+        for (String json : new String[]{"{\"type\":\"AndSearchStrategy\"}", "{\"type\":\"NotSearchStrategy\",\"strategy\":42}",
+                "{\"type\":\"OrSearchStrategy\",\"strategies\":[{}]}"}) {
+            try {
+                SearchStrategy.fromJson(json);
+                fail(json);
+            } catch (IllegalArgumentException e) {
+                // ill-formed
+            }
+        }
+    }
+
+    @Test
+    public void pagesAndTop() throws Exception {
+        ServiceRegistry registry = new ServiceRegistry();
+        for (int i = 0; i < 10000; i++) registry.add(Integer.toString(i), service(i));
+        for (int i = 0; i < 10000; i += 3) registry.remove(Integer.toString(i)); //free slots everywhere
+
+        SearchStrategy[] queries = {new KeywordSearchStrategy("k3"), new TitleSearchStrategy("thod12"),
+                new TitleSearchStrategy("1"), new AndSearchStrategy(new KeywordSearchStrategy("k3"),
+                new ApplicationFieldSearchStrategy("field5")), new AndSearchStrategy()};
+        for (SearchStrategy query : queries) {
+            List<ServiceMetadata> expected = query.search(registry), paged = new ArrayList<>();
+            int next = 0, pages = 0;
+            do {
+                ServicePage page = query.search(registry, next, 100);
+                assertTrue(page.getServices().size() == 100 || page.getNext() < 0);
+                paged.addAll(page.getServices());
+                next = page.getNext();
+                pages++;
+            } while (next >= 0);
+            assertEquals(expected, paged);
+            assertEquals(Math.max(1, (expected.size() + 99) / 100), pages);
+
+            Comparator<ServiceMetadata> order = Comparator.comparing(ServiceMetadata::getMethodName).reversed();
+            expected.sort(order);
+            assertEquals(expected.subList(0, Math.min(10, expected.size())), query.top(registry, 10, order));
+        }
+    }
+
+    @Test
+    public void changesSince() throws Exception {
+        ServiceRegistry registry = new ServiceRegistry();
+        for (int i = 0; i < 100; i++) registry.add(Integer.toString(i), service(i));
+
+        JsonObject all = registry.getChangesSince(-1, -1);
+        assertEquals(100, all.get("version").getAsLong());
+        Map<String, String> copy = new HashMap<>();
+        apply(copy, all.getAsJsonArray("services"));
+        assertEquals(100, copy.size());
+        assertSame(registry.getAllJson(), registry.getAllJson()); //not made again without a change
+        ServiceMetadata first = registry.get("0");
+        assertSame(registry.getAllJson().get(0), registry.getJson(first)); //the json of a service is made once
+
+        long epoch = all.get("epoch").getAsLong();
+        for (int i = 0; i < 10; i++) registry.remove(Integer.toString(i));
+        for (int i = 100; i < 105; i++) registry.add(Integer.toString(i), service(i));
+        registry.add("gone", service(1000));
+        registry.remove("gone");
+        JsonObject changes = registry.getChangesSince(epoch, 100);
+        assertEquals(100 + 10 + 5 + 2, changes.get("version").getAsLong());
+        assertEquals(10 + 5 + 1, changes.getAsJsonArray("changes").size()); //the last change of each provider
+        apply(copy, changes.getAsJsonArray("changes"));
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 10; i < 105; i++) expected.put(Integer.toString(i), "method" + i);
+        assertEquals(expected, copy);
+        assertEquals(95, registry.getAllJson().size());
+
+        // nothing changed, another registry, too far behind
+        assertEquals(0, registry.getChangesSince(epoch, 117).getAsJsonArray("changes").size());
+        assertTrue(registry.getChangesSince(epoch + 1, 117).has("services"));
+        for (int i = 0; i < ServiceRegistry.MAX_CHANGES; i++) {
+            registry.add("churn", service(i));
+            registry.remove("churn");
+        }
+        assertTrue(registry.getChangesSince(epoch, 117).has("services"));
+        assertEquals(95, registry.getChangesSince(epoch, 117).getAsJsonArray("services").size());
+    }
+
+    private static void apply(Map<String, String> copy, JsonArray changes) {
+        for (JsonElement e : changes) {
+            JsonObject change = e.getAsJsonObject();
+            if (change.has("service"))
+                copy.put(change.get("provider").getAsString(), change.getAsJsonObject("service").get("method").getAsString());
+            else copy.remove(change.get("provider").getAsString());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentChurn() throws Exception {
+        ServiceRegistry registry = new ServiceRegistry();
+        int size = 100000;
+        for (int i = 0; i < size; i++) registry.add(Integer.toString(i), service(i));
+
+        // 4 threads delete and register again their quarter of the services while 2 threads look them up
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int first = t * size / 4;
+            tasks.add(pool.submit(() -> {
+                for (int i = first; i < first + size / 4; i++) {
+                    String provider = Integer.toString(i);
+                    assertEquals("method" + i, registry.remove(provider).getMethodName());
+                    registry.add(provider, service(i));
+                }
+            }));
+        }
+        for (int t = 0; t < 2; t++) {
+            tasks.add(pool.submit(() -> {
+                for (int i = 0; i < size; i += 7) {
+                    for (ServiceMetadata s : registry.getByMethod("method" + i))
+                        assertEquals("method" + i, s.getMethodName());
+                    for (ServiceMetadata s : registry.getByOwner("owner" + i % 100))
+                        assertEquals("owner" + i % 100, s.getOwner());
+                }
+            }));
+        }
+        for (Future<?> task : tasks) task.get();
+        pool.shutdown();
+
+        assertEquals(size, registry.size());
+        assertEquals(size, registry.getAll().size());
+        for (int i = 0; i < size; i += 997) assertEquals(1, registry.getByMethod("method" + i).size());
+        assertEquals(size / 100, registry.getByOwner("owner5").size());
+        assertEquals(size / 10, registry.getByApplicationField("field5").size());
+    }
+
+    @Test(timeout = 60000)
+    public void addRemoveRace() throws Exception {
+        ServiceRegistry registry = new ServiceRegistry();
+        int n = 2000;
+
+        // every service of the same method is removed while it is being added
+        Thread remover = new Thread(() -> {
+            for (int i = 0; i < n; i++) while (registry.remove(Integer.toString(i)) == null) Thread.yield();
+        });
+        remover.start();
+        for (int i = 0; i < n; i++) registry.add(Integer.toString(i), service(7));
+        remover.join();
+
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getAll().size());
+        assertEquals(0, registry.getByMethod("method7").size());
+        assertEquals(0, registry.getByOwner("owner7").size());
+        assertEquals(0, registry.getByKeyword("k0").size());
+        assertEquals(2 * n, registry.getVersion());
+        // the last change of every provider is its delete
+        JsonObject changes = registry.getChangesSince(registry.getEpoch(), 0);
+        assertEquals(n, changes.getAsJsonArray("changes").size());
+        for (JsonElement change : changes.getAsJsonArray("changes"))
+            assertFalse(change.toString(), change.getAsJsonObject().has("service"));
+    }
+}
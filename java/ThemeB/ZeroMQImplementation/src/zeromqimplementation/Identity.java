@@ -0,0 +1,37 @@
+package zeromqimplementation;
+
+import java.util.Arrays;
+
+/**
+ * The identity frame the ROUTER socket puts in front of the messages of a client, used as a key by its bytes
+ */
+final class Identity {
+
+    final byte[] bytes;
+    private final int hash;
+
+    Identity(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Identity)) return false;
+        Identity other = (Identity) o;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) s.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return s.toString();
+    }
+}
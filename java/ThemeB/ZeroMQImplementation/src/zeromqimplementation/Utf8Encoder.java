@@ -0,0 +1,44 @@
+package zeromqimplementation;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes characters straight into a UTF-8 buffer reused by every call. Not thread safe.
+ */
+class Utf8Encoder {
+
+    private static final int INITIAL_BUFFER = 1024;
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer encoded = ByteBuffer.allocate(INITIAL_BUFFER);
+
+    /**
+     * @return the buffer, from position 0 to limit : it is valid until the next call
+     */
+    ByteBuffer encode(CharSequence msg) {
+        if (encoded.capacity() > MAX_RETAINED_BUFFER) encoded = ByteBuffer.allocate(INITIAL_BUFFER); //do not keep a huge buffer alive
+        CharBuffer in = CharBuffer.wrap(msg);
+        encoder.reset();
+        encoded.clear();
+        CoderResult result;
+        do {
+            result = encoder.encode(in, encoded, true);
+            if (result.isUnderflow()) result = encoder.flush(encoded);
+            if (result.isOverflow()) {
+                ByteBuffer bigger = ByteBuffer.allocate(encoded.capacity() * 2);
+                encoded.flip();
+                bigger.put(encoded);
+                encoded = bigger;
+            }
+        } while (result.isOverflow());
+        encoded.flip();
+        return encoded;
+    }
+}
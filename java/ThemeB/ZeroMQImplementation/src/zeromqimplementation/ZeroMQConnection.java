@@ -3,31 +3,43 @@ package zeromqimplementation;
 import connectioninterfaces.IConnection;
 import connectioninterfaces.TimeoutException;
 import logger.Logger;
-import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
-import org.zeromq.ZMsg;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class ZeroMQConnection implements IConnection {
 
-    Socket socket, sender;
-    ZFrame identity;
+    Socket socket;
 
-    String head;
-    boolean unset = true;
+    volatile byte[] head;
+    String headText; //head decoded as text, only when it is requested
+    volatile boolean unset = true;
     ZMQ.Context context;
 
+    // once a connection is used asynchronously its socket belongs to the event loop
+    private final ZeroMQEventLoop loop;
+    private volatile boolean attached = false;
+    private CompletableFuture<byte[]> pending = null;
+    private boolean closed = false;
+    private ZMQ.Poller poller = null; //used by the timed reads of the calling thread
 
-    ZeroMQConnection(Socket socket, ZMQ.Context context) {
-        this.socket = socket;
-        this.context = context;
-    }
+    private final Utf8Encoder utf8 = new Utf8Encoder();
 
-    ZeroMQConnection(Socket receiver, Socket sender, ZFrame identity, ZMQ.Context context) {
-        this.context = context;
-        this.socket = receiver;
-        this.sender = sender;
-        this.identity = identity;
+    // the factory terminates the context when it is finalized : it must live as long as its connections
+    private final ZeroMQConnectionFactory factory;
+
+
+    ZeroMQConnection(Socket socket, ZeroMQConnectionFactory factory) {
+        this.socket = socket;
+        this.factory = factory;
+        this.context = factory.context;
+        this.loop = factory.loop;
     }
 
 
@@ -37,62 +49,192 @@ public class ZeroMQConnection implements IConnection {
     }
 
     public void close() {
-        socket.close();
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        if (poller != null) poller.close();
+        if (!attached) {
+            socket.close();
+            return;
+        }
+        loop.execute(() -> {
+            loop.forget(socket);
+            socket.close();
+            CompletableFuture<byte[]> waiting;
+            synchronized (this) {
+                waiting = pending;
+                pending = null;
+            }
+            if (waiting != null) waiting.completeExceptionally(new IllegalStateException("ZeroMQConnection closed"));
+        });
     }
 
     @Override
     public String read() {
+        return text(readBytes());
+    }
+
+    @Override
+    public String read(long milliseconds) throws TimeoutException{
+        return text(readBytes(milliseconds));
+    }
+
+    @Override
+    public byte[] readBytes() {
+        if (attached) return readBytesAsync().join();
         if (unset) {
-            ZMsg msg = ZMsg.recvMsg(socket);
-            do {
-                head = msg.popString();
-            } while (!msg.isEmpty());
-            Logger.log("ZeroMQConnection received : \"" + head + "\"");
-            unset = false;
+            receive();
         }
         return head;
     }
 
     @Override
-    public String read(long milliseconds) throws TimeoutException{
+    public byte[] readBytes(long milliseconds) throws TimeoutException {
+        if (attached) {
+            try {
+                return readBytesAsync().get(milliseconds, TimeUnit.MILLISECONDS);
+            } catch (java.util.concurrent.TimeoutException e) {
+                throw new TimeoutException("ZeroMQConnection received nothing");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TimeoutException("ZeroMQConnection interrupted while waiting");
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
         if (unset) {
-            ZMQ.Poller poller = context.poller(1);
-
-            poller.register(socket, ZMQ.Poller.POLLIN);
-            if (poller.poll(milliseconds) <= 0)
+            if (poller == null) { //a poller opens a selector : it is kept for the next reads
+                poller = context.poller(1);
+                poller.register(socket, ZMQ.Poller.POLLIN);
+            }
+            if ((socket.getEvents() & ZMQ.Poller.POLLIN) == 0 && poller.poll(milliseconds) <= 0)
                 throw new TimeoutException("ZeroMQConnection received nothing");
 
-            ZMsg msg = ZMsg.recvMsg(socket);
-            do {
-                head = msg.popString();
-            } while (!msg.isEmpty());
-            Logger.log("ZeroMQConnection received : \"" + head + "\"");
-            unset = false;
+            receive();
         }
         return head;
     }
 
+    /**
+     * The future is completed in the event loop thread : the callbacks attached to it should not block.
+     */
+    @Override
+    public synchronized CompletableFuture<byte[]> readBytesAsync() {
+        if (!unset) return CompletableFuture.completedFuture(head);
+        if (pending == null) {
+            pending = new CompletableFuture<>();
+            attached = true;
+            loop.execute(() -> loop.waitMessage(this));
+        }
+        return pending;
+    }
+
+    /**
+     * Called by the event loop when the socket has a message
+     */
+    void received() {
+        receive();
+        CompletableFuture<byte[]> waiting;
+        synchronized (this) {
+            waiting = pending;
+            pending = null;
+        }
+        if (waiting != null) waiting.complete(head);
+    }
+
+    /**
+     * The frames are read one by one and only the data of the last one is kept, as jeromq received it
+     */
+    private void receive() {
+        head = socket.recv();
+        while (socket.hasReceiveMore()) head = socket.recv();
+        headText = null;
+        if (Logger.isEnabled()) Logger.log("ZeroMQConnection received : \"" + text(head) + "\"");
+        unset = false;
+    }
+
+    private String text(byte[] data) {
+        if (headText == null) headText = new String(data, StandardCharsets.UTF_8);
+        return headText;
+    }
+
     @Override
     public void consume() {
+        if (attached) {
+            if (unset) readBytesAsync().join(); //the next message is dropped
+            unset = true;
+            return;
+        }
         if (unset) {
-            head = socket.recvStr();
+            socket.recv();
+            while (socket.hasReceiveMore()) socket.recv();
         }
         unset = true;
     }
 
     @Override
     public void send(String msg) {
-        Logger.log("Sending : " + msg);
-        if (sender == null) {
-            ZMsg z = new ZMsg();
-            z.push(msg);
-            z.send(socket);
+        send((CharSequence) msg);
+    }
+
+    /**
+     * The characters are encoded straight into a UTF-8 buffer reused by every send of this connection.
+     */
+    @Override
+    public synchronized void send(CharSequence msg) {
+        if (Logger.isEnabled()) Logger.log("Sending : " + msg);
+        ByteBuffer bytes = utf8.encode(msg);
+        send(bytes.array(), 0, bytes.limit());
+    }
+
+    @Override
+    public void send(byte[] msg, int offset, int length) {
+        if (attached) {
+            sendAsync(msg, offset, length);
         } else {
-            ZMsg z = new ZMsg();
-            z.push(msg);
-            z.push(identity.duplicate());
-            z.send(sender);
+            synchronized (this) {
+                socket.send(msg, offset, length, 0);
+            }
+        }
+    }
+
+    /**
+     * A direct buffer is handed to jeromq as it is, without copying it into an array first
+     */
+    @Override
+    public void send(ByteBuffer msg) {
+        if (attached || !msg.isDirect()) {
+            IConnection.super.send(msg);
+            return;
+        }
+        synchronized (this) {
+            socket.sendByteBuffer(msg, 0);
+        }
+        msg.position(msg.limit());
+    }
+
+    /**
+     * The message is copied and sent in the event loop thread, which owns the socket.
+     */
+    @Override
+    public CompletableFuture<Void> sendAsync(byte[] msg, int offset, int length) {
+        attached = true;
+        if (loop.inLoop()) { //e.g. an answer sent by a callback
+            socket.send(msg, offset, length, 0);
+            return CompletableFuture.completedFuture(null);
         }
+        byte[] copy = Arrays.copyOfRange(msg, offset, offset + length);
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        loop.execute(() -> {
+            try {
+                socket.send(copy, 0);
+                sent.complete(null);
+            } catch (RuntimeException e) {
+                sent.completeExceptionally(e);
+            }
+        });
+        return sent;
     }
 
 }
@@ -7,10 +7,12 @@ import org.zeromq.ZMQ;
 public class ZeroMQConnectionFactory implements IConnectionFactory {
     ZMQ.Context context;
     String address;
+    ZeroMQEventLoop loop;
 
     public ZeroMQConnectionFactory(String address){ //eg:"tcp://localhost:5555"
         context = ZMQ.context(1);
         this.address=address;
+        loop = new ZeroMQEventLoop(context);
     }
 
     @Override
@@ -21,7 +23,7 @@ public class ZeroMQConnectionFactory implements IConnectionFactory {
     public IConnection createConnection() {
         ZMQ.Socket socket = context.socket(ZMQ.DEALER);
         socket.connect(address);
-        return new ZeroMQConnection(socket,context);
+        return new ZeroMQConnection(socket,this);
     }
 
 }
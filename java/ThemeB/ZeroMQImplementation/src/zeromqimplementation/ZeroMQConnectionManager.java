@@ -3,94 +3,177 @@ package zeromqimplementation;
 
 import connectioninterfaces.IConnection;
 import connectioninterfaces.IConnectionManager;
-import javafx.util.Pair;
 import logger.Logger;
-import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Context;
 import org.zeromq.ZMQ.Socket;
-import org.zeromq.ZMsg;
 import org.zeromq.ZMQ.Poller;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Accepts the clients of a ROUTER socket. A single reactor thread owns the socket : it reads the frames, finds the
+ * connection of the client by its identity and puts the message straight in the inbox of the connection.
+ * The identity table only holds the open connections : an entry is removed when its connection is closed, or when
+ * the connection has been idle for longer than the idle timeout, if one is set.
+ */
 public class ZeroMQConnectionManager implements IConnectionManager {
 
     private Context context;
     private Socket frontend;
-    private int index=0;
 
-    private Map<String,Pair<Socket,Socket>> connections;
-    private Queue<Pair<ZFrame,Pair<Socket,Socket>>> connections_queue;
+    // used only by the reactor thread
+    private Map<Identity, ZeroMQRouterConnection> connections;
+    private BlockingQueue<ZeroMQRouterConnection> connections_queue;
 
     private int port;
+    private ZeroMQEventLoop loop;
+    private final Executor executor;
+    private volatile long idleTimeout = 0;
 
     public ZeroMQConnectionManager(int port) {
+        this(port, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param port     : the tcp port to bind
+     * @param executor : completes the asynchronous reads of the connections, so that their callbacks can block
+     *                 without stopping the reactor
+     */
+    public ZeroMQConnectionManager(int port, Executor executor) {
         context = ZMQ.context(1);
         this.port = port;
+        this.executor = executor;
 
         connections = new HashMap<>();
-        connections_queue=new LinkedList<>();
+        connections_queue = new LinkedBlockingQueue<>();
 
         frontend = context.socket(ZMQ.ROUTER);
-        frontend.bind("tcp://*:"+port);
+        frontend.bind("tcp://*:" + port);
+        loop = new ZeroMQEventLoop(context);
+        loop.execute(() -> loop.watch(frontend, this::pollEvents));
     }
 
-    void pollEvents() {
-
-        Poller poller=context.poller(1);
-
-        poller.register(frontend, Poller.POLLIN);
-        if (poller.poll() < 0)
-            return;
-
-        if(poller.pollin(0)) {
-            //First frame is identity
-            ZMsg orig = ZMsg.recvMsg(frontend);
-            ZMsg msg = orig.duplicate();
+    /**
+     * Closes the accepted connections that neither received nor sent anything for idleTimeout milliseconds.
+     * Disabled by default : it must stay disabled if some connections are kept open while idle, e.g. the
+     * connections of the services registered to a Broker.
+     *
+     * @param idleTimeout : in milliseconds, 0 to disable
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        if (idleTimeout > 0) loop.execute(() -> loop.every(Math.max(1, idleTimeout / 2), this::evictIdle));
+    }
 
-            //Logger.log("received : " + msg.toString());
+    /**
+     * @return how many connections are open
+     */
+    public int openConnections() {
+        CompletableFuture<Integer> size = new CompletableFuture<>();
+        loop.execute(() -> size.complete(connections.size()));
+        return size.join();
+    }
 
-            ZFrame identity = msg.pop();
-            Pair<Socket, Socket> sockets = connections.get(identity.toString());
+    /**
+     * Routes the messages received by the frontend to their connections.
+     * It runs in the reactor thread, the only one that uses the frontend socket.
+     */
+    void pollEvents() {
+        while ((frontend.getEvents() & Poller.POLLIN) != 0) {
+            //First frame is identity, the last one is the message
+            byte[] identity = frontend.recv(ZMQ.DONTWAIT);
+            if (identity == null) return;
+            byte[] request = identity;
+            while (frontend.hasReceiveMore()) request = frontend.recv();
 
-            if (sockets == null) {
-                sockets = new Pair<>(context.socket(ZMQ.DEALER), context.socket(ZMQ.DEALER));
+            if (Logger.isEnabled())
+                Logger.log("ZeroMQConnectionManager received :" + new String(request, StandardCharsets.UTF_8));
 
-                sockets.getValue().connect("inproc://local" + index);
-                sockets.getKey().bind("inproc://local" + index++);
+            route(new Identity(identity), request);
+        }
+    }
 
+    private void route(Identity identity, byte[] message) {
+        ZeroMQRouterConnection connection = connections.get(identity);
+        if (connection == null) {
+            connection = new ZeroMQRouterConnection(identity, this, executor);
+            connections.put(identity, connection);
+            connections_queue.add(connection);
+        }
+        connection.deliver(message);
+    }
 
-                connections.put(identity.toString(), sockets);
-                connections_queue.add(new Pair<>(identity, sockets));
+    /**
+     * Sends message to the client, in the reactor thread
+     */
+    CompletableFuture<Void> send(Identity identity, byte[] message) {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        Runnable transmit = () -> {
+            try {
+                frontend.sendMore(identity.bytes);
+                frontend.send(message, 0);
+                sent.complete(null);
+            } catch (RuntimeException e) {
+                sent.completeExceptionally(e);
             }
+        };
+        if (loop.inLoop()) transmit.run();
+        else loop.execute(transmit);
+        return sent;
+    }
 
-            //  Second frame is empty
-            //String empty = msg.popString();
-            //assert (empty.length() == 0);
-
-            //  Third frame is READY or else a client reply address
-            String request = msg.popString();
-
-
-            Logger.log("ZeroMQConnectionManager received :" + identity + ";" + request);
+    /**
+     * Removes the connection from the identity table : the next message of the same client is a new connection,
+     * so that a client can keep its socket open for many requests. The messages received after the last read of
+     * the closed connection are given to a new connection.
+     */
+    void close(ZeroMQRouterConnection connection) {
+        loop.execute(() -> {
+            connections.remove(connection.identity, connection);
+            for (byte[] message : connection.detach(new ArrayList<>())) route(connection.identity, message);
+        });
+    }
 
-            sockets.getKey().send(request);
+    private void evictIdle() {
+        long timeout = idleTimeout;
+        if (timeout <= 0) return;
+        long now = System.currentTimeMillis();
+        List<ZeroMQRouterConnection> idle = new ArrayList<>();
+        for (Iterator<ZeroMQRouterConnection> it = connections.values().iterator(); it.hasNext(); ) {
+            ZeroMQRouterConnection connection = it.next();
+            if (!connection.accepted || now - connection.lastActivity < timeout) continue;
+            it.remove();
+            idle.add(connection);
+        }
+        for (ZeroMQRouterConnection connection : idle) {
+            if (Logger.isEnabled()) Logger.log("ZeroMQConnectionManager: closing idle connection " + connection.identity);
+            connection.close();
         }
     }
 
+    /**
+     * @return the connection of a new client, or null if the calling thread is interrupted while waiting
+     */
     @Override
     public IConnection acceptConnection() {
-        while(true) {
-            if (connections_queue.isEmpty()) {
-                pollEvents();
-            }else{
-                Pair<ZFrame, Pair<Socket, Socket>> connection=connections_queue.poll();
-                return new ZeroMQConnection(connection.getValue().getValue(),frontend,connection.getKey(),context);
-            }
+        try {
+            ZeroMQRouterConnection connection = connections_queue.take();
+            connection.accepted = true;
+            return connection;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         }
     }
 }
@@ -0,0 +1,171 @@
+package zeromqimplementation;
+
+import logger.Logger;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread that polls the sockets of all the connections waiting for a message asynchronously.
+ * ZeroMQ sockets cannot be shared between threads : while a connection is waiting, its socket is used only by this
+ * thread, and the tasks of the other threads (e.g. an asynchronous send) are queued and run here.
+ * The thread is started by the first asynchronous operation, so synchronous only clients do not pay for it.
+ */
+class ZeroMQEventLoop implements Runnable {
+
+    private final ZMQ.Context context;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // used only by the loop thread
+    private final Map<Socket, ZeroMQConnection> waiting = new HashMap<>();
+    private final Map<Socket, ZeroMQConnection> registered = new HashMap<>();
+    private final Map<Socket, Runnable> watched = new HashMap<>();
+    private Runnable periodic = null;
+    private long period, nextRun;
+    private Poller poller;
+    private final ByteBuffer signal = ByteBuffer.allocate(64);
+    private Pipe wakeup;
+    private Thread thread = null;
+
+    ZeroMQEventLoop(ZMQ.Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Runs the task in the loop thread
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        start();
+        try {
+            wakeup.sink().write(ByteBuffer.wrap(new byte[]{1}));
+        } catch (IOException e) {
+            Logger.error("ZeroMQEventLoop: cannot wake up the loop (" + e.getMessage() + ")");
+        }
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Polls the socket of connection until it receives a message. Must be called in the loop thread.
+     */
+    void waitMessage(ZeroMQConnection connection) {
+        //the poller only signals new messages : the ones already queued in the socket are taken straight away
+        if ((connection.socket.getEvents() & Poller.POLLIN) != 0) connection.received();
+        else waiting.put(connection.socket, connection);
+    }
+
+    /**
+     * Calls handler every time socket has messages, until the loop ends. Must be called in the loop thread.
+     * The handler must read all the queued messages, since the poller only signals the new ones.
+     */
+    void watch(Socket socket, Runnable handler) {
+        watched.put(socket, handler);
+        poller.register(socket, Poller.POLLIN);
+        handler.run();
+    }
+
+    /**
+     * Runs task every period milliseconds, until the loop ends. Must be called in the loop thread.
+     */
+    void every(long period, Runnable task) {
+        this.periodic = task;
+        this.period = period;
+        this.nextRun = System.currentTimeMillis() + period;
+    }
+
+    /**
+     * Stops polling the socket, e.g. before closing it. Must be called in the loop thread.
+     */
+    void forget(Socket socket) {
+        waiting.remove(socket);
+        if (registered.remove(socket) != null) poller.unregister(socket);
+    }
+
+    synchronized void start() {
+        if (thread != null) return;
+        try {
+            wakeup = Pipe.open();
+            wakeup.source().configureBlocking(false);
+            wakeup.sink().configureBlocking(false); //if the pipe is full the loop is going to wake up anyway
+        } catch (IOException e) {
+            throw new IllegalStateException("ZeroMQEventLoop: cannot create the wake up pipe", e);
+        }
+        thread = new Thread(this, "zeromq-event-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        poller = context.poller(16);
+        poller.register(wakeup.source(), Poller.POLLIN);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+
+            //the poller follows the set of waiting connections
+            registered.keySet().removeIf(s -> {
+                if (waiting.containsKey(s)) return false;
+                poller.unregister(s);
+                return true;
+            });
+            for (Map.Entry<Socket, ZeroMQConnection> w : waiting.entrySet())
+                if (registered.put(w.getKey(), w.getValue()) == null) poller.register(w.getKey(), Poller.POLLIN);
+
+            try {
+                if (poller.poll(timeout()) < 0) break;
+            } catch (RuntimeException e) { //the context has been terminated
+                break;
+            }
+
+            for (int i = 0; i < poller.getNext(); i++) {
+                ZMQ.PollItem item = poller.getItem(i);
+                if (item == null || !item.isReadable()) continue;
+                if (item.getSocket() == null) {
+                    drain();
+                    continue;
+                }
+                Runnable handler = watched.get(item.getSocket());
+                if (handler != null) {
+                    handler.run();
+                    continue;
+                }
+                ZeroMQConnection connection = waiting.remove(item.getSocket());
+                if (connection != null) connection.received();
+            }
+
+            if (periodic != null && System.currentTimeMillis() >= nextRun) {
+                nextRun = System.currentTimeMillis() + period;
+                periodic.run();
+            }
+        }
+        poller.close();
+    }
+
+    /**
+     * @return how long the poller can wait before the periodic task is due, -1 for ever
+     */
+    private long timeout() {
+        if (periodic == null) return -1;
+        return Math.max(0, nextRun - System.currentTimeMillis());
+    }
+
+    private void drain() {
+        try {
+            do signal.clear(); while (wakeup.source().read(signal) > 0);
+        } catch (IOException e) {
+            Logger.error("ZeroMQEventLoop: cannot read the wake up pipe (" + e.getMessage() + ")");
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package zeromqimplementation;
+
+import connectioninterfaces.IConnection;
+import connectioninterfaces.TimeoutException;
+import logger.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A connection accepted by a ZeroMQConnectionManager. The manager's reactor puts the messages of the client in the
+ * inbox, and the replies are sent through the frontend socket of the manager, in the reactor thread.
+ */
+class ZeroMQRouterConnection implements IConnection {
+
+    final Identity identity;
+    private final ZeroMQConnectionManager manager;
+    private final Executor executor;
+
+    // guarded by this
+    private final Deque<byte[]> inbox = new ArrayDeque<>();
+    private byte[] head = null;
+    private String headText = null;
+    private CompletableFuture<byte[]> pending = null;
+    private boolean closed = false;
+
+    volatile long lastActivity = System.currentTimeMillis();
+    volatile boolean accepted = false;
+
+    private final Utf8Encoder utf8 = new Utf8Encoder();
+
+    ZeroMQRouterConnection(Identity identity, ZeroMQConnectionManager manager, Executor executor) {
+        this.identity = identity;
+        this.manager = manager;
+        this.executor = executor;
+    }
+
+    /**
+     * Called by the reactor when the client sends a message. A waiting asynchronous read is completed by the
+     * executor, so that its callbacks do not stop the reactor.
+     */
+    void deliver(byte[] message) {
+        lastActivity = System.currentTimeMillis();
+        CompletableFuture<byte[]> waiting;
+        byte[] received;
+        synchronized (this) {
+            inbox.add(message);
+            notifyAll();
+            if (pending == null || closed || !next()) return;
+            received = head;
+            waiting = pending;
+            pending = null;
+        }
+        executor.execute(() -> waiting.complete(received));
+    }
+
+    /**
+     * Marks the connection as closed and takes the messages nobody read. Called by the reactor.
+     */
+    synchronized List<byte[]> detach(List<byte[]> left) {
+        closed = true;
+        left.addAll(inbox);
+        inbox.clear();
+        if (pending != null) {
+            CompletableFuture<byte[]> waiting = pending;
+            pending = null;
+            executor.execute(() -> waiting.completeExceptionally(new IllegalStateException("ZeroMQConnection closed")));
+        }
+        notifyAll();
+        return left;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        manager.close(this);
+    }
+
+    @Override
+    public String read() {
+        return text(readBytes());
+    }
+
+    @Override
+    public String read(long milliseconds) throws TimeoutException {
+        return text(readBytes(milliseconds));
+    }
+
+    @Override
+    public synchronized byte[] readBytes() {
+        try {
+            while (!next()) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ZeroMQConnection interrupted while waiting", e);
+        }
+        return head;
+    }
+
+    @Override
+    public synchronized byte[] readBytes(long milliseconds) throws TimeoutException {
+        long deadline = System.currentTimeMillis() + milliseconds;
+        try {
+            while (!next()) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) throw new TimeoutException("ZeroMQConnection received nothing");
+                wait(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("ZeroMQConnection interrupted while waiting");
+        }
+        return head;
+    }
+
+    /**
+     * @return true if there is a current message, taking it from the inbox if needed
+     */
+    private boolean next() {
+        if (head != null) return true;
+        if (closed) throw new IllegalStateException("ZeroMQConnection closed"); //the inbox goes to the next connection
+        head = inbox.poll();
+        headText = null;
+        if (head != null) {
+            if (Logger.isEnabled()) Logger.log("ZeroMQConnection received : \"" + text(head) + "\"");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The future is completed by the executor of the manager
+     */
+    @Override
+    public synchronized CompletableFuture<byte[]> readBytesAsync() {
+        if (head != null || (!closed && !inbox.isEmpty())) {
+            next();
+            return CompletableFuture.completedFuture(head);
+        }
+        if (closed) {
+            CompletableFuture<byte[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("ZeroMQConnection closed"));
+            return failed;
+        }
+        if (pending == null) pending = new CompletableFuture<>();
+        return pending;
+    }
+
+    private synchronized String text(byte[] data) {
+        if (data != head) return new String(data, StandardCharsets.UTF_8);
+        if (headText == null) headText = new String(data, StandardCharsets.UTF_8);
+        return headText;
+    }
+
+    @Override
+    public synchronized void consume() {
+        readBytes(); //if there is no current message the next one is dropped
+        head = null;
+        headText = null;
+    }
+
+    @Override
+    public void send(String msg) {
+        send((CharSequence) msg);
+    }
+
+    @Override
+    public void send(CharSequence msg) {
+        if (Logger.isEnabled()) Logger.log("Sending : " + msg);
+        synchronized (utf8) {
+            ByteBuffer bytes = utf8.encode(msg);
+            sendAsync(bytes.array(), 0, bytes.limit());
+        }
+    }
+
+    @Override
+    public void send(byte[] msg, int offset, int length) {
+        sendAsync(msg, offset, length);
+    }
+
+    /**
+     * The message is copied and sent in the reactor thread, the only one using the frontend socket.
+     */
+    @Override
+    public CompletableFuture<Void> sendAsync(byte[] msg, int offset, int length) {
+        lastActivity = System.currentTimeMillis();
+        return manager.send(identity, Arrays.copyOfRange(msg, offset, offset + length));
+    }
+}